@@ -67,6 +67,7 @@ main_class=fiji.Main
 dashdash=f
 dry_run=
 needs_tools_jar=
+cds=
 CLASSPATH=
 
 while test $# -gt 0
@@ -91,6 +92,13 @@ General options:
 	show the command line but do not run anything
 --debugger=<port>[,suspend=(y|n)]
 	start up in debug mode, ready to be attached to
+--cds
+	start sc.fiji.Main using a class data sharing archive of the
+	classes loaded at startup; the archive is recorded at the end
+	of the first run after a jar changed (needs Java 13 or newer)
+--profile=<name>
+	start sc.fiji.Main with only the jars of the given launch
+	profile (full, headless-batch, trakem2 or spim)
 
 Options to run programs other than ImageJ:
 --jython
@@ -115,6 +123,14 @@ EOF
 	?,--dry-run)
 		dry_run=t
 		;;
+	?,--cds)
+		cds=t
+		main_class=sc.fiji.Main
+		;;
+	?,--profile=*)
+		main_class=sc.fiji.app.ProfileLauncher
+		first_java_options="$first_java_options -Dfiji.profile=`sq_quote "${option#--profile=}"`"
+		;;
 	?,--cp=*)
 		add_classpath "${1#--cp=}"
 		;;
@@ -237,6 +253,30 @@ discover_tools_jar () {
 	fi
 }
 
+list_jars_recursively () {
+	find "$FIJI_ROOT/jars" "$FIJI_ROOT/plugins" -name '*.jar' 2> /dev/null |
+	sort
+}
+
+# Prints the size and the full-resolution mtime of the given files
+# (GNU stat, BSD stat, or ls as a last resort with minute resolution)
+file_stamps () {
+	stat -L -c '%n %s %y' "$@" 2> /dev/null ||
+	stat -L -f '%N %z %Fm' "$@" 2> /dev/null ||
+	ls -lnL "$@"
+}
+
+# Fingerprints the jars (by size and mtime) and the Java executable
+cds_fingerprint () {
+	(
+		IFS='
+'
+		file_stamps `list_jars_recursively` "`command -v java`"
+	) 2> /dev/null |
+	cksum |
+	sed 's/ .*//'
+}
+
 discover_jar () {
 	ls -t "$FIJI_ROOT/jars/${1%.jar}"*.jar |
 	grep "/${1%.jar}\(\|-[0-9].*\)\.jar$" |
@@ -260,6 +300,21 @@ fiji.Main|ij.ImageJ)
 	main_class="net.imagej.updater.ClassLauncher -ijjarpath jars/ -ijjarpath plugins/"
 	add_classpath "`discover_jar ij-launcher`" "`discover_jar ij`" "`discover_jar javassist`"
 	;;
+sc.fiji.Main)
+	# NB: class data sharing needs the very same class path every time
+	saved_ifs="$IFS"
+	IFS='
+'
+	for path in `list_jars_recursively`
+	do
+		add_classpath "$path"
+	done
+	IFS="$saved_ifs"
+	;;
+sc.fiji.app.ProfileLauncher)
+	# NB: the launcher puts the profile's jars on the class path itself
+	add_classpath "`discover_jar fiji`" "`discover_jar scijava-common`"
+	;;
 org.apache.tools.ant.Main)
 	for path in "$FIJI_ROOT"/jars/ant*.jar
 	do
@@ -296,6 +351,28 @@ case "$EXECUTABLE_NAME" in
 	;;
 esac
 
+gc_options="-Xincgc -XX:PermSize=128m"
+case "$cds" in
+t)
+	# Java 13+ no longer knows these options
+	gc_options=
+	cds_dir="${FIJI_CACHE_DIR:-$HOME/.cache/fiji}"
+	cds_archive="$cds_dir/fiji-cds-`cds_fingerprint`.jsa"
+	if test -f "$cds_archive"
+	then
+		first_java_options="$first_java_options -Xshare:auto"
+		first_java_options="$first_java_options -XX:SharedArchiveFile=`sq_quote "$cds_archive"`"
+	else
+		# record the classes loaded in this run; remove outdated archives
+		test -n "$dry_run" || {
+			mkdir -p "$cds_dir" &&
+			rm -f "$cds_dir"/fiji-cds-*.jsa
+		}
+		first_java_options="$first_java_options -XX:ArchiveClassesAtExit=`sq_quote "$cds_archive"`"
+	fi
+	;;
+esac
+
 EXT_OPTION=
 case "`uname -s`" in
 Darwin)
@@ -305,7 +382,7 @@ esac
 
 eval java $EXT_OPTION \
 	-Dpython.cachedir.skip=true \
-	-Xincgc -XX:PermSize=128m \
+	$gc_options \
 	-Dplugins.dir=$FIJI_ROOT_SQ \
 	-Djava.class.path="`sq_quote "$CLASSPATH"`" \
 	-Dsun.java.command=Fiji -Dij.dir=$FIJI_ROOT_SQ \
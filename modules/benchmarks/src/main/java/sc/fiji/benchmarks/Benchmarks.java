@@ -0,0 +1,185 @@
+/*
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2015 Fiji
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package sc.fiji.benchmarks;
+
+import ij.IJ;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeSet;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the Fiji benchmarks, and writes their results in a stable JSON
+ * format.
+ * <p>
+ * Usage: {@code Benchmarks <output.json> [<regex>...]}, where the regular
+ * expressions select the benchmarks to run (by default, all of them). Run it
+ * with the class path of the distribution to measure, e.g.
+ * </p>
+ * <pre>
+ * ./ImageJ-linux64 --main-class sc.fiji.benchmarks.Benchmarks \
+ *     --cp fiji-benchmarks.jar -- results.json FilterBenchmark
+ * </pre>
+ * <p>
+ * Unlike JMH's own JSON output, the report only contains what is needed to
+ * compare two distributions, and its layout (see {@link #FORMAT_VERSION})
+ * only changes along with its version: results are sorted by benchmark and
+ * parameters, and come with the versions of Java and ImageJ 1.x, and the
+ * names of all jars on the class path.
+ * </p>
+ */
+public final class Benchmarks {
+
+	/** Version of the report format, bumped whenever it changes. */
+	public static final int FORMAT_VERSION = 1;
+
+	private Benchmarks() {
+		// Prevent instantiation of utility class.
+	}
+
+	public static void main(final String... args) throws IOException,
+		RunnerException
+	{
+		if (args.length < 1) {
+			System.err.println("Usage: " + Benchmarks.class.getName() +
+				" <output.json> [<regex>...]");
+			System.exit(1);
+		}
+		final OptionsBuilder options = new OptionsBuilder();
+		if (args.length == 1) options.include(Benchmarks.class.getPackage()
+			.getName() + ".*");
+		for (int i = 1; i < args.length; i++) {
+			options.include(args[i]);
+		}
+		final Collection<RunResult> results = new Runner(options.build()).run();
+		write(new File(args[0]), results);
+	}
+
+	/** Writes the given results in the stable report format. */
+	public static void write(final File file,
+		final Collection<RunResult> results) throws IOException
+	{
+		final List<RunResult> sorted = new ArrayList<>(results);
+		Collections.sort(sorted, new Comparator<RunResult>() {
+
+			@Override
+			public int compare(final RunResult r1, final RunResult r2) {
+				return r1.getParams().compareTo(r2.getParams());
+			}
+		});
+		try (final PrintWriter out = new PrintWriter(new OutputStreamWriter(
+			new FileOutputStream(file), "UTF-8")))
+		{
+			out.println("{");
+			out.println("  \"version\": " + FORMAT_VERSION + ",");
+			out.println("  \"java\": " + quote(System.getProperty("java.version")) +
+				",");
+			out.println("  \"vm\": " + quote(System.getProperty("java.vm.name")) +
+				",");
+			out.println("  \"os\": " + quote(System.getProperty("os.name") + " " +
+				System.getProperty("os.arch")) + ",");
+			out.println("  \"processors\": " +
+				Runtime.getRuntime().availableProcessors() + ",");
+			out.println("  \"ij\": " + quote(IJ.getVersion()) + ",");
+			out.println("  \"jars\": [" + join(getJars()) + "],");
+			out.println("  \"results\": [");
+			for (int i = 0; i < sorted.size(); i++) {
+				final BenchmarkParams params = sorted.get(i).getParams();
+				final Result<?> result = sorted.get(i).getPrimaryResult();
+				final List<String> values = new ArrayList<>();
+				for (final String key : params.getParamsKeys()) {
+					values.add(quote(key) + ": " + quote(params.getParam(key)));
+				}
+				out.print("    {\"benchmark\": " + quote(params.getBenchmark()) +
+					", \"params\": {" + join(values) + "}, \"mode\": " + quote(params
+						.getMode().shortLabel()) + ", \"unit\": " + quote(result
+							.getScoreUnit()) + ", \"score\": " + number(result
+								.getScore()) + ", \"error\": " + number(result
+									.getScoreError()) + ", \"samples\": " + result
+										.getSampleCount());
+				out.println(i < sorted.size() - 1 ? "}," : "}");
+			}
+			out.println("  ]");
+			out.println("}");
+		}
+	}
+
+	// -- Helper methods --
+
+	/** Lists the (sorted) names of the jars on the class path. */
+	private static List<String> getJars() {
+		final TreeSet<String> names = new TreeSet<>();
+		for (final String path : System.getProperty("java.class.path").split(
+			File.pathSeparator))
+		{
+			if (path.endsWith(".jar")) names.add(new File(path).getName());
+		}
+		final List<String> result = new ArrayList<>();
+		for (final String name : names) {
+			result.add(quote(name));
+		}
+		return result;
+	}
+
+	private static String join(final List<String> values) {
+		final StringBuilder builder = new StringBuilder();
+		for (final String value : values) {
+			if (builder.length() > 0) builder.append(", ");
+			builder.append(value);
+		}
+		return builder.toString();
+	}
+
+	private static String number(final double value) {
+		return Double.isNaN(value) || Double.isInfinite(value) ? "null" : String
+			.valueOf(value);
+	}
+
+	private static String quote(final String string) {
+		if (string == null) return "null";
+		final StringBuilder builder = new StringBuilder("\"");
+		for (final char c : string.toCharArray()) {
+			if (c == '"' || c == '\\') builder.append('\\').append(c);
+			else if (c < 0x20) builder.append(String.format("\\u%04x", (int) c));
+			else builder.append(c);
+		}
+		return builder.append('"').toString();
+	}
+
+}
@@ -0,0 +1,118 @@
+/*
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2015 Fiji
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package sc.fiji.benchmarks;
+
+import ij.plugin.filter.GaussianBlur;
+import ij.process.AutoThresholder;
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Filtering a single plane: blurring, downsampling and thresholding. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FilterBenchmark {
+
+	@Param({ "8", "16", "32" })
+	public int bitDepth;
+
+	private ImageProcessor source;
+	private ImageProcessor plane;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		source = TestImages.plane(2048, 2048, bitDepth, 1);
+	}
+
+	/** Restores the unfiltered plane, as the filters work in place. */
+	@Setup(Level.Invocation)
+	public void reset() {
+		plane = source.duplicate();
+	}
+
+	@Benchmark
+	public ImageProcessor gaussianBlur(final Blur blur) {
+		new GaussianBlur().blurGaussian(plane, blur.sigma, blur.sigma, 0.01);
+		return plane;
+	}
+
+	/**
+	 * Gaussian downsampling by the given factor, as done by the
+	 * {@code Examples>downsample} script: the image is blurred with the
+	 * kernel the target size requires, then resampled without interpolation.
+	 */
+	@Benchmark
+	public ImageProcessor downsample(final Downsampling downsampling) {
+		final int factor = downsampling.factor;
+		final double sourceSigma = 0.5, targetSigma = 0.5;
+		final double s = targetSigma * factor;
+		final double kernel = Math.sqrt(s * s - sourceSigma * sourceSigma);
+		new GaussianBlur().blurGaussian(plane, kernel, kernel, 0.01);
+		plane.setInterpolationMethod(ImageProcessor.NONE);
+		return plane.resize(plane.getWidth() / factor, plane.getHeight() /
+			factor);
+	}
+
+	@Benchmark
+	public ByteProcessor threshold() {
+		plane.setAutoThreshold(AutoThresholder.Method.Otsu, true,
+			ImageProcessor.NO_LUT_UPDATE);
+		return plane.createMask();
+	}
+
+	// -- Helper classes --
+
+	@State(Scope.Benchmark)
+	public static class Blur {
+
+		@Param({ "2", "8" })
+		public double sigma;
+	}
+
+	@State(Scope.Benchmark)
+	public static class Downsampling {
+
+		@Param({ "2", "4" })
+		public int factor;
+	}
+
+}
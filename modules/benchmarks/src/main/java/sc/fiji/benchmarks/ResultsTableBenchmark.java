@@ -0,0 +1,69 @@
+/*
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2015 Fiji
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package sc.fiji.benchmarks;
+
+import ij.measure.ResultsTable;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Building a results table row by row, as measurement plugins do. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ResultsTableBenchmark {
+
+	private static final String[] COLUMNS = { "Area", "Mean", "StdDev", "Min",
+		"Max", "X", "Y", "Perim.", "Circ.", "Label" };
+
+	@Param({ "1000", "100000" })
+	public int rows;
+
+	@Benchmark
+	public ResultsTable build() {
+		final ResultsTable table = new ResultsTable();
+		for (int row = 0; row < rows; row++) {
+			table.incrementCounter();
+			for (int column = 0; column < COLUMNS.length - 1; column++) {
+				table.addValue(COLUMNS[column], row * 0.5 + column);
+			}
+			table.addValue(COLUMNS[COLUMNS.length - 1], "roi-" + row);
+		}
+		return table;
+	}
+
+}
@@ -0,0 +1,97 @@
+/*
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2015 Fiji
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package sc.fiji.benchmarks;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.plugin.RGBStackMerge;
+import ij.plugin.ZProjector;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Operations on whole stacks: projections and RGB composition. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class StackBenchmark {
+
+	@Param({ "avg", "max", "sd" })
+	public String method;
+
+	private ImagePlus stack;
+	private ImageStack red, green, blue;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		stack = TestImages.stack("stack", 1024, 1024, 64, 16, 1);
+		red = TestImages.stack("red", 1024, 1024, 16, 8, 100).getStack();
+		green = TestImages.stack("green", 1024, 1024, 16, 8, 200).getStack();
+		blue = TestImages.stack("blue", 1024, 1024, 16, 8, 300).getStack();
+	}
+
+	@Benchmark
+	public ImagePlus project() {
+		final ZProjector projector = new ZProjector(stack);
+		projector.setMethod(method(method));
+		projector.doProjection();
+		return projector.getProjection();
+	}
+
+	@Benchmark
+	public ImageStack composeRGB() {
+		return RGBStackMerge.mergeStacks(red, green, blue, true);
+	}
+
+	// -- Helper methods --
+
+	private static int method(final String name) {
+		switch (name) {
+			case "avg":
+				return ZProjector.AVG_METHOD;
+			case "max":
+				return ZProjector.MAX_METHOD;
+			case "sd":
+				return ZProjector.SD_METHOD;
+			default:
+				throw new IllegalArgumentException("Unknown projection: " + name);
+		}
+	}
+
+}
@@ -0,0 +1,107 @@
+/*
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2015 Fiji
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package sc.fiji.benchmarks;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+
+import java.util.Random;
+
+/**
+ * Creates the (reproducible) images the benchmarks work on.
+ * <p>
+ * The images are smooth blobs plus noise, so that thresholds, blurs and
+ * compressed file sizes behave like they do on microscopy images rather
+ * than on pure noise.
+ * </p>
+ */
+public final class TestImages {
+
+	private TestImages() {
+		// Prevent instantiation of utility class.
+	}
+
+	/** Creates a single plane of the given bit depth (8, 16 or 32). */
+	public static ImageProcessor plane(final int width, final int height,
+		final int bitDepth, final long seed)
+	{
+		final Random random = new Random(seed);
+		final ImageProcessor ip = create(width, height, bitDepth);
+		final double max = bitDepth == 8 ? 255 : bitDepth == 16 ? 4095 : 1;
+		final int blobs = 20;
+		final double[] x = new double[blobs], y = new double[blobs],
+				r = new double[blobs];
+		for (int i = 0; i < blobs; i++) {
+			x[i] = random.nextDouble() * width;
+			y[i] = random.nextDouble() * height;
+			r[i] = (0.02 + 0.08 * random.nextDouble()) * Math.min(width, height);
+		}
+		for (int j = 0; j < height; j++) {
+			for (int i = 0; i < width; i++) {
+				double value = 0.1;
+				for (int b = 0; b < blobs; b++) {
+					final double dx = (i - x[b]) / r[b], dy = (j - y[b]) / r[b];
+					value += Math.exp(-(dx * dx + dy * dy));
+				}
+				value = Math.min(1, 0.5 * value + 0.05 * random.nextGaussian());
+				ip.putPixelValue(i, j, Math.max(0, value) * max);
+			}
+		}
+		return ip;
+	}
+
+	/** Creates a stack of the given bit depth (8, 16 or 32). */
+	public static ImagePlus stack(final String title, final int width,
+		final int height, final int depth, final int bitDepth, final long seed)
+	{
+		final ImageStack stack = new ImageStack(width, height);
+		for (int z = 0; z < depth; z++) {
+			stack.addSlice("" + (z + 1), plane(width, height, bitDepth, seed + z));
+		}
+		return new ImagePlus(title, stack);
+	}
+
+	// -- Helper methods --
+
+	private static ImageProcessor create(final int width, final int height,
+		final int bitDepth)
+	{
+		switch (bitDepth) {
+			case 8:
+				return new ByteProcessor(width, height);
+			case 16:
+				return new ShortProcessor(width, height);
+			case 32:
+				return new FloatProcessor(width, height);
+			default:
+				throw new IllegalArgumentException("Unsupported bit depth: " +
+					bitDepth);
+		}
+	}
+
+}
@@ -0,0 +1,87 @@
+/*
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2015 Fiji
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package sc.fiji.benchmarks;
+
+import ij.ImagePlus;
+import ij.io.FileSaver;
+import ij.io.Opener;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Opening and saving TIFF stacks. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TiffBenchmark {
+
+	@Param({ "8", "16", "32" })
+	public int bitDepth;
+
+	private ImagePlus image;
+	private File file;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		image = TestImages.stack("tiff", 1024, 1024, 16, bitDepth, 1);
+		file = File.createTempFile("fiji-benchmark-", ".tif");
+		if (!new FileSaver(image).saveAsTiffStack(file.getPath())) {
+			throw new IOException("Could not write " + file);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		file.delete();
+	}
+
+	@Benchmark
+	public ImagePlus open() {
+		return new Opener().openImage(file.getPath());
+	}
+
+	@Benchmark
+	public boolean save() {
+		return new FileSaver(image).saveAsTiffStack(file.getPath());
+	}
+
+}
@@ -0,0 +1,134 @@
+/*
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2015 Fiji
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package sc.fiji.benchmarks;
+
+import ini.trakem2.ControlWindow;
+import ini.trakem2.Project;
+import ini.trakem2.display.Ball;
+import ini.trakem2.display.Layer;
+import ini.trakem2.display.LayerSet;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Inserting {@link Ball} objects into a TrakEM2 project, as in the
+ * {@code TrakEM2_Add_Balls} example.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class TrakEM2Benchmark {
+
+	@Param({ "100", "10000" })
+	public int balls;
+
+	private final Random random = new Random(1);
+	private File storage;
+	private Project project;
+	private double[][] coordinates;
+	private Ball ball;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		ControlWindow.setGUIEnabled(false);
+		coordinates = new double[balls][];
+		for (int i = 0; i < balls; i++) {
+			coordinates[i] = new double[] { 2048 * random.nextDouble(), 2048 * random
+				.nextDouble(), random.nextInt(10), 5 + 50 * random.nextDouble() };
+		}
+	}
+
+	/** Starts every iteration with a project without balls. */
+	@Setup(Level.Iteration)
+	public void createProject() throws IOException {
+		storage = File.createTempFile("fiji-benchmark-", "");
+		if (!storage.delete() || !storage.mkdir()) {
+			throw new IOException("Could not make directory " + storage);
+		}
+		project = Project.newFSProject("blank", null, storage.getPath() +
+			File.separator);
+		// NB: Create the layers up front, not in the first call only.
+		for (final double[] c : coordinates) {
+			project.getRootLayerSet().getLayer(c[2], 1, true);
+		}
+	}
+
+	/** Removes the ball, so that every call starts from the same state. */
+	@TearDown(Level.Invocation)
+	public void removeBall() {
+		if (ball != null) ball.remove(false);
+		ball = null;
+	}
+
+	@TearDown(Level.Iteration)
+	public void destroyProject() {
+		project.destroy();
+		delete(storage);
+	}
+
+	@Benchmark
+	public Ball insertBall() {
+		final LayerSet layerSet = project.getRootLayerSet();
+		ball = new Ball(project, "balls", 0, 0);
+		layerSet.add(ball);
+		for (final double[] c : coordinates) {
+			final Layer layer = layerSet.getLayer(c[2], 1, true);
+			ball.addBall(c[0], c[1], c[3], layer.getId());
+		}
+		return ball;
+	}
+
+	// -- Helper methods --
+
+	private static void delete(final File file) {
+		final File[] list = file.listFiles();
+		if (list != null) {
+			for (final File child : list) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+}
@@ -5,40 +5,47 @@
 # - to find the width of an image you know is uncompressed, but do not know
 #   the dimensions.
 #
-# To use it, open the raw image with File>Import>Raw... choosing a width and
-# height that should roughly be the correct one.  Then start this script,
-# which will open a dialog box with a slider, with which you can interactively
-# test new widths -- the pixels in the image window will be updated accordingly.
+# To use it, open the raw image with File>Import>Raw... (or File>Import>Raw
+# (Memory-Mapped)...) choosing a width and height that should roughly be the
+# correct one.  Then start this script, which will open a dialog box with a
+# slider, with which you can interactively test new widths -- the pixels in
+# the image window will be updated accordingly.
+#
+# The raw file is memory-mapped, and every width is shown as a new view of
+# the mapped file, so no pixels are copied, however large the file is.
 
+from ij import IJ, WindowManager
 from ij.gui import GenericDialog
 
 from java.awt.event import AdjustmentListener
 
-from java.lang import Math, System
+from java.lang import Math
+
+from sc.fiji.io import MappedRawStack
 
 image = WindowManager.getCurrentImage()
-ip = image.getProcessor()
-pixelsCopy = ip.getPixelsCopy()
-pixels = ip.getPixels()
-width = ip.getWidth()
-height = ip.getHeight()
+info = image.getOriginalFileInfo()
+if info is None or info.fileName is None:
+	IJ.error("The image was not imported from a raw file")
+	raise SystemExit
+original = image.getStack()
+stack = MappedRawStack.open(info)
+width = info.width
+pixelCount = info.width * info.height
 
-minWidth = int(Math.sqrt(len(pixels) / 16))
+minWidth = int(Math.sqrt(pixelCount / 16))
 maxWidth = minWidth * 16
 
 class Listener(AdjustmentListener):
 	def adjustmentValueChanged(self, event):
-		value = event.getSource().getValue()
-		rowstride = min(width, value)
-		for j in range(0, min(height, int(width * height / value))):
-			System.arraycopy(pixelsCopy, j * value,
-				pixels, j * width, rowstride)
-		image.updateAndDraw()
+		geometry = stack.getFileInfo()
+		geometry.width = event.getSource().getValue()
+		geometry.height = max(1, int(pixelCount / geometry.width))
+		image.setStack(stack.withGeometry(geometry))
 
 gd = GenericDialog("Width")
-gd.addSlider("width", minWidth, maxWidth, ip.getHeight())
+gd.addSlider("width", minWidth, maxWidth, width)
 gd.getSliders().get(0).addAdjustmentListener(Listener())
 gd.showDialog()
 if gd.wasCanceled():
-	pixels[0:width * height] = pixelsCopy
-	image.updateAndDraw()
+	image.setStack(original)
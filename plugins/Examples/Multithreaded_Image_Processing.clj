@@ -182,4 +182,20 @@
   (.setMinAndMax (.getProcessor imp) 0 1)
   (.show imp))
 
+; Fiji ships such a multithreader as a Java API, sc.fiji.parallel.Tiling,
+; which splits an image into rows, tiles or planes, and processes them on a
+; shared pool of threads, balancing the load by itself:
 
+(import '(sc.fiji.parallel Region RegionOp Tiling))
+
+(let [width (int 512)
+      height (int 512)
+      #^ImagePlus imp (IJ/createImage "Random image (Tiling)" "32-bit" width height 1)]
+  (.run (Tiling/rows imp)
+        (reify RegionOp
+          (process [this region]
+            (let [#^Region region region]
+              (dotimes [i (.getHeight region)]
+                (line-randomizer (+ i (.getY region)) (.getPixels region) width))))))
+  (.setMinAndMax (.getProcessor imp) 0 1)
+  (.show imp))
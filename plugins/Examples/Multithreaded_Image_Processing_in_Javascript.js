@@ -162,3 +162,28 @@ multithreader(randomizer, 0, n_blocks,
 imp.getProcessor().setMinAndMax(0, 1); // random values between 0 and 1
 imp.show();
 
+
+
+// Fiji ships the multithreader as a Java API, sc.fiji.parallel.Tiling, which
+// splits an image into rows, tiles or planes, and processes them on a shared
+// pool of threads. It balances the load by itself, so there is no need to
+// guess a good block size, and it shows the progress and stops on errors:
+
+importClass(Packages.sc.fiji.parallel.RegionOp);
+importClass(Packages.sc.fiji.parallel.Tiling);
+
+var tiled = new ImagePlus("Random (Tiling)", new FloatProcessor(width, height));
+Tiling.rows(tiled).showProgress().run(new RegionOp({
+	process: function(region) {
+		var pixels = region.getPixels();
+		var random = new Random();
+		for (var y = region.getY(); y < region.getY() + region.getHeight(); y++) {
+			var offset = y * width;
+			for (var x = 0; x < width; x++) {
+				pixels[offset + x] = random.nextFloat();
+			}
+		}
+	}
+}));
+tiled.getProcessor().setMinAndMax(0, 1);
+tiled.show();
@@ -2,20 +2,18 @@
 # 01 under a directory and makes an image stack of all the slices
 # numbered 23.  If this might be useful to you, copy the file and
 # customize the bits preceded with "CHANGEME":
+#
+# Only slice 23 is read of each file where the format allows it, and the
+# next files are read in parallel while the stack is built.  The same is
+# available as Image>Stacks>Tools>Same Slice in Multiple Files...
 
-include_class 'util.BatchOpener'
+include_class 'sc.fiji.io.SliceExtractor'
 
 # CHANGEME:
 directory = '/Volumes/LaCie/corpus/central-complex/biorad/reformatted'
 
-# CHANGEME:
-match  =  /01_warp/
-
-# CHANGEME:
-def filename_to_slicename(f)
-  # Take the name of the parent directory:
-  f.gsub( /\/([^\/]+)\/[^\/]+$/, '\1' )
-end
+# CHANGEME (a regular expression the paths must contain):
+match = '01_warp'
 
 unless FileTest.directory? directory
   error = "Couldn't find directory '#{directory}" +
@@ -24,48 +22,28 @@ unless FileTest.directory? directory
   exit(-1)  
 end
 
-images = `find #{directory} -name 'image.bin.gz' -print0`.split("\0")
-images = images.grep
+images = SliceExtractor.listFiles java.io.File.new(directory), 'image.bin.gz', match
 
-if images.empty?
+if images.isEmpty
   ij.IJ.error "No images found.  You probably need to customize the script."
   exit(-1)
 end
 
 slice_to_get = 23
 
-width  = -1
-height = -1
-depth  = -1
-
-stack = nil
+# The slices are labeled with the paths of their files below the directory:
+extractor = SliceExtractor.new images, slice_to_get
+extractor.labelsRelativeTo java.io.File.new(directory)
+stack = extractor.run
 
-images.each do |f|
-
-  i = BatchOpener.openFirstChannel f
-  
-  if width < 0
-    width  = i.getWidth
-    height = i.getHeight
-    depth  = i.getStackSize
-    stack = ij.ImageStack.new width, height
-  else
-    unless
-        width = i.getWidth && 
-        height == i.getHeight &&
-        depth == i.getStackSize
-      ij.IJ.error "The image #{i.getTitle} didn't have matching dimensions"
-      exit(-1)
-    end
-  end
-
-  slice_name = filename_to_slicename f
-  processor = i.getStack.getProcessor( slice_to_get )
-  stack.addSlice slice_name, processor
-            
-	i.close
+extractor.getFailures.each do |file, reason|
+  ij.IJ.log "Left out #{file}: #{reason}"
+end
 
+if stack.nil?
+  ij.IJ.error "None of the images had a slice #{slice_to_get}"
+  exit(-1)
 end
 
-result = ImagePlus.new "All slices numbered #{slice_to_get}", stack
+result = ij.ImagePlus.new "All slices numbered #{slice_to_get}", stack
 result.show
@@ -10,9 +10,14 @@
 # 
 # There are two measure functions:
 # 1 - measure: uses ImageJ's measurement settings and options
-# 2 - measureCustom: directly creates a ResultsTable with each AreaList name,
+# 2 - measureCustom: directly creates a table with each AreaList name,
 # id, layer index, layer Z, area in the layer and mean in the layer.
 #
+# The custom table is a sc.fiji.table.ColumnarTable, which stores each column
+# in a primitive array (and each distinct name only once), so that it stays
+# small even for millions of measurements. It can be saved in a compact
+# binary format with table.save(File(...)), and is shown as a ResultsTable.
+#
 # The declaration and invocation of the first "measure" function are commented
 # out with triple quotes.
 # 
@@ -27,6 +32,8 @@ from ini.trakem2.display import Display
 
 from java.awt.geom import AffineTransform
 
+from sc.fiji.table import ColumnarTable, Column
+
 """
 def measure(layerset):
   # Obtain a list of all AreaLists:
@@ -74,8 +81,14 @@ def measureCustom(layerset):
   alis = layerset.getZDisplayables(AreaList)
   # The loader
   loader = layerset.getProject().getLoader()
-  # The ResultsTable
-  table = Utils.createResultsTable("AreaLists", ["id", "layer", "Z", "area", "mean"])
+  # The table, with one typed column per measurement
+  table = ColumnarTable()
+  table.addColumn("Name", Column.Type.STRING)
+  table.addColumn("id", Column.Type.LONG)
+  table.addColumn("layer", Column.Type.LONG)
+  table.addColumn("Z", Column.Type.DOUBLE)
+  table.addColumn("area", Column.Type.DOUBLE)
+  table.addColumn("mean", Column.Type.DOUBLE)
   # The LayerSet's Calibration (units in microns, etc)
   calibration = layerset.getCalibrationCopy()
   # The measurement options as a bit mask:
@@ -105,15 +118,11 @@ def measureCustom(layerset):
         # Perform measurements (uncalibrated)
 	# (To get the calibration, call layerset.getCalibrationCopy())
         stats = ByteStatistics(imp.getProcessor(), moptions, calibration)
-	table.incrementCounter()
-	table.addLabel("Name", ali.getTitle())
-	table.addValue(0, ali.getId())
-	table.addValue(1, index) # the layer index
-	table.addValue(2, layer.getZ()) 
-	table.addValue(3, stats.area)
-	table.addValue(4, stats.mean)
-    # Update and show the table
-    table.show("AreaLists")
+	# (the layer index is the third value)
+	table.addRow(ali.getTitle(), ali.getId(), index, layer.getZ(),
+	             stats.area, stats.mean)
+  # Show the table
+  table.toResultsTable().show("AreaLists")
 
 
 # Get the front display, if any:
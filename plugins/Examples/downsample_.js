@@ -8,7 +8,9 @@
  * convolution.
  *
  * This script calculates the required Gaussian kernel for a given target size,
- * smoothes the image and resamples it.
+ * smoothes the image and resamples it.  Both are done at once by
+ * sc.fiji.process.Downsampler, which evaluates the kernel at the target
+ * pixels only (and can build whole pyramids of 2x downsampled images, too).
  *
  * Furthermore, you can define the "intrinsic" Gaussian kernel of the source and
  * target images.  An optimal sampler is identified by sigma=0.5.  If your
@@ -20,6 +22,7 @@
 importClass(Packages.ij.IJ);
 importClass(Packages.ij.WindowManager);
 importClass(Packages.ij.gui.GenericDialog);
+importClass(Packages.sc.fiji.process.Downsampler);
 
 var imp = WindowManager.getCurrentImage();
 var width = 0;
@@ -91,27 +94,16 @@ if ( imp )
 		targetSigma = gd.getNextNumber();
 		keepSource = gd.getNextBoolean();
 		
-		if ( width <= imp.getWidth() )
+		if ( width <= imp.getWidth() && height <= imp.getHeight() )
 		{
-			var s;
-			if ( fieldWithFocus == widthField )
-				s = targetSigma * imp.getWidth() / width;
-			else
-				s = targetSigma * imp.getHeight() / height;
-			
-			if ( keepSource )
-				IJ.run( "Duplicate...", "title=" + imp.getTitle() + " duplicate" );
-			IJ.run( "Gaussian Blur...", "sigma=" + Math.sqrt( s * s - sourceSigma * sourceSigma ) + " stack" );
-                        //IJ.log( "sigma = " + Math.sqrt( s * s - sourceSigma * sourceSigma ));
-			IJ.run( "Scale...", "x=- y=- width=" + width + " height=" + height + " process title=- interpolation=None" );
-                        
-                        var extraX = (imp.getWidth() % 2 == 0) ? 0 : 1;
-                        var extraY = (imp.getHeight() % 2 == 0) ? 0 : 1;
-			var initialX = (width % 2 == 0) ? (imp.getWidth() / 2 - width/2 + extraX) : (imp.getWidth() / 2 - width/2 +1 -extraX);
-                        var initialY = (height % 2 == 0) ? (imp.getHeight() / 2 - height/2 + extraY) : (imp.getHeight() / 2 - height/2 +1 -extraY);
-                        IJ.makeRectangle(initialX, initialY, width, height);
-                        IJ.run("Crop");
-                        //IJ.run( "Canvas Size...", "width=" + width + " height=" + height + " position=Center" );
+			// Blurs and resamples in one go, computing only the target pixels
+			var downsampler = new Downsampler( imp );
+			downsampler.size( width, height );
+			downsampler.sourceSigma( sourceSigma );
+			downsampler.targetSigma( targetSigma );
+			downsampler.run().show();
+			if ( !keepSource )
+				imp.close();
 		}
 		else
 			IJ.showMessage( "You try to upsample the image.  You need an interpolator for that not a downsampler." );
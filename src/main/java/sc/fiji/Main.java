@@ -22,8 +22,24 @@
 
 package sc.fiji;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import net.imagej.ImageJ;
 
+import org.scijava.Context;
+import org.scijava.command.CommandService;
+import org.scijava.script.ScriptLanguage;
+import org.scijava.script.ScriptService;
+
+import sc.fiji.script.CachingScriptService;
+import sc.fiji.server.JobServer;
+import sc.fiji.startup.Checkpoint;
+import sc.fiji.startup.ContextLoader;
+import sc.fiji.startup.StartupProfiler;
+
 /**
  * Launches Fiji.
  * 
@@ -45,9 +61,121 @@ public static void main(final String[] args) {
 		//
 		// However, ImageJ1 will prioritize the plugin JARs in the ImageJ
 		// installation's plugins folder over the JARs on the classpath!
-		System.setProperty("plugins.dir", "/path/to/your/Fiji.app");
+		if (System.getProperty("plugins.dir") == null) {
+			System.setProperty("plugins.dir", "/path/to/your/Fiji.app");
+		}
+
+		final List<String> arguments = new ArrayList<>(Arrays.asList(args));
+		final String server = removeOption(arguments, "--server");
+		final String checkpoint = removeOption(arguments, "--checkpoint");
+		if (server != null || checkpoint != null) {
+			System.setProperty("java.awt.headless", "true");
+		}
+
+		// NB: Set the fiji.startup.profile system property to a file path to
+		// get a report of how long each phase of the startup takes.
+		final StartupProfiler profiler = StartupProfiler.get();
+		profiler.writeReportOnExit();
+
+		final Context context = new ContextLoader(profiler).load();
+		if (checkpoint != null) checkpoint(context, checkpoint, profiler);
+		if (server != null) {
+			profiler.writeReport();
+			serve(context, server, arguments);
+			return;
+		}
+		try (StartupProfiler.Phase phase = profiler.phase("launch")) {
+			new ImageJ(context).launch(arguments.toArray(new String[arguments
+				.size()]));
+		}
+		profiler.writeReport();
+	}
+
+	// -- Helper methods --
+
+	/**
+	 * Warms up the given context, and {@link Checkpoint checkpoints} the JVM.
+	 * When the checkpoint is restored, the launch simply continues, e.g. with
+	 * the job server.
+	 * <p>
+	 * Usage: {@code --checkpoint[=<language>,...]}, naming the script
+	 * languages whose engines should be part of the checkpoint.
+	 * </p>
+	 */
+	private static void checkpoint(final Context context,
+		final String languages, final StartupProfiler profiler)
+	{
+		try (StartupProfiler.Phase phase = profiler.phase("warm-up")) {
+			context.service(CommandService.class).getCommands();
+			final ScriptService scriptService =
+				context.service(ScriptService.class);
+			scriptService.getScripts();
+			for (final String name : languages.split(",")) {
+				if (name.isEmpty()) continue;
+				final ScriptLanguage language = scriptService.getLanguageByName(name);
+				if (language == null) {
+					System.err.println("[WARNING] Unknown script language: " + name);
+				}
+				else if (scriptService instanceof CachingScriptService) {
+					((CachingScriptService) scriptService).warmUp(language);
+				}
+				else language.getScriptEngine();
+			}
+		}
+		profiler.writeReport();
+		try {
+			Checkpoint.checkpointRestore();
+		}
+		catch (final Exception e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Runs a {@link JobServer}, keeping this (warm) context alive to run
+	 * macros, scripts and commands for other processes.
+	 * <p>
+	 * Usage: {@code --server[=<port>] [--server-threads=<count>]}
+	 * </p>
+	 */
+	private static void serve(final Context context, final String port,
+		final List<String> args)
+	{
+		final String threadsOption = removeOption(args, "--server-threads");
+		final int threads = threadsOption == null ? Runtime.getRuntime()
+			.availableProcessors() : Integer.parseInt(threadsOption);
+		try {
+			new JobServer(context, port.isEmpty() ? 0 : Integer.parseInt(port),
+				threads, 4 * threads).run();
+		}
+		catch (final IOException e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
 
-		new ImageJ().launch(args);
+	/**
+	 * Removes the given option from the argument list.
+	 *
+	 * @return the option's value ({@code --option=value}), the empty string
+	 *         if it has none, or null if the option was not passed
+	 */
+	private static String removeOption(final List<String> args,
+		final String option)
+	{
+		for (int i = 0; i < args.size(); i++) {
+			final String arg = args.get(i);
+			if (arg.equals(option)) {
+				args.remove(i);
+				return "";
+			}
+			if (arg.startsWith(option + "=")) {
+				args.remove(i);
+				return arg.substring(option.length() + 1);
+			}
+		}
+		return null;
 	}
 
 }
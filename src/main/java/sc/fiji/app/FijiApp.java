@@ -22,6 +22,13 @@
 
 package sc.fiji.app;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 import org.scijava.app.AbstractApp;
 import org.scijava.app.App;
 import org.scijava.plugin.Plugin;
@@ -37,6 +44,43 @@ public class FijiApp extends AbstractApp {
 
 	public static final String NAME = "Fiji";
 
+	/** The whole distribution. */
+	public static final String FULL = "full";
+
+	/** Scripts and macros on headless nodes, e.g. of a cluster. */
+	public static final String HEADLESS_BATCH = "headless-batch";
+
+	/** TrakEM2, without the SPIM and BigDataViewer components. */
+	public static final String TRAKEM2 = "trakem2";
+
+	/** SPIM processing, without the TrakEM2 components. */
+	public static final String SPIM = "spim";
+
+	/** Components a headless node never uses: OpenGL, Java 3D and the GUIs. */
+	private static final List<String> DESKTOP = Arrays.asList("gluegen-rt*",
+		"jogl-all*", "joal*", "jocl*", "j3dcore", "j3dutils", "3D_Viewer",
+		"Volume_Viewer", "Interactive_3D_Surface_Plot", "Color_Inspector_3D",
+		"script-editor", "bigdataviewer*", "bigwarp*");
+
+	private static final List<String> TRAKEM2_JARS = Arrays.asList("TrakEM2*",
+		"T2-*", "mpicbg-trakem2", "trakem2*", "FS_Align_TrakEM2", "VectorString");
+
+	private static final List<String> SPIM_JARS = Arrays.asList("SPIM_*",
+		"spim_data", "bigdataviewer*", "bigwarp*");
+
+	private static final Map<String, LaunchProfile> PROFILES = profiles(
+		new LaunchProfile(FULL, "the complete Fiji distribution", false,
+			Collections.<String> emptyList(), Collections.<String> emptyList()),
+		new LaunchProfile(HEADLESS_BATCH, "headless scripts and macros", true,
+			concat(DESKTOP, TRAKEM2_JARS, SPIM_JARS), Arrays.asList(
+				"org.scijava.script.ScriptService",
+				"org.scijava.command.CommandService", "org.scijava.io.IOService",
+				"net.imagej.legacy.LegacyService")),
+		new LaunchProfile(TRAKEM2, "TrakEM2 without SPIM processing", false,
+			SPIM_JARS, Collections.<String> emptyList()),
+		new LaunchProfile(SPIM, "SPIM processing without TrakEM2", false,
+			TRAKEM2_JARS, Collections.<String> emptyList()));
+
 	@Override
 	public String getTitle() {
 		return NAME;
@@ -52,4 +96,35 @@ public String getArtifactId() {
 		return "fiji";
 	}
 
+	/** Gets the launch profiles of Fiji, by name. */
+	public static Map<String, LaunchProfile> getProfiles() {
+		return PROFILES;
+	}
+
+	/** Gets the launch profile of the given name, or null if there is none. */
+	public static LaunchProfile getProfile(final String name) {
+		return PROFILES.get(name);
+	}
+
+	// -- Helper methods --
+
+	private static Map<String, LaunchProfile> profiles(
+		final LaunchProfile... profiles)
+	{
+		final Map<String, LaunchProfile> map = new LinkedHashMap<>();
+		for (final LaunchProfile profile : profiles) {
+			map.put(profile.getName(), profile);
+		}
+		return Collections.unmodifiableMap(map);
+	}
+
+	@SafeVarargs
+	private static List<String> concat(final List<String>... lists) {
+		final List<String> result = new ArrayList<>();
+		for (final List<String> list : lists) {
+			result.addAll(list);
+		}
+		return result;
+	}
+
 }
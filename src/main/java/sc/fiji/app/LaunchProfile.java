@@ -0,0 +1,151 @@
+/*
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2015 Fiji
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package sc.fiji.app;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A named subset of the Fiji distribution to launch.
+ * <p>
+ * A profile excludes the jars not needed for a particular use, e.g. the
+ * OpenGL and Java 3D libraries on headless cluster nodes, so that fewer jars
+ * end up on the class path. Jars are matched by their artifact ID (the file
+ * name without version and extension); a pattern ending in {@code *} matches
+ * all artifact IDs with the given prefix.
+ * </p>
+ *
+ * @see FijiApp#getProfiles()
+ * @see ProfileLauncher
+ */
+public class LaunchProfile {
+
+	private final String name;
+	private final String description;
+	private final boolean headless;
+	private final List<String> excludes;
+	private final List<String> services;
+
+	public LaunchProfile(final String name, final String description,
+		final boolean headless, final List<String> excludes,
+		final List<String> services)
+	{
+		this.name = name;
+		this.description = description;
+		this.headless = headless;
+		this.excludes = Collections.unmodifiableList(new ArrayList<>(excludes));
+		this.services = Collections.unmodifiableList(new ArrayList<>(services));
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getDescription() {
+		return description;
+	}
+
+	/** Whether this profile runs without a graphical user interface. */
+	public boolean isHeadless() {
+		return headless;
+	}
+
+	/** Gets the artifact ID patterns of the jars this profile leaves out. */
+	public List<String> getExcludes() {
+		return excludes;
+	}
+
+	/**
+	 * Gets the class names of the services this profile needs; the empty list
+	 * stands for all services.
+	 */
+	public List<String> getServices() {
+		return services;
+	}
+
+	/** Whether the given jar is part of this profile. */
+	public boolean includes(final File jar) {
+		final String artifactId = getArtifactId(jar.getName());
+		for (final String pattern : excludes) {
+			if (pattern.endsWith("*")) {
+				if (artifactId.startsWith(pattern.substring(0, pattern.length() - 1)))
+				{
+					return false;
+				}
+			}
+			else if (artifactId.equals(pattern)) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Lists the jars of this profile in the {@code jars/} and {@code plugins/}
+	 * directories (and their subdirectories) of the given Fiji installation,
+	 * in a stable order.
+	 */
+	public List<File> getClassPath(final File baseDir) {
+		final List<File> result = new ArrayList<>();
+		listJars(new File(baseDir, "jars"), result);
+		listJars(new File(baseDir, "plugins"), result);
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+
+	/**
+	 * Strips the version and extension from a jar file name, e.g.
+	 * {@code gluegen-rt-2.3.2-natives-linux-amd64.jar} becomes
+	 * {@code gluegen-rt}.
+	 */
+	public static String getArtifactId(final String fileName) {
+		final String baseName = fileName.endsWith(".jar") ? fileName.substring(0,
+			fileName.length() - 4) : fileName;
+		return baseName.replaceFirst("-[0-9].*$", "");
+	}
+
+	// -- Helper methods --
+
+	private void listJars(final File dir, final List<File> result) {
+		final File[] list = dir.listFiles();
+		if (list == null) return;
+		Arrays.sort(list);
+		final List<File> dirs = new ArrayList<>();
+		for (final File file : list) {
+			if (file.isDirectory()) dirs.add(file);
+			else if (file.getName().endsWith(".jar") && includes(file)) {
+				result.add(file);
+			}
+		}
+		for (final File subdir : dirs) {
+			listJars(subdir, result);
+		}
+	}
+
+}
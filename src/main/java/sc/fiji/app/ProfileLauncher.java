@@ -0,0 +1,110 @@
+/*
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2015 Fiji
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package sc.fiji.app;
+
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.util.List;
+
+import sc.fiji.startup.ClassIndex;
+import sc.fiji.startup.ContextLoader;
+import sc.fiji.startup.IndexedClassLoader;
+import sc.fiji.startup.StartupCache;
+
+/**
+ * Launches Fiji with the class path of a {@link LaunchProfile}.
+ * <p>
+ * The JVM is started with a minimal class path (the Fiji and SciJava Common
+ * jars); this class then puts the jars of the profile named by the
+ * {@value #PROFILE_PROPERTY} system property into a new class loader and
+ * calls {@link sc.fiji.Main} through it. Headless profiles also set
+ * {@code java.awt.headless} and restrict the services loaded at startup (see
+ * {@link ContextLoader#SERVICES_PROPERTY}), unless these are set already.
+ * </p>
+ * <p>
+ * NB: ImageJ 1.x still scans the {@code plugins/} directory on its own; the
+ * profile only decides which of those plugins can be loaded.
+ * </p>
+ */
+public class ProfileLauncher {
+
+	/** System property naming the profile to launch. */
+	public static final String PROFILE_PROPERTY = "fiji.profile";
+
+	public static void main(final String[] args) throws Throwable {
+		final String name = System.getProperty(PROFILE_PROPERTY, FijiApp.FULL);
+		final LaunchProfile profile = FijiApp.getProfile(name);
+		if (profile == null) {
+			System.err.println("Unknown profile: " + name);
+			System.err.println("Available profiles:");
+			for (final LaunchProfile p : FijiApp.getProfiles().values()) {
+				System.err.println("\t" + p.getName() + "\t" + p.getDescription());
+			}
+			System.exit(1);
+		}
+		final File baseDir = StartupCache.getBaseDirectory();
+		if (baseDir == null) {
+			throw new IllegalStateException("Cannot launch profile " + name +
+				": the Fiji directory is unknown (please set fiji.dir)");
+		}
+
+		if (profile.isHeadless()) {
+			setDefault("java.awt.headless", "true");
+			if (!profile.getServices().isEmpty()) {
+				setDefault(ContextLoader.SERVICES_PROPERTY, String.join(",",
+					profile.getServices()));
+			}
+		}
+
+		final List<File> jars = profile.getClassPath(baseDir);
+		final StringBuilder classPath = new StringBuilder();
+		for (final File jar : jars) {
+			if (classPath.length() > 0) classPath.append(File.pathSeparator);
+			classPath.append(jar.getPath());
+		}
+		// NB: The startup caches are keyed by the class path; make sure every
+		// profile gets its own entries.
+		System.setProperty("java.class.path", classPath.toString());
+
+		// NB: Skip the application class loader, so that Fiji's and SciJava's
+		// classes are loaded (once) from the profile's jars.
+		final ClassLoader loader = new IndexedClassLoader(ClassIndex.get(), jars,
+			ClassLoader.getSystemClassLoader().getParent());
+		Thread.currentThread().setContextClassLoader(loader);
+		try {
+			loader.loadClass("sc.fiji.Main").getMethod("main", String[].class)
+				.invoke(null, (Object) args);
+		}
+		catch (final InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+
+	// -- Helper methods --
+
+	private static void setDefault(final String key, final String value) {
+		if (System.getProperty(key) == null) System.setProperty(key, value);
+	}
+
+}
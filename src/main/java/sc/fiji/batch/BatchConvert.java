@@ -0,0 +1,127 @@
+/*
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2015 Fiji
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package sc.fiji.batch;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+import org.scijava.ItemIO;
+import org.scijava.app.StatusService;
+import org.scijava.command.Command;
+import org.scijava.log.LogService;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+import org.scijava.widget.FileWidget;
+
+import sc.fiji.parallel.ProgressListener;
+
+/**
+ * Converts all image files of a directory to another format, reading and
+ * writing several files in parallel (see {@link BatchConverter}).
+ */
+@Plugin(type = Command.class, menuPath = "Process>Batch>Convert Files...")
+public class BatchConvert implements Command {
+
+	@Parameter(label = "Source directory", style = FileWidget.DIRECTORY_STYLE)
+	private File source;
+
+	@Parameter(label = "Target directory", style = FileWidget.DIRECTORY_STYLE)
+	private File target;
+
+	@Parameter(choices = { "TIFF", "ZIP", "PNG", "JPEG" })
+	private String format = "TIFF";
+
+	@Parameter(label = "File extensions", required = false,
+		description = "Comma-separated extensions of the files to convert, " +
+			"or empty for all files")
+	private String extensions = "";
+
+	@Parameter(label = "Include subdirectories")
+	private boolean recursive;
+
+	@Parameter(label = "Skip files converted before",
+		description = "Resumes an interrupted conversion")
+	private boolean resume = true;
+
+	@Parameter(label = "Reader threads", min = "1")
+	private int readers = Math.max(1, Runtime.getRuntime()
+		.availableProcessors() / 2);
+
+	@Parameter(label = "Writer threads", min = "1")
+	private int writers = Math.max(1, Runtime.getRuntime()
+		.availableProcessors() / 2);
+
+	@Parameter(label = "Images in flight", min = "1")
+	private int queue = 4;
+
+	@Parameter
+	private StatusService statusService;
+
+	@Parameter
+	private LogService log;
+
+	@Parameter(type = ItemIO.OUTPUT)
+	private String report;
+
+	@Override
+	public void run() {
+		final BatchConverter converter = new BatchConverter(source, target)
+			.format(BatchConverter.Format.valueOf(format))
+			.extensions(extensions == null ? new String[0] : extensions.split(","))
+			.recursive(recursive).resume(resume).readers(readers).writers(writers)
+			.queueSize(queue);
+		converter.progress(new ProgressListener() {
+
+			@Override
+			public void progress(final long done, final long total) {
+				statusService.showStatus((int) done, (int) total, converter
+					.getThroughput());
+			}
+		});
+		try {
+			converter.run();
+		}
+		catch (final IOException e) {
+			log.error(e);
+		}
+		catch (final InterruptedException e) {
+			log.warn("Conversion interrupted; it can be resumed later");
+			Thread.currentThread().interrupt();
+		}
+		statusService.clearStatus();
+		for (final Map.Entry<String, String> failure : converter.getFailures()
+			.entrySet())
+		{
+			log.warn("Could not convert " + failure.getKey() + ": " + failure
+				.getValue());
+		}
+		report = converter.getReport();
+	}
+
+	public String getReport() {
+		return report;
+	}
+
+}
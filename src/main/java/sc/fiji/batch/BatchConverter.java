@@ -0,0 +1,600 @@
+/*
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2015 Fiji
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package sc.fiji.batch;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.io.FileSaver;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import sc.fiji.parallel.ProgressListener;
+
+/**
+ * Converts all image files of a directory to another format.
+ * <p>
+ * The files are converted in a pipeline: a pool of reader threads opens the
+ * files, and hands the images to a pool of writer threads via a bounded
+ * queue, so that at most a few images are held in memory at any time, no
+ * matter how fast either side is.
+ * </p>
+ * <p>
+ * Every converted file is recorded in the {@value #CHECKPOINT_FILE} file of
+ * the target directory as soon as it has been written. When
+ * {@link #resume(boolean) resuming}, the files recorded there are skipped,
+ * so an interrupted conversion (e.g. after a crash) can simply be started
+ * again.
+ * </p>
+ * <p>
+ * The converted files get the format's extension instead of their own,
+ * unless that would give several files the same name: {@code a.png} and
+ * {@code a.jpg} are converted to {@code a.png.tif} and {@code a.jpg.tif}.
+ * </p>
+ * <p>
+ * Typical usage:
+ * </p>
+ * <pre>
+ * BatchConverter converter = new BatchConverter(source, target)
+ * 	.format(BatchConverter.Format.TIFF).extensions("lsm", "czi")
+ * 	.recursive(true).resume(true);
+ * converter.run();
+ * System.out.println(converter.getReport());
+ * </pre>
+ */
+public class BatchConverter {
+
+	/** The file in the target directory recording the converted files. */
+	public static final String CHECKPOINT_FILE = ".batch-convert-done";
+
+	/** The formats files can be converted to. */
+	public enum Format {
+		TIFF(".tif", true), ZIP(".zip", true), PNG(".png", false),
+		JPEG(".jpg", false);
+
+		private final String extension;
+		private final boolean stacks;
+
+		private Format(final String extension, final boolean stacks) {
+			this.extension = extension;
+			this.stacks = stacks;
+		}
+
+		/** Gets the extension of files in this format. */
+		public String getExtension() {
+			return extension;
+		}
+
+		/** Whether this format can hold stacks, not just single planes. */
+		public boolean canHoldStacks() {
+			return stacks;
+		}
+
+		private boolean save(final ImagePlus image, final String path) {
+			final FileSaver saver = new FileSaver(image);
+			switch (this) {
+				case TIFF:
+					return image.getStackSize() > 1 ? saver.saveAsTiffStack(path)
+						: saver.saveAsTiff(path);
+				case ZIP:
+					return saver.saveAsZip(path);
+				case PNG:
+					return saver.saveAsPng(path);
+				default:
+					return saver.saveAsJpeg(path);
+			}
+		}
+	}
+
+	private static final Item END = new Item(null, 0, null, null);
+
+	private final File source, target;
+	private Format format = Format.TIFF;
+	private final Set<String> extensions = new HashSet<>();
+	private boolean recursive;
+	private boolean resume;
+	private int readers = defaultThreads();
+	private int writers = defaultThreads();
+	private int queueSize = 4;
+	private ProgressListener listener;
+
+	private int total, skipped;
+	private final AtomicInteger converted = new AtomicInteger();
+	private final AtomicLong bytes = new AtomicLong();
+	private final Map<String, String> failures =
+		Collections.synchronizedMap(new LinkedHashMap<String, String>());
+	private long startNanos, endNanos;
+	private Map<String, String> targets;
+
+	/**
+	 * @param source the directory with the files to convert
+	 * @param target the directory to write the converted files to
+	 */
+	public BatchConverter(final File source, final File target) {
+		this.source = source;
+		this.target = target;
+	}
+
+	/** Sets the format to convert to; by default, TIFF. */
+	public BatchConverter format(final Format format) {
+		this.format = format;
+		return this;
+	}
+
+	/**
+	 * Restricts the conversion to files with the given extensions (without
+	 * the dot, case-insensitively). By default, all files are converted.
+	 */
+	public BatchConverter extensions(final String... extensions) {
+		for (final String extension : extensions) {
+			final String trimmed = extension.trim().toLowerCase(Locale.ENGLISH);
+			if (trimmed.isEmpty()) continue;
+			this.extensions.add(trimmed.startsWith(".") ? trimmed.substring(1)
+				: trimmed);
+		}
+		return this;
+	}
+
+	/**
+	 * Sets whether to convert the files in subdirectories, too; the
+	 * converted files are written to the same subdirectories of the target.
+	 */
+	public BatchConverter recursive(final boolean recursive) {
+		this.recursive = recursive;
+		return this;
+	}
+
+	/**
+	 * Sets whether to skip the files a previous conversion into the same
+	 * target directory recorded as converted.
+	 */
+	public BatchConverter resume(final boolean resume) {
+		this.resume = resume;
+		return this;
+	}
+
+	/** Sets the number of threads reading files. */
+	public BatchConverter readers(final int readers) {
+		this.readers = Math.max(1, readers);
+		return this;
+	}
+
+	/** Sets the number of threads writing files. */
+	public BatchConverter writers(final int writers) {
+		this.writers = Math.max(1, writers);
+		return this;
+	}
+
+	/**
+	 * Sets the number of images read but not written yet which may be held
+	 * in memory, besides the ones being read and written.
+	 */
+	public BatchConverter queueSize(final int queueSize) {
+		this.queueSize = Math.max(1, queueSize);
+		return this;
+	}
+
+	/** Sets the listener to tell whenever a file is done. */
+	public BatchConverter progress(final ProgressListener listener) {
+		this.listener = listener;
+		return this;
+	}
+
+	/**
+	 * Lists the files to convert, as paths relative to the source directory
+	 * (separated by slashes), in alphabetical order.
+	 */
+	public List<String> listFiles() {
+		final List<String> files = new ArrayList<>();
+		list(source, "", files);
+		return files;
+	}
+
+	/**
+	 * Converts the files, returning once all files are done.
+	 * <p>
+	 * Files which cannot be read or written do not stop the conversion; they
+	 * are reported by {@link #getFailures()}.
+	 * </p>
+	 *
+	 * @throws IOException if the checkpoint file cannot be written
+	 * @throws InterruptedException if the calling thread is interrupted; the
+	 *           conversion stops, and can be resumed later
+	 */
+	public void run() throws IOException, InterruptedException {
+		final List<String> files = listFiles();
+		// NB: Name the targets by all files, so that resuming names them alike.
+		targets = getTargetPaths(files);
+		final File checkpointFile = new File(target, CHECKPOINT_FILE);
+		if (resume) {
+			final Set<String> done = readCheckpoint(checkpointFile);
+			final int count = files.size();
+			files.removeAll(done);
+			skipped = count - files.size();
+		}
+		total = files.size();
+		startNanos = System.nanoTime();
+		endNanos = 0;
+
+		if (!target.isDirectory() && !target.mkdirs()) {
+			throw new IOException("Could not make directory " + target);
+		}
+		final ExecutorService readerPool =
+			Executors.newFixedThreadPool(readers, threadFactory("reader"));
+		final ExecutorService writerPool =
+			Executors.newFixedThreadPool(writers, threadFactory("writer"));
+		try (final PrintWriter checkpoint = new PrintWriter(new OutputStreamWriter(
+			new FileOutputStream(checkpointFile, resume), StandardCharsets.UTF_8)))
+		{
+			final BlockingQueue<Item> queue = new ArrayBlockingQueue<>(queueSize);
+			final AtomicInteger next = new AtomicInteger();
+			for (int i = 0; i < readers; i++) {
+				readerPool.execute(new Runnable() {
+
+					@Override
+					public void run() {
+						readAll(files, next, queue);
+					}
+				});
+			}
+			for (int i = 0; i < writers; i++) {
+				writerPool.execute(new Runnable() {
+
+					@Override
+					public void run() {
+						writeAll(queue, checkpoint);
+					}
+				});
+			}
+			readerPool.shutdown();
+			readerPool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+			for (int i = 0; i < writers; i++) {
+				queue.put(END);
+			}
+			writerPool.shutdown();
+			writerPool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		}
+		finally {
+			readerPool.shutdownNow();
+			writerPool.shutdownNow();
+			endNanos = System.nanoTime();
+		}
+	}
+
+	/** Gets the number of files to convert, excluding skipped ones. */
+	public int getTotal() {
+		return total;
+	}
+
+	/** Gets the number of files skipped because they were converted before. */
+	public int getSkipped() {
+		return skipped;
+	}
+
+	/** Gets the number of files converted so far. */
+	public int getConverted() {
+		return converted.get();
+	}
+
+	/**
+	 * Gets the files which could not be converted, mapped to the reason.
+	 */
+	public Map<String, String> getFailures() {
+		synchronized (failures) {
+			return new LinkedHashMap<>(failures);
+		}
+	}
+
+	/** Gets the number of files done so far, including failed ones. */
+	public int getDone() {
+		return converted.get() + failures.size();
+	}
+
+	/** Gets the seconds the conversion took (so far). */
+	public double getSeconds() {
+		if (startNanos == 0) return 0;
+		final long end = endNanos == 0 ? System.nanoTime() : endNanos;
+		return (end - startNanos) / 1e9;
+	}
+
+	/** Gets the number of files converted per second. */
+	public double getFilesPerSecond() {
+		final double seconds = getSeconds();
+		return seconds == 0 ? 0 : converted.get() / seconds;
+	}
+
+	/**
+	 * Gets the number of megabytes (2^20 bytes) of source files converted per
+	 * second.
+	 */
+	public double getMegabytesPerSecond() {
+		final double seconds = getSeconds();
+		return seconds == 0 ? 0 : bytes.get() / 1048576.0 / seconds;
+	}
+
+	/** Reports the throughput, e.g. for a status bar. */
+	public String getThroughput() {
+		return String.format(Locale.ENGLISH, "%d of %d files, %.1f files/s, " +
+			"%.1f MB/s", getDone(), total, getFilesPerSecond(),
+			getMegabytesPerSecond());
+	}
+
+	/** Reports the outcome of the conversion, including all failures. */
+	public String getReport() {
+		final StringBuilder builder = new StringBuilder();
+		builder.append(String.format(Locale.ENGLISH,
+			"Converted %d of %d files in %.1f s (%.1f files/s, %.1f MB/s)",
+			converted.get(), total, getSeconds(), getFilesPerSecond(),
+			getMegabytesPerSecond()));
+		if (skipped > 0) {
+			builder.append("; skipped ").append(skipped).append(
+				" files converted before");
+		}
+		builder.append('\n');
+		for (final Map.Entry<String, String> failure : getFailures().entrySet()) {
+			builder.append("Failed: ").append(failure.getKey()).append(": ").append(
+				failure.getValue()).append('\n');
+		}
+		return builder.toString();
+	}
+
+	// -- Helper methods --
+
+	private void readAll(final List<String> files, final AtomicInteger next,
+		final BlockingQueue<Item> queue)
+	{
+		for (;;) {
+			final int index = next.getAndIncrement();
+			if (index >= files.size() || Thread.currentThread().isInterrupted()) {
+				return;
+			}
+			final String path = files.get(index);
+			final File file = new File(source, path);
+			Item item;
+			try {
+				final ImagePlus image = IJ.openImage(file.getPath());
+				item = image == null ? new Item(path, 0, null, "cannot be opened")
+					: new Item(path, file.length(), image, null);
+			}
+			catch (final Throwable t) {
+				item = new Item(path, 0, null, t.toString());
+			}
+			try {
+				queue.put(item);
+			}
+			catch (final InterruptedException e) {
+				return;
+			}
+		}
+	}
+
+	private void writeAll(final BlockingQueue<Item> queue,
+		final PrintWriter checkpoint)
+	{
+		for (;;) {
+			final Item item;
+			try {
+				item = queue.take();
+			}
+			catch (final InterruptedException e) {
+				return;
+			}
+			if (item == END) return;
+			// NB: A dead writer would leave the readers waiting forever.
+			try {
+				if (item.image == null) failures.put(item.path, item.error);
+				else {
+					try {
+						write(item, checkpoint);
+					}
+					finally {
+						item.image.flush();
+					}
+				}
+			}
+			catch (final Throwable t) {
+				failures.put(item.path, t.toString());
+			}
+			try {
+				if (listener != null) listener.progress(getDone(), total);
+			}
+			catch (final RuntimeException e) {
+				System.err.println("[WARNING] Progress listener failed: " + e);
+			}
+		}
+	}
+
+	private void write(final Item item, final PrintWriter checkpoint) {
+		if (!format.canHoldStacks() && item.image.getStackSize() > 1) {
+			failures.put(item.path, "has " + item.image.getStackSize() +
+				" planes, but " + format + " can hold only one");
+			return;
+		}
+		final File file = new File(target, targets.get(item.path));
+		final File dir = file.getParentFile();
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			failures.put(item.path, "cannot make directory " + dir);
+			return;
+		}
+		if (!format.save(item.image, file.getPath())) {
+			failures.put(item.path, "cannot be written to " + file);
+			return;
+		}
+		// NB: Record the file only once it has been written completely.
+		synchronized (checkpoint) {
+			checkpoint.println(item.path);
+			checkpoint.flush();
+		}
+		bytes.addAndGet(item.bytes);
+		converted.incrementAndGet();
+	}
+
+	private void list(final File dir, final String prefix,
+		final List<String> result)
+	{
+		final File[] list = dir.listFiles();
+		if (list == null) return;
+		Arrays.sort(list);
+		for (final File file : list) {
+			final String name = file.getName();
+			if (name.startsWith(".")) continue;
+			if (file.isDirectory()) {
+				// NB: Do not convert the converted files again.
+				if (recursive && !isTarget(file)) {
+					list(file, prefix + name + "/", result);
+				}
+			}
+			else if (accepts(name)) result.add(prefix + name);
+		}
+	}
+
+	private boolean accepts(final String name) {
+		if (extensions.isEmpty()) return true;
+		final int dot = name.lastIndexOf('.');
+		return dot >= 0 && extensions.contains(name.substring(dot + 1)
+			.toLowerCase(Locale.ENGLISH));
+	}
+
+	private boolean isTarget(final File dir) {
+		try {
+			return dir.getCanonicalFile().equals(target.getCanonicalFile());
+		}
+		catch (final IOException e) {
+			return dir.getAbsoluteFile().equals(target.getAbsoluteFile());
+		}
+	}
+
+	private static Set<String> readCheckpoint(final File file)
+		throws IOException
+	{
+		final Set<String> done = new HashSet<>();
+		if (!file.exists()) return done;
+		try (final BufferedReader reader = new BufferedReader(
+			new InputStreamReader(new FileInputStream(file),
+				StandardCharsets.UTF_8)))
+		{
+			for (;;) {
+				final String line = reader.readLine();
+				if (line == null) break;
+				if (!line.isEmpty()) done.add(line);
+			}
+		}
+		return done;
+	}
+
+	/**
+	 * Maps the given files to their paths relative to the target directory.
+	 * The extension is replaced by the format's, except for files which would
+	 * end up with the same name (e.g. {@code a.png} and {@code a.jpg}): those
+	 * keep it, as in {@code a.png.tif}.
+	 */
+	private Map<String, String> getTargetPaths(final List<String> files) {
+		// NB: Names differing in case only collide on some file systems.
+		final Map<String, Integer> counts = new HashMap<>();
+		for (final String path : files) {
+			final String key = stripExtension(path).toLowerCase(Locale.ENGLISH);
+			final Integer count = counts.get(key);
+			counts.put(key, count == null ? 1 : count + 1);
+		}
+		final Map<String, String> result = new HashMap<>();
+		for (final String path : files) {
+			final String stripped = stripExtension(path);
+			final boolean collides = counts.get(stripped.toLowerCase(
+				Locale.ENGLISH)) > 1;
+			result.put(path, (collides ? path : stripped) + format.getExtension());
+		}
+		return result;
+	}
+
+	private static String stripExtension(final String path) {
+		final int slash = path.lastIndexOf('/');
+		final int dot = path.lastIndexOf('.');
+		return dot > slash + 1 ? path.substring(0, dot) : path;
+	}
+
+	private static int defaultThreads() {
+		return Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+	}
+
+	private static ThreadFactory threadFactory(final String role) {
+		return new ThreadFactory() {
+
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(final Runnable r) {
+				final Thread thread = new Thread(r, "fiji-batch-" + role + "-" + count
+					.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+
+	// -- Helper classes --
+
+	/** A file read, or failed to be read, waiting to be written. */
+	private static class Item {
+
+		private final String path;
+		private final long bytes;
+		private final ImagePlus image;
+		private final String error;
+
+		private Item(final String path, final long bytes, final ImagePlus image,
+			final String error)
+		{
+			this.path = path;
+			this.bytes = bytes;
+			this.image = image;
+			this.error = error;
+		}
+	}
+
+}
@@ -0,0 +1,125 @@
+/*
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2015 Fiji
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package sc.fiji.io;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+
+import org.scijava.ItemIO;
+import org.scijava.app.StatusService;
+import org.scijava.command.Command;
+import org.scijava.log.LogService;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+import org.scijava.widget.FileWidget;
+
+import sc.fiji.parallel.ProgressListener;
+
+/**
+ * Stacks the same plane of all matching image files below a directory (see
+ * {@link SliceExtractor}).
+ */
+@Plugin(type = Command.class,
+	menuPath = "Image>Stacks>Tools>Same Slice in Multiple Files...")
+public class ExtractSameSlice implements Command {
+
+	@Parameter(style = FileWidget.DIRECTORY_STYLE)
+	private File directory;
+
+	@Parameter(label = "File name pattern",
+		description = "A glob pattern, e.g. image.bin.gz or *.tif")
+	private String pattern = "*.tif";
+
+	@Parameter(label = "Path filter", required = false,
+		description = "A regular expression the paths must contain, " +
+			"e.g. 01_warp")
+	private String filter = "";
+
+	@Parameter(label = "Slice", min = "1",
+		description = "The slice of the first channel (or the frame, " +
+			"if there are no slices)")
+	private int slice = 1;
+
+	@Parameter(label = "Reader threads", min = "1")
+	private int threads = Runtime.getRuntime().availableProcessors();
+
+	@Parameter
+	private StatusService statusService;
+
+	@Parameter
+	private LogService log;
+
+	@Parameter(type = ItemIO.OUTPUT)
+	private ImagePlus image;
+
+	@Override
+	public void run() {
+		final List<File> files = SliceExtractor.listFiles(directory, pattern,
+			filter);
+		if (files.isEmpty()) {
+			log.error("No files matching " + pattern + " in " + directory);
+			return;
+		}
+		final SliceExtractor extractor = new SliceExtractor(files, slice)
+			.labelsRelativeTo(directory).threads(threads);
+		extractor.progress(new ProgressListener() {
+
+			@Override
+			public void progress(final long done, final long total) {
+				statusService.showStatus((int) done, (int) total, "Reading " + done +
+					"/" + total);
+			}
+		});
+		final ImageStack stack;
+		try {
+			stack = extractor.run();
+		}
+		catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return;
+		}
+		finally {
+			statusService.clearStatus();
+		}
+		for (final Map.Entry<File, String> failure : extractor.getFailures()
+			.entrySet())
+		{
+			log.warn("Left out " + failure.getKey() + ": " + failure.getValue());
+		}
+		if (stack == null) {
+			log.error("No file had a slice " + slice);
+			return;
+		}
+		image = new ImagePlus("All slices numbered " + slice, stack);
+	}
+
+	public ImagePlus getImage() {
+		return image;
+	}
+
+}
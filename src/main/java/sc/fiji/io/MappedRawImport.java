@@ -0,0 +1,116 @@
+/*
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2015 Fiji
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package sc.fiji.io;
+
+import ij.ImagePlus;
+import ij.io.FileInfo;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.scijava.ItemIO;
+import org.scijava.command.Command;
+import org.scijava.log.LogService;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+
+/**
+ * Imports a raw image file as a {@link MappedRawStack}, i.e. without reading
+ * the whole file into memory.
+ */
+@Plugin(type = Command.class,
+	menuPath = "File>Import>Raw (Memory-Mapped)...")
+public class MappedRawImport implements Command {
+
+	private static final String[] TYPES = { "8-bit", "16-bit Signed",
+		"16-bit Unsigned", "32-bit Signed", "32-bit Unsigned", "32-bit Real",
+		"64-bit Real", "24-bit RGB" };
+
+	private static final int[] FILE_TYPES = { FileInfo.GRAY8,
+		FileInfo.GRAY16_SIGNED, FileInfo.GRAY16_UNSIGNED, FileInfo.GRAY32_INT,
+		FileInfo.GRAY32_UNSIGNED, FileInfo.GRAY32_FLOAT, FileInfo.GRAY64_FLOAT,
+		FileInfo.RGB };
+
+	@Parameter
+	private File file;
+
+	@Parameter(label = "Image type", choices = { "8-bit", "16-bit Signed",
+		"16-bit Unsigned", "32-bit Signed", "32-bit Unsigned", "32-bit Real",
+		"64-bit Real", "24-bit RGB" })
+	private String type = "16-bit Unsigned";
+
+	@Parameter(min = "1")
+	private int width = 512;
+
+	@Parameter(min = "1")
+	private int height = 512;
+
+	@Parameter(label = "Offset to first image", min = "0")
+	private long offset;
+
+	@Parameter(label = "Gap between images", min = "0")
+	private int gap;
+
+	@Parameter(label = "Little-endian byte order")
+	private boolean littleEndian;
+
+	@Parameter
+	private LogService log;
+
+	@Parameter(type = ItemIO.OUTPUT)
+	private ImagePlus image;
+
+	@Override
+	public void run() {
+		final FileInfo info = new FileInfo();
+		info.fileName = file.getName();
+		info.directory = file.getAbsoluteFile().getParent() + File.separator;
+		info.fileType = getFileType(type);
+		info.width = width;
+		info.height = height;
+		info.longOffset = offset;
+		info.gapBetweenImages = gap;
+		info.intelByteOrder = littleEndian;
+		try {
+			image = MappedRawStack.open(info).createImage(file.getName());
+		}
+		catch (final IOException | IllegalArgumentException e) {
+			log.error("Could not map " + file, e);
+		}
+	}
+
+	public ImagePlus getImage() {
+		return image;
+	}
+
+	// -- Helper methods --
+
+	private static int getFileType(final String type) {
+		for (int i = 0; i < TYPES.length; i++) {
+			if (TYPES[i].equals(type)) return FILE_TYPES[i];
+		}
+		throw new IllegalArgumentException("Unknown type: " + type);
+	}
+
+}
@@ -0,0 +1,328 @@
+/*
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2015 Fiji
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package sc.fiji.io;
+
+import ij.ImagePlus;
+import ij.VirtualStack;
+import ij.io.FileInfo;
+import ij.process.ByteProcessor;
+import ij.process.ColorProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A virtual stack reading the planes of a raw image file straight from a
+ * memory mapping of the file.
+ * <p>
+ * Only the planes actually shown are decoded, and the file is mapped once:
+ * a stack with a different geometry (width, height, offset, gap, type or
+ * byte order) of the same file is {@link #withGeometry(FileInfo) derived}
+ * without copying or even reading anything. This makes it cheap to probe
+ * the geometry of raw dumps of unknown layout, however large.
+ * </p>
+ * <p>
+ * The stack holds as many planes as fit into the file. It is read-only;
+ * modifications of its planes are not kept.
+ * </p>
+ */
+public class MappedRawStack extends VirtualStack {
+
+	/** The size of the regions the file is mapped in. */
+	private static final long SEGMENT_SIZE = 1L << 30;
+
+	private final Mapping mapping;
+	private final FileInfo info;
+	private final int planeCount;
+
+	private MappedRawStack(final Mapping mapping, final FileInfo info) {
+		super(info.width, info.height, null, info.directory);
+		this.mapping = mapping;
+		this.info = (FileInfo) info.clone();
+		final long planeBytes = getPlaneBytes(info);
+		final long available = mapping.length - info.getOffset();
+		planeCount = available < planeBytes ? 0 : (int) Math.min(
+			Integer.MAX_VALUE, 1 + (available - planeBytes) / (planeBytes +
+				info.gapBetweenImages));
+	}
+
+	/**
+	 * Maps the file described by the given file info (i.e. the file
+	 * {@code info.fileName} in {@code info.directory}), and reads it with the
+	 * given geometry.
+	 */
+	public static MappedRawStack open(final FileInfo info) throws IOException {
+		return new MappedRawStack(new Mapping(new File(info.directory,
+			info.fileName)), check(info));
+	}
+
+	/**
+	 * Gets a stack reading the same file with a different geometry. The file
+	 * is not mapped again.
+	 */
+	public MappedRawStack withGeometry(final FileInfo geometry) {
+		return new MappedRawStack(mapping, check(geometry));
+	}
+
+	/** Gets (a copy of) the geometry of this stack. */
+	public FileInfo getFileInfo() {
+		return (FileInfo) info.clone();
+	}
+
+	/** Creates an image showing this stack. */
+	public ImagePlus createImage(final String title) {
+		final ImagePlus image = new ImagePlus(title, this);
+		if (info.fileType == FileInfo.GRAY16_SIGNED) {
+			image.getCalibration().setSigned16BitCalibration();
+		}
+		image.setFileInfo(getFileInfo());
+		return image;
+	}
+
+	// -- ImageStack methods --
+
+	@Override
+	public ImageProcessor getProcessor(final int n) {
+		final Object pixels = getPixels(n);
+		final int width = getWidth(), height = getHeight();
+		if (pixels instanceof byte[]) {
+			return new ByteProcessor(width, height, (byte[]) pixels, null);
+		}
+		if (pixels instanceof short[]) {
+			return new ShortProcessor(width, height, (short[]) pixels, null);
+		}
+		if (pixels instanceof float[]) {
+			return new FloatProcessor(width, height, (float[]) pixels);
+		}
+		return new ColorProcessor(width, height, (int[]) pixels);
+	}
+
+	@Override
+	public Object getPixels(final int n) {
+		if (n < 1 || n > planeCount) {
+			throw new IllegalArgumentException("Plane " + n + " out of range 1-" +
+				planeCount);
+		}
+		final long position = info.getOffset() + (n - 1) * (getPlaneBytes(info) +
+			info.gapBetweenImages);
+		final ByteBuffer buffer = mapping.get(position, (int) getPlaneBytes(info))
+			.order(info.intelByteOrder ? ByteOrder.LITTLE_ENDIAN
+				: ByteOrder.BIG_ENDIAN);
+		return decode(buffer, getWidth() * getHeight());
+	}
+
+	@Override
+	public void setPixels(final Object pixels, final int n) {
+		// NB: The stack is read-only.
+	}
+
+	@Override
+	public int getSize() {
+		return planeCount;
+	}
+
+	@Override
+	public int size() {
+		return planeCount;
+	}
+
+	@Override
+	public String getSliceLabel(final int n) {
+		return null;
+	}
+
+	@Override
+	public String getFileName(final int n) {
+		return info.fileName;
+	}
+
+	@Override
+	public int getBitDepth() {
+		switch (info.fileType) {
+			case FileInfo.GRAY8:
+				return 8;
+			case FileInfo.GRAY16_SIGNED:
+			case FileInfo.GRAY16_UNSIGNED:
+				return 16;
+			case FileInfo.RGB:
+				return 24;
+			default:
+				return 32;
+		}
+	}
+
+	@Override
+	public void deleteSlice(final int n) {
+		throw new UnsupportedOperationException("Read-only stack");
+	}
+
+	// -- Helper methods --
+
+	private Object decode(final ByteBuffer buffer, final int count) {
+		switch (info.fileType) {
+			case FileInfo.GRAY8: {
+				final byte[] pixels = new byte[count];
+				buffer.get(pixels);
+				return pixels;
+			}
+			case FileInfo.GRAY16_SIGNED:
+			case FileInfo.GRAY16_UNSIGNED: {
+				final short[] pixels = new short[count];
+				buffer.asShortBuffer().get(pixels);
+				if (info.fileType == FileInfo.GRAY16_SIGNED) {
+					// NB: ImageJ stores signed 16-bit values with an offset.
+					for (int i = 0; i < count; i++) {
+						pixels[i] = (short) (pixels[i] + 32768);
+					}
+				}
+				return pixels;
+			}
+			case FileInfo.GRAY32_FLOAT: {
+				final float[] pixels = new float[count];
+				buffer.asFloatBuffer().get(pixels);
+				return pixels;
+			}
+			case FileInfo.GRAY32_INT:
+			case FileInfo.GRAY32_UNSIGNED: {
+				final float[] pixels = new float[count];
+				final IntBuffer ints = buffer.asIntBuffer();
+				final boolean unsigned = info.fileType == FileInfo.GRAY32_UNSIGNED;
+				for (int i = 0; i < count; i++) {
+					final int value = ints.get(i);
+					pixels[i] = unsigned ? value & 0xffffffffL : value;
+				}
+				return pixels;
+			}
+			case FileInfo.GRAY64_FLOAT: {
+				final float[] pixels = new float[count];
+				final DoubleBuffer doubles = buffer.asDoubleBuffer();
+				for (int i = 0; i < count; i++) {
+					pixels[i] = (float) doubles.get(i);
+				}
+				return pixels;
+			}
+			default: {
+				final int[] pixels = new int[count];
+				for (int i = 0; i < count; i++) {
+					pixels[i] = 0xff000000 | (buffer.get() & 0xff) << 16 | (buffer
+						.get() & 0xff) << 8 | buffer.get() & 0xff;
+				}
+				return pixels;
+			}
+		}
+	}
+
+	private static FileInfo check(final FileInfo info) {
+		switch (info.fileType) {
+			case FileInfo.GRAY8:
+			case FileInfo.GRAY16_SIGNED:
+			case FileInfo.GRAY16_UNSIGNED:
+			case FileInfo.GRAY32_INT:
+			case FileInfo.GRAY32_UNSIGNED:
+			case FileInfo.GRAY32_FLOAT:
+			case FileInfo.GRAY64_FLOAT:
+			case FileInfo.RGB:
+				break;
+			default:
+				throw new IllegalArgumentException("Unsupported file type: " +
+					info.fileType);
+		}
+		if (info.width < 1 || info.height < 1) {
+			throw new IllegalArgumentException("Invalid dimensions: " + info.width +
+				"x" + info.height);
+		}
+		if (getPlaneBytes(info) > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Plane too large: " + info.width +
+				"x" + info.height);
+		}
+		if (info.getOffset() < 0 || info.gapBetweenImages < 0) {
+			throw new IllegalArgumentException("Negative offset or gap");
+		}
+		return info;
+	}
+
+	private static long getPlaneBytes(final FileInfo info) {
+		return (long) info.width * info.height * info.getBytesPerPixel();
+	}
+
+	// -- Helper classes --
+
+	/** A file mapped into memory, region by region. */
+	private static class Mapping {
+
+		private final long length;
+		private final MappedByteBuffer[] segments;
+
+		private Mapping(final File file) throws IOException {
+			try (final RandomAccessFile raf = new RandomAccessFile(file, "r");
+					final FileChannel channel = raf.getChannel())
+			{
+				length = channel.size();
+				segments = new MappedByteBuffer[(int) ((length + SEGMENT_SIZE - 1) /
+					SEGMENT_SIZE)];
+				for (int i = 0; i < segments.length; i++) {
+					final long start = i * SEGMENT_SIZE;
+					segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math
+						.min(SEGMENT_SIZE, length - start));
+				}
+			}
+		}
+
+		/**
+		 * Gets the given region of the file; only regions spanning two
+		 * segments are copied.
+		 */
+		private ByteBuffer get(final long position, final int count) {
+			final int index = (int) (position / SEGMENT_SIZE);
+			final int start = (int) (position % SEGMENT_SIZE);
+			final ByteBuffer segment = segments[index].duplicate();
+			if (start + count <= segment.capacity()) {
+				segment.position(start);
+				segment.limit(start + count);
+				return segment.slice();
+			}
+			final byte[] bytes = new byte[count];
+			int done = 0;
+			for (int i = index; done < count; i++) {
+				final ByteBuffer next = segments[i].duplicate();
+				next.position(i == index ? start : 0);
+				final int chunk = Math.min(count - done, next.remaining());
+				next.get(bytes, done, chunk);
+				done += chunk;
+			}
+			return ByteBuffer.wrap(bytes);
+		}
+	}
+
+}
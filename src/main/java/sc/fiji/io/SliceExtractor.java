@@ -0,0 +1,485 @@
+/*
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2015 Fiji
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package sc.fiji.io;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.io.FileInfo;
+import ij.io.ImageReader;
+import ij.io.TiffDecoder;
+import ij.process.ByteProcessor;
+import ij.process.ColorProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.LUT;
+import ij.process.ShortProcessor;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+import sc.fiji.parallel.ProgressListener;
+
+/**
+ * Builds a stack of the same plane of many image files, e.g. to compare
+ * samples.
+ * <p>
+ * Of TIFF files, only the requested plane is read, whether the planes are
+ * stored contiguously (as ImageJ does) or one per image directory. Gzipped
+ * files are decompressed in memory. Other files are opened as a whole.
+ * </p>
+ * <p>
+ * The files are read on a pool of threads, several files ahead of the one
+ * whose plane is added to the stack, so that decompressing and reading the
+ * next files overlaps with the rest of the work.
+ * </p>
+ */
+public class SliceExtractor {
+
+	private final List<File> files;
+	private final int slice;
+	private File base;
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private ProgressListener listener;
+
+	private final Map<File, String> failures = new LinkedHashMap<>();
+
+	/**
+	 * @param files the files to extract the plane from
+	 * @param slice the (1-based) slice to extract, of the first channel (or
+	 *          the frame, for time series without slices)
+	 */
+	public SliceExtractor(final List<File> files, final int slice) {
+		this.files = new ArrayList<>(files);
+		this.slice = slice;
+	}
+
+	/**
+	 * Lists the files in the given directory and its subdirectories whose
+	 * name matches the given glob pattern (e.g. {@code image.bin.gz} or
+	 * {@code *.tif}), and whose path matches the given regular expression
+	 * (if not null), in alphabetical order.
+	 */
+	public static List<File> listFiles(final File dir, final String glob,
+		final String regex)
+	{
+		final PathMatcher matcher = FileSystems.getDefault().getPathMatcher(
+			"glob:" + glob);
+		final Pattern pattern = regex == null || regex.isEmpty() ? null : Pattern
+			.compile(regex);
+		final List<File> result = new ArrayList<>();
+		list(dir, matcher, pattern, result);
+		return result;
+	}
+
+	/**
+	 * Labels each plane with the path of its file relative to the given
+	 * directory; by default, planes are labeled with the file name.
+	 */
+	public SliceExtractor labelsRelativeTo(final File dir) {
+		base = dir;
+		return this;
+	}
+
+	/** Sets the number of files read concurrently. */
+	public SliceExtractor threads(final int threads) {
+		this.threads = Math.max(1, threads);
+		return this;
+	}
+
+	/** Sets the listener to tell whenever a file is done. */
+	public SliceExtractor progress(final ProgressListener listener) {
+		this.listener = listener;
+		return this;
+	}
+
+	/**
+	 * Extracts the plane from all files.
+	 * <p>
+	 * Files which cannot be read, which have too few planes, or whose planes
+	 * do not match the first file's in size and type, are left out and
+	 * reported by {@link #getFailures()}.
+	 * </p>
+	 *
+	 * @return the stack of planes, or null if no file could be read
+	 */
+	public ImageStack run() throws InterruptedException {
+		failures.clear();
+		final ExecutorService pool = Executors.newFixedThreadPool(threads,
+			new ThreadFactory() {
+
+				private final AtomicInteger count = new AtomicInteger();
+
+				@Override
+				public Thread newThread(final Runnable r) {
+					final Thread thread = new Thread(r, "fiji-slice-reader-" + count
+						.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		try {
+			// NB: Keep a few more files in flight than threads, so that the
+			// threads never wait for the planes to be added to the stack.
+			final int window = 2 * threads;
+			final Deque<Future<ImageProcessor>> pending = new ArrayDeque<>();
+			int submitted = 0;
+			ImageStack stack = null;
+			for (int i = 0; i < files.size(); i++) {
+				while (submitted < files.size() && submitted < i + window) {
+					final File file = files.get(submitted++);
+					pending.add(pool.submit(new Callable<ImageProcessor>() {
+
+						@Override
+						public ImageProcessor call() throws IOException {
+							return readPlane(file, slice);
+						}
+					}));
+				}
+				final File file = files.get(i);
+				final ImageProcessor plane = get(file, pending.poll());
+				if (plane != null) {
+					if (stack == null) {
+						stack = new ImageStack(plane.getWidth(), plane.getHeight());
+					}
+					if (plane.getWidth() != stack.getWidth() || plane
+						.getHeight() != stack.getHeight() || stack.getSize() > 0 &&
+							plane.getBitDepth() != stack.getBitDepth())
+					{
+						failures.put(file, "plane is " + plane.getWidth() + "x" + plane
+							.getHeight() + "x" + plane.getBitDepth() + "-bit, not " + stack
+								.getWidth() + "x" + stack.getHeight() + "x" + stack
+									.getBitDepth() + "-bit");
+					}
+					else stack.addSlice(getLabel(file), plane);
+				}
+				if (listener != null) listener.progress(i + 1, files.size());
+			}
+			return stack;
+		}
+		finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/** Gets the files left out, mapped to the reason. */
+	public Map<File, String> getFailures() {
+		return Collections.unmodifiableMap(failures);
+	}
+
+	/**
+	 * Reads the given (1-based) slice of the first channel of the given file,
+	 * reading as little of the file as its format allows.
+	 */
+	public static ImageProcessor readPlane(final File file, final int n)
+		throws IOException
+	{
+		final String name = file.getName();
+		if (name.toLowerCase().endsWith(".gz")) {
+			final byte[] bytes;
+			try (final InputStream in = new GZIPInputStream(new FileInputStream(
+				file), 65536))
+			{
+				bytes = readAll(in);
+			}
+			final String inner = name.substring(0, name.length() - 3);
+			if (isTiff(bytes)) {
+				final ImageProcessor plane = readTiffPlane(bytes, inner, n);
+				if (plane != null) return plane;
+			}
+			// NB: Let ImageJ open the decompressed file as whatever it is.
+			final File tmp = File.createTempFile("slice-", "-" + inner);
+			try {
+				try (final OutputStream out = new FileOutputStream(tmp)) {
+					out.write(bytes);
+				}
+				return openPlane(tmp, n);
+			}
+			finally {
+				tmp.delete();
+			}
+		}
+		if (isTiff(file)) {
+			final FileInfo[] infos = new TiffDecoder(file.getAbsoluteFile()
+				.getParent() + File.separator, name).getTiffInfo();
+			final FileInfo info = getPlaneInfo(infos, n);
+			if (info != null) {
+				try (final InputStream in = new BufferedInputStream(
+					new FileInputStream(file), 65536))
+				{
+					final ImageProcessor plane = read(info, in);
+					if (plane != null) return plane;
+				}
+			}
+		}
+		return openPlane(file, n);
+	}
+
+	// -- Helper methods --
+
+	private ImageProcessor get(final File file,
+		final Future<ImageProcessor> future) throws InterruptedException
+	{
+		try {
+			return future.get();
+		}
+		catch (final ExecutionException e) {
+			final Throwable cause = e.getCause();
+			failures.put(file, cause.getMessage() == null ? cause.toString()
+				: cause.getMessage());
+			return null;
+		}
+	}
+
+	private String getLabel(final File file) {
+		if (base == null) return file.getName();
+		final String path = Paths.get(base.getAbsolutePath()).relativize(Paths
+			.get(file.getAbsolutePath())).toString();
+		return path.replace(File.separatorChar, '/');
+	}
+
+	private static void list(final File dir, final PathMatcher matcher,
+		final Pattern pattern, final List<File> result)
+	{
+		final File[] list = dir.listFiles();
+		if (list == null) return;
+		Arrays.sort(list);
+		for (final File file : list) {
+			if (file.isDirectory()) list(file, matcher, pattern, result);
+			else if (matcher.matches(Paths.get(file.getName())) &&
+				(pattern == null || pattern.matcher(file.getPath()).find()))
+			{
+				result.add(file);
+			}
+		}
+	}
+
+	private static ImageProcessor readTiffPlane(final byte[] bytes,
+		final String name, final int n) throws IOException
+	{
+		final FileInfo[] infos = new TiffDecoder(new ByteArrayInputStream(bytes),
+			name).getTiffInfo();
+		final FileInfo info = getPlaneInfo(infos, n);
+		return info == null ? null : read(info, new ByteArrayInputStream(bytes));
+	}
+
+	/**
+	 * Describes the given plane of a TIFF file, or returns null if it cannot
+	 * be read by itself.
+	 */
+	private static FileInfo getPlaneInfo(final FileInfo[] infos, final int n)
+		throws IOException
+	{
+		if (infos == null || infos.length == 0) return null;
+		final String description = infos[0].description;
+		final int planes = infos.length > 1 ? infos.length : Math.max(1,
+			infos[0].nImages);
+		final int channels = Math.max(1, getDimension(description, "channels", 1));
+		final int frames = Math.max(1, getDimension(description, "frames", 1));
+		final int slices = Math.max(1, getDimension(description, "slices",
+			planes / (channels * frames)));
+		final int index = getStackIndex(channels, slices, frames, n);
+		if (index > planes) throw tooFewPlanes(planes, index);
+		final FileInfo info;
+		if (infos.length > 1) {
+			// NB: One image directory per plane.
+			info = (FileInfo) infos[index - 1].clone();
+		}
+		else {
+			info = (FileInfo) infos[0].clone();
+			if (index > 1) {
+				// NB: ImageJ stores the planes of a stack contiguously.
+				if (info.compression != FileInfo.COMPRESSION_NONE) return null;
+				final long planeBytes = (long) info.width * info.height * info
+					.getBytesPerPixel();
+				info.longOffset = info.getOffset() + (index - 1) * (planeBytes +
+					info.gapBetweenImages);
+				info.offset = 0;
+			}
+		}
+		info.nImages = 1;
+		return info;
+	}
+
+	/** Reads the plane described by the given info, or returns null. */
+	private static ImageProcessor read(final FileInfo info,
+		final InputStream in)
+	{
+		final int width = info.width, height = info.height;
+		final Object pixels;
+		switch (info.fileType) {
+			case FileInfo.GRAY8:
+			case FileInfo.COLOR8:
+			case FileInfo.GRAY16_SIGNED:
+			case FileInfo.GRAY16_UNSIGNED:
+			case FileInfo.GRAY32_INT:
+			case FileInfo.GRAY32_UNSIGNED:
+			case FileInfo.GRAY32_FLOAT:
+			case FileInfo.GRAY64_FLOAT:
+			case FileInfo.RGB:
+			case FileInfo.RGB_PLANAR:
+				pixels = new ImageReader(info).readPixels(in);
+				break;
+			default:
+				return null;
+		}
+		if (pixels instanceof byte[]) {
+			final ByteProcessor plane = new ByteProcessor(width, height,
+				(byte[]) pixels, null);
+			if (info.fileType == FileInfo.COLOR8 && info.lutSize > 0) {
+				plane.setColorModel(new LUT(8, info.lutSize, info.reds, info.greens,
+					info.blues));
+			}
+			return plane;
+		}
+		if (pixels instanceof short[]) {
+			return new ShortProcessor(width, height, (short[]) pixels, null);
+		}
+		if (pixels instanceof float[]) {
+			return new FloatProcessor(width, height, (float[]) pixels);
+		}
+		if (pixels instanceof int[]) {
+			return new ColorProcessor(width, height, (int[]) pixels);
+		}
+		return null;
+	}
+
+	/** Opens the whole file with ImageJ, and takes the given plane. */
+	private static ImageProcessor openPlane(final File file, final int n)
+		throws IOException
+	{
+		final ImagePlus image = IJ.openImage(file.getPath());
+		if (image == null) throw new IOException("cannot be opened");
+		try {
+			final int index = getStackIndex(image.getNChannels(), image
+				.getNSlices(), image.getNFrames(), n);
+			if (index > image.getStackSize()) {
+				throw tooFewPlanes(image.getStackSize(), index);
+			}
+			return image.getStack().getProcessor(index);
+		}
+		finally {
+			image.flush();
+		}
+	}
+
+	/**
+	 * Gets the (1-based) stack index of the given plane of a hyperstack with
+	 * the given dimensions, stored in ImageJ's channel, slice, frame order.
+	 * The plane is the given slice of the first channel and frame, or the
+	 * given frame if there is only one slice.
+	 */
+	private static int getStackIndex(final int channels, final int slices,
+		final int frames, final int n) throws IOException
+	{
+		// NB: With a single slice, the frames follow each other likewise.
+		final boolean timeSeries = slices == 1 && frames > 1;
+		final int count = timeSeries ? frames : slices;
+		if (n > count) {
+			throw new IOException("has " + count + (timeSeries ? " frames"
+				: " slices") + ", not " + n);
+		}
+		return (n - 1) * channels + 1;
+	}
+
+	/**
+	 * Gets a dimension (e.g. {@code channels=3}) from the description ImageJ
+	 * writes into its TIFF files.
+	 */
+	private static int getDimension(final String description, final String key,
+		final int defaultValue)
+	{
+		if (description == null || !description.startsWith("ImageJ")) {
+			return defaultValue;
+		}
+		for (final String line : description.split("\n")) {
+			if (!line.startsWith(key + "=")) continue;
+			try {
+				return Integer.parseInt(line.substring(key.length() + 1).trim());
+			}
+			catch (final NumberFormatException e) {
+				return defaultValue;
+			}
+		}
+		return defaultValue;
+	}
+
+	private static IOException tooFewPlanes(final int planes, final int n) {
+		return new IOException("has " + planes + " planes, not " + n);
+	}
+
+	private static boolean isTiff(final File file) throws IOException {
+		final byte[] header = new byte[4];
+		try (final InputStream in = new FileInputStream(file)) {
+			if (in.read(header) < header.length) return false;
+		}
+		return isTiff(header);
+	}
+
+	private static boolean isTiff(final byte[] bytes) {
+		if (bytes.length < 4) return false;
+		return bytes[0] == 'I' && bytes[1] == 'I' && bytes[2] == 42 &&
+			bytes[3] == 0 || bytes[0] == 'M' && bytes[1] == 'M' && bytes[2] == 0 &&
+				bytes[3] == 42;
+	}
+
+	private static byte[] readAll(final InputStream in) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final byte[] buffer = new byte[65536];
+		for (;;) {
+			final int count = in.read(buffer);
+			if (count < 0) break;
+			out.write(buffer, 0, count);
+		}
+		return out.toByteArray();
+	}
+
+}
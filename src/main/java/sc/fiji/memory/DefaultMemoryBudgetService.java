@@ -0,0 +1,301 @@
+/*
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2015 Fiji
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package sc.fiji.memory;
+
+import ij.ImageListener;
+import ij.ImagePlus;
+import ij.WindowManager;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+
+import org.scijava.plugin.Plugin;
+import org.scijava.service.AbstractService;
+import org.scijava.service.Service;
+
+/**
+ * Default implementation of {@link MemoryBudgetService}.
+ * <p>
+ * Images are accounted for as they are listed by the {@link WindowManager}
+ * (which includes the images of macros running in batch mode); of a virtual
+ * stack, only the current plane counts.
+ * </p>
+ */
+@Plugin(type = Service.class)
+public class DefaultMemoryBudgetService extends AbstractService implements
+	MemoryBudgetService
+{
+
+	/**
+	 * Fraction of a heap pool which, when still in use after a garbage
+	 * collection, makes the caches shrink to half their size.
+	 */
+	private static final double PRESSURE_THRESHOLD = 0.9;
+
+	private final List<MemoryCache> caches = new CopyOnWriteArrayList<>();
+
+	private volatile long budget;
+
+	private ImageListener imageListener;
+
+	/** The memory used by the open images when they last changed. */
+	private long imageUsage;
+
+	private NotificationListener heapListener;
+
+	// -- MemoryBudgetService methods --
+
+	@Override
+	public long getBudget() {
+		return budget;
+	}
+
+	@Override
+	public void setBudget(final long bytes) {
+		budget = bytes;
+		check();
+	}
+
+	@Override
+	public long getUsage() {
+		long usage = 0;
+		for (final long bytes : getImageUsage().values()) {
+			usage += bytes;
+		}
+		for (final MemoryCache cache : caches) {
+			usage += cache.getSize();
+		}
+		return usage;
+	}
+
+	@Override
+	public Map<String, Long> getImageUsage() {
+		final Map<String, Long> usage = new LinkedHashMap<>();
+		final int[] ids = WindowManager.getIDList();
+		if (ids == null) return usage;
+		for (final int id : ids) {
+			final ImagePlus image = WindowManager.getImage(id);
+			if (image != null) usage.put(id + ": " + image.getTitle(), bytes(image));
+		}
+		return usage;
+	}
+
+	@Override
+	public Map<String, Long> getCacheUsage() {
+		final Map<String, Long> usage = new LinkedHashMap<>();
+		for (final MemoryCache cache : caches) {
+			final Long bytes = usage.get(cache.getName());
+			usage.put(cache.getName(), cache.getSize() + (bytes == null ? 0
+				: bytes));
+		}
+		return usage;
+	}
+
+	@Override
+	public void register(final MemoryCache cache) {
+		caches.add(cache);
+		check();
+	}
+
+	@Override
+	public void unregister(final MemoryCache cache) {
+		caches.remove(cache);
+	}
+
+	@Override
+	public void check() {
+		final long excess = getUsage() - budget;
+		if (excess > 0) free(excess);
+	}
+
+	@Override
+	public long free(final long bytes) {
+		long freed = 0;
+		while (freed < bytes) {
+			// NB: Evict the least recently used entry of all caches.
+			MemoryCache oldest = null;
+			long oldestAccess = Long.MAX_VALUE;
+			for (final MemoryCache cache : caches) {
+				final long access = cache.getOldestAccess();
+				if (access < oldestAccess) {
+					oldest = cache;
+					oldestAccess = access;
+				}
+			}
+			if (oldest == null) break;
+			freed += oldest.evictOldest();
+		}
+		return freed;
+	}
+
+	// -- Service methods --
+
+	@Override
+	public void initialize() {
+		final long maxMemory = Runtime.getRuntime().maxMemory();
+		try {
+			budget = parseBudget(System.getProperty(BUDGET_PROPERTY), maxMemory);
+		}
+		catch (final NumberFormatException e) {
+			System.err.println("[WARNING] Invalid memory budget: " + System
+				.getProperty(BUDGET_PROPERTY));
+			budget = maxMemory / 4 * 3;
+		}
+
+		imageListener = new ImageListener() {
+
+			@Override
+			public void imageOpened(final ImagePlus image) {
+				if (updateImageUsage()) check();
+			}
+
+			@Override
+			public void imageClosed(final ImagePlus image) {
+				// NB: Closing an image frees memory; just remember the new usage.
+				updateImageUsage();
+			}
+
+			@Override
+			public void imageUpdated(final ImagePlus image) {
+				// NB: Most updates only change pixel values, not the usage.
+				if (updateImageUsage()) check();
+			}
+		};
+		ImagePlus.addImageListener(imageListener);
+		watchHeap();
+	}
+
+	// -- Disposable methods --
+
+	@Override
+	public void dispose() {
+		if (imageListener != null) ImagePlus.removeImageListener(imageListener);
+		if (heapListener != null) {
+			try {
+				((NotificationEmitter) ManagementFactory.getMemoryMXBean())
+					.removeNotificationListener(heapListener);
+			}
+			catch (final ListenerNotFoundException e) {
+				// NB: Nothing to remove.
+			}
+		}
+		caches.clear();
+	}
+
+	// -- Helper methods --
+
+	/**
+	 * Parses a budget given in bytes (with an optional {@code k}, {@code m}
+	 * or {@code g} suffix) or as a percentage of the given maximum.
+	 */
+	static long parseBudget(final String value, final long maxMemory) {
+		if (value == null || value.trim().isEmpty()) return maxMemory / 4 * 3;
+		final String v = value.trim().toLowerCase();
+		final char unit = v.charAt(v.length() - 1);
+		final String number = v.substring(0, v.length() - 1);
+		switch (unit) {
+			case '%':
+				return (long) (maxMemory * Double.parseDouble(number) / 100);
+			case 'k':
+				return Long.parseLong(number) << 10;
+			case 'm':
+				return Long.parseLong(number) << 20;
+			case 'g':
+				return Long.parseLong(number) << 30;
+			default:
+				return Long.parseLong(v);
+		}
+	}
+
+	/**
+	 * Remembers the memory used by the open images, so that the caches are not
+	 * evicted again (and again) while the usage stays above the budget.
+	 *
+	 * @return whether the usage changed
+	 */
+	private synchronized boolean updateImageUsage() {
+		long usage = 0;
+		for (final long bytes : getImageUsage().values()) {
+			usage += bytes;
+		}
+		if (usage == imageUsage) return false;
+		imageUsage = usage;
+		return true;
+	}
+
+	private static long bytes(final ImagePlus image) {
+		final long plane = (long) image.getWidth() * image.getHeight() * image
+			.getBytesPerPixel();
+		return image.getStack().isVirtual() ? plane : plane * image
+			.getStackSize();
+	}
+
+	/**
+	 * Shrinks the caches whenever a heap pool is still nearly full after a
+	 * garbage collection.
+	 */
+	private void watchHeap() {
+		boolean watching = false;
+		for (final MemoryPoolMXBean pool : ManagementFactory
+			.getMemoryPoolMXBeans())
+		{
+			if (pool.getType() != MemoryType.HEAP || !pool
+				.isCollectionUsageThresholdSupported()) continue;
+			final long max = pool.getUsage().getMax();
+			if (max <= 0) continue;
+			pool.setCollectionUsageThreshold((long) (max * PRESSURE_THRESHOLD));
+			watching = true;
+		}
+		if (!watching) return;
+		heapListener = new NotificationListener() {
+
+			@Override
+			public void handleNotification(final Notification notification,
+				final Object handback)
+			{
+				if (!MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED
+					.equals(notification.getType())) return;
+				long cached = 0;
+				for (final MemoryCache cache : caches) {
+					cached += cache.getSize();
+				}
+				free(cached / 2);
+			}
+		};
+		((NotificationEmitter) ManagementFactory.getMemoryMXBean())
+			.addNotificationListener(heapListener, null, null);
+	}
+
+}
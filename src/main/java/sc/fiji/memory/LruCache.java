@@ -0,0 +1,161 @@
+/*
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2015 Fiji
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package sc.fiji.memory;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A {@link MemoryCache} evicting its least recently used entries first.
+ * <p>
+ * Each entry is put with the number of bytes it holds; the cache
+ * {@link MemoryBudgetService#check() asks} the budget service to enforce the
+ * budget whenever it grew. Subclasses can override
+ * {@link #evicted(Object, Object)} to spill evicted entries, e.g. to disk.
+ * </p>
+ */
+public class LruCache<K, V> implements MemoryCache {
+
+	private final String name;
+	private final MemoryBudgetService budgetService;
+	private final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<>(16,
+		0.75f, true);
+	private long size;
+
+	/**
+	 * @param name the name of the cache in usage reports
+	 * @param budgetService the service to register with, or null for an
+	 *          unbounded cache
+	 */
+	public LruCache(final String name,
+		final MemoryBudgetService budgetService)
+	{
+		this.name = name;
+		this.budgetService = budgetService;
+		if (budgetService != null) budgetService.register(this);
+	}
+
+	/** Gets the value of the given key, or null if it is not cached. */
+	public synchronized V get(final K key) {
+		final Entry<V> entry = entries.get(key);
+		if (entry == null) return null;
+		entry.access = System.currentTimeMillis();
+		return entry.value;
+	}
+
+	/** Caches the given value, which holds the given number of bytes. */
+	public void put(final K key, final V value, final long bytes) {
+		synchronized (this) {
+			final Entry<V> old = entries.put(key, new Entry<>(value, bytes));
+			size += bytes;
+			if (old != null) size -= old.bytes;
+		}
+		// NB: Do not hold the lock; the service may evict from this cache.
+		if (budgetService != null) budgetService.check();
+	}
+
+	public synchronized V remove(final K key) {
+		final Entry<V> entry = entries.remove(key);
+		if (entry == null) return null;
+		size -= entry.bytes;
+		return entry.value;
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+		size = 0;
+	}
+
+	public synchronized int getEntryCount() {
+		return entries.size();
+	}
+
+	/** Empties this cache, and unregisters it from the budget service. */
+	public void dispose() {
+		if (budgetService != null) budgetService.unregister(this);
+		clear();
+	}
+
+	// -- MemoryCache methods --
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public synchronized long getSize() {
+		return size;
+	}
+
+	@Override
+	public synchronized long getOldestAccess() {
+		if (entries.isEmpty()) return Long.MAX_VALUE;
+		return entries.values().iterator().next().access;
+	}
+
+	@Override
+	public long evictOldest() {
+		final K key;
+		final Entry<V> entry;
+		synchronized (this) {
+			final Iterator<Map.Entry<K, Entry<V>>> iterator = entries.entrySet()
+				.iterator();
+			if (!iterator.hasNext()) return 0;
+			final Map.Entry<K, Entry<V>> oldest = iterator.next();
+			iterator.remove();
+			key = oldest.getKey();
+			entry = oldest.getValue();
+			size -= entry.bytes;
+		}
+		evicted(key, entry.value);
+		return entry.bytes;
+	}
+
+	// -- Internal methods --
+
+	/**
+	 * Called after an entry was evicted because the budget was exceeded. Does
+	 * nothing by default.
+	 */
+	protected void evicted(final K key, final V value) {
+		// NB: No-op.
+	}
+
+	// -- Helper classes --
+
+	private static class Entry<V> {
+
+		private final V value;
+		private final long bytes;
+		private long access = System.currentTimeMillis();
+
+		private Entry(final V value, final long bytes) {
+			this.value = value;
+			this.bytes = bytes;
+		}
+	}
+
+}
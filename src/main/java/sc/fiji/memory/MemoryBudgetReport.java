@@ -0,0 +1,81 @@
+/*
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2015 Fiji
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package sc.fiji.memory;
+
+import java.util.Map;
+
+import org.scijava.ItemIO;
+import org.scijava.command.Command;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+
+/**
+ * Reports the memory held by each image and each cache, and the budget
+ * they share.
+ */
+@Plugin(type = Command.class, menuPath = "Plugins>Utilities>Memory Budget")
+public class MemoryBudgetReport implements Command {
+
+	@Parameter
+	private MemoryBudgetService budgetService;
+
+	@Parameter(type = ItemIO.OUTPUT)
+	private String report;
+
+	@Override
+	public void run() {
+		final StringBuilder builder = new StringBuilder();
+		builder.append("Budget: ").append(mb(budgetService.getBudget())).append(
+			'\n');
+		builder.append("Used: ").append(mb(budgetService.getUsage())).append(
+			'\n');
+		builder.append("Heap: ").append(mb(Runtime.getRuntime().totalMemory() -
+			Runtime.getRuntime().freeMemory())).append(" of ").append(mb(Runtime
+				.getRuntime().maxMemory())).append('\n');
+		append(builder, "Images", budgetService.getImageUsage());
+		append(builder, "Caches", budgetService.getCacheUsage());
+		report = builder.toString();
+	}
+
+	public String getReport() {
+		return report;
+	}
+
+	// -- Helper methods --
+
+	private static void append(final StringBuilder builder, final String label,
+		final Map<String, Long> usage)
+	{
+		builder.append(label).append(":\n");
+		for (final Map.Entry<String, Long> entry : usage.entrySet()) {
+			builder.append('\t').append(entry.getKey()).append(": ").append(mb(entry
+				.getValue())).append('\n');
+		}
+	}
+
+	private static String mb(final long bytes) {
+		return String.format("%.1f MB", bytes / 1048576.0);
+	}
+
+}
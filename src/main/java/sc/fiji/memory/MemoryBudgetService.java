@@ -0,0 +1,84 @@
+/*
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2015 Fiji
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package sc.fiji.memory;
+
+import java.util.Map;
+
+import org.scijava.service.Service;
+
+/**
+ * Keeps the memory held by images and caches within a budget.
+ * <p>
+ * The budget defaults to three quarters of the maximum heap size; it can be
+ * set with the {@value #BUDGET_PROPERTY} system property, either in bytes
+ * (with an optional {@code k}, {@code m} or {@code g} suffix) or as a
+ * percentage of the maximum heap size, e.g. {@code -Dfiji.memory.budget=60%}.
+ * </p>
+ * <p>
+ * Open images are accounted for, but cannot be evicted; registered
+ * {@link MemoryCache}s are shrunk, least recently used entries first across
+ * all caches, whenever the accounted memory exceeds the budget, or the
+ * garbage collector reports that the heap is nearly full.
+ * </p>
+ */
+public interface MemoryBudgetService extends Service {
+
+	/** System property setting the memory budget. */
+	String BUDGET_PROPERTY = "fiji.memory.budget";
+
+	/** Gets the budget, in bytes. */
+	long getBudget();
+
+	/** Sets the budget, in bytes, shrinking the caches if needed. */
+	void setBudget(long bytes);
+
+	/** Gets the bytes accounted for, i.e. held by images and caches. */
+	long getUsage();
+
+	/** Gets the bytes held by each open image, by image title. */
+	Map<String, Long> getImageUsage();
+
+	/** Gets the bytes held by each registered cache, by cache name. */
+	Map<String, Long> getCacheUsage();
+
+	/** Lets this service account for, and shrink, the given cache. */
+	void register(MemoryCache cache);
+
+	void unregister(MemoryCache cache);
+
+	/**
+	 * Shrinks the caches if the accounted memory exceeds the budget. Caches
+	 * should call this after they grew.
+	 */
+	void check();
+
+	/**
+	 * Evicts least recently used cache entries until the given number of
+	 * bytes is freed, or all caches are empty.
+	 *
+	 * @return the number of bytes actually freed
+	 */
+	long free(long bytes);
+
+}
@@ -0,0 +1,57 @@
+/*
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2015 Fiji
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package sc.fiji.memory;
+
+/**
+ * A cache whose entries can be evicted when memory runs low.
+ * <p>
+ * Caches {@link MemoryBudgetService#register(MemoryCache) registered} with
+ * the {@link MemoryBudgetService} are shrunk, least recently used entries
+ * first, whenever the accounted memory exceeds the budget. {@link LruCache}
+ * is a ready-made implementation.
+ * </p>
+ */
+public interface MemoryCache {
+
+	/** Gets a name describing this cache in usage reports. */
+	String getName();
+
+	/** Gets the number of bytes currently held by this cache. */
+	long getSize();
+
+	/**
+	 * Gets the time (in ms, as per {@link System#currentTimeMillis()}) the
+	 * least recently used entry was last accessed, or
+	 * {@link Long#MAX_VALUE} if this cache is empty.
+	 */
+	long getOldestAccess();
+
+	/**
+	 * Evicts (or spills) the least recently used entry.
+	 *
+	 * @return the number of bytes freed, or 0 if this cache is empty
+	 */
+	long evictOldest();
+
+}
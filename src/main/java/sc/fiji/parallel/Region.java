@@ -0,0 +1,103 @@
+/*
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2015 Fiji
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package sc.fiji.parallel;
+
+import ij.process.ImageProcessor;
+
+import java.awt.Rectangle;
+
+/**
+ * A rectangular part of one plane of an image: a band of rows, a tile, or a
+ * whole plane.
+ * <p>
+ * The processor is shared with the other regions of the same plane; a
+ * {@link RegionOp} may read and write its pixels within the region's
+ * bounds, but must not change its state (such as its ROI or snapshot).
+ * </p>
+ */
+public final class Region {
+
+	private final int index;
+	private final int plane;
+	private final ImageProcessor processor;
+	private final int x, y, width, height;
+
+	Region(final int index, final int plane, final ImageProcessor processor,
+		final int x, final int y, final int width, final int height)
+	{
+		this.index = index;
+		this.plane = plane;
+		this.processor = processor;
+		this.x = x;
+		this.y = y;
+		this.width = width;
+		this.height = height;
+	}
+
+	/** Gets the index of this region among all regions of the tiling. */
+	public int getIndex() {
+		return index;
+	}
+
+	/** Gets the (1-based) stack position of this region's plane. */
+	public int getPlane() {
+		return plane;
+	}
+
+	public ImageProcessor getProcessor() {
+		return processor;
+	}
+
+	/** Gets the pixel array of this region's plane. */
+	public Object getPixels() {
+		return processor.getPixels();
+	}
+
+	public int getX() {
+		return x;
+	}
+
+	public int getY() {
+		return y;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public Rectangle getBounds() {
+		return new Rectangle(x, y, width, height);
+	}
+
+	@Override
+	public String toString() {
+		return "plane " + plane + " [" + x + ", " + y + ", " + width + "x" +
+			height + "]";
+	}
+
+}
@@ -0,0 +1,309 @@
+/*
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2015 Fiji
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package sc.fiji.parallel;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.Prefs;
+import ij.process.ImageProcessor;
+
+import java.awt.Rectangle;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Splits an image into rows, tiles or planes, and processes them in
+ * parallel.
+ * <p>
+ * This replaces the "multithreader" idiom of the example scripts (an
+ * {@code AtomicInteger} shared by one thread per core) with a shared
+ * work-stealing pool: regions are split up lazily, only as long as other
+ * workers are idle, so cheap and expensive operations are balanced alike
+ * without spawning any threads per call. For example, in JavaScript:
+ * </p>
+ * <pre>
+ * Tiling.rows(imp).showProgress().run(function(region) {
+ * 	var pixels = region.getPixels();
+ * 	for (var y = region.getY(); y &lt; region.getY() + region.getHeight(); y++)
+ * 		...
+ * });
+ * </pre>
+ * <p>
+ * By default, all planes of the image are processed, within the image's
+ * bounds.
+ * </p>
+ * <p>
+ * Each plane is read once, and its processor is shared by its regions. Once
+ * all of its regions are done, the processor is dropped, so that a tiling of
+ * a virtual stack holds only the planes being processed. The pixels of such
+ * planes are stored back into the virtual stack then, unless the operation is
+ * {@link #readOnly()}; virtual stacks which cannot store pixels lose the
+ * changes, though.
+ * </p>
+ */
+public class Tiling {
+
+	/** The minimal number of pixels of a band of rows, by default. */
+	private static final int MIN_BAND_PIXELS = 4096;
+
+	private static ForkJoinPool pool;
+
+	private final ImagePlus image;
+	private final boolean wholePlanes;
+	private int regionWidth, regionHeight;
+	private int firstPlane, lastPlane;
+	private Rectangle bounds;
+	private ProgressListener progressListener;
+	private boolean readOnly;
+	private final AtomicReferenceArray<ImageProcessor> processors;
+
+	private Tiling(final ImagePlus image, final int regionWidth,
+		final int regionHeight, final boolean wholePlanes)
+	{
+		this.image = image;
+		this.regionWidth = regionWidth;
+		this.regionHeight = regionHeight;
+		this.wholePlanes = wholePlanes;
+		firstPlane = 1;
+		lastPlane = image.getStackSize();
+		bounds = new Rectangle(0, 0, image.getWidth(), image.getHeight());
+		processors = new AtomicReferenceArray<>(image.getStackSize() + 1);
+	}
+
+	/**
+	 * Splits each plane of the given image into bands of rows, spanning the
+	 * whole width. By default, each band has at least a few thousand pixels;
+	 * see {@link #grain(int)}.
+	 */
+	public static Tiling rows(final ImagePlus image) {
+		return new Tiling(image, Integer.MAX_VALUE, 0, false);
+	}
+
+	/** Splits each plane of the given image into tiles of the given size. */
+	public static Tiling tiles(final ImagePlus image, final int tileWidth,
+		final int tileHeight)
+	{
+		if (tileWidth < 1 || tileHeight < 1) {
+			throw new IllegalArgumentException("Invalid tile size: " + tileWidth +
+				"x" + tileHeight);
+		}
+		return new Tiling(image, tileWidth, tileHeight, false);
+	}
+
+	/** Processes each plane of the given image as a whole. */
+	public static Tiling planes(final ImagePlus image) {
+		return new Tiling(image, Integer.MAX_VALUE, Integer.MAX_VALUE, true);
+	}
+
+	/**
+	 * Sets the number of rows per band, when splitting into rows.
+	 * <p>
+	 * This is the smallest unit of work; the pool hands out larger runs of
+	 * bands as long as all workers are busy.
+	 * </p>
+	 */
+	public Tiling grain(final int rows) {
+		if (wholePlanes || regionWidth != Integer.MAX_VALUE) {
+			throw new IllegalStateException("Only bands of rows have a grain size");
+		}
+		if (rows < 1) throw new IllegalArgumentException("Invalid grain: " + rows);
+		regionHeight = rows;
+		return this;
+	}
+
+	/** Restricts the processing to the given (1-based) range of planes. */
+	public Tiling planes(final int first, final int last) {
+		if (first < 1 || last > image.getStackSize() || first > last) {
+			throw new IllegalArgumentException("Invalid planes: " + first + "-" +
+				last);
+		}
+		firstPlane = first;
+		lastPlane = last;
+		return this;
+	}
+
+	/** Restricts the processing to the image's current plane. */
+	public Tiling currentPlane() {
+		return planes(image.getCurrentSlice(), image.getCurrentSlice());
+	}
+
+	/** Restricts the processing to the given rectangle of each plane. */
+	public Tiling bounds(final Rectangle rectangle) {
+		bounds = rectangle.intersection(new Rectangle(0, 0, image.getWidth(),
+			image.getHeight()));
+		return this;
+	}
+
+	/**
+	 * Tells that the operation only reads the pixels, so that planes of virtual
+	 * stacks need not be stored back.
+	 */
+	public Tiling readOnly() {
+		readOnly = true;
+		return this;
+	}
+
+	public Tiling progress(final ProgressListener listener) {
+		progressListener = listener;
+		return this;
+	}
+
+	/** Shows the progress in ImageJ's progress bar. */
+	public Tiling showProgress() {
+		return progress(new ProgressListener() {
+
+			@Override
+			public void progress(final long done, final long total) {
+				final long step = Math.max(1, total / 100);
+				if (done % step == 0 || done == total) {
+					IJ.showProgress((int) done, (int) total);
+				}
+			}
+		});
+	}
+
+	/** Gets the number of regions the image is split into. */
+	public int getRegionCount() {
+		return getRegionsPerPlane() * (lastPlane - firstPlane + 1);
+	}
+
+	/** Gets the region of the given index, counting plane by plane. */
+	public Region getRegion(final int index) {
+		final int perPlane = getRegionsPerPlane();
+		final int plane = firstPlane + index / perPlane;
+		final int i = index % perPlane;
+		final int w = Math.min(regionWidth, bounds.width);
+		final int h = Math.min(getRegionHeight(), bounds.height);
+		final int columns = (bounds.width + w - 1) / w;
+		final int x = bounds.x + (i % columns) * w;
+		final int y = bounds.y + (i / columns) * h;
+		return new Region(index, plane, getProcessor(plane), x, y, Math.min(w,
+			bounds.x + bounds.width - x), Math.min(h, bounds.y + bounds.height -
+				y));
+	}
+
+	/**
+	 * Processes all regions, and waits for them to be done.
+	 *
+	 * @throws CancellationException if the calling thread was interrupted
+	 * @throws RuntimeException if the operation failed on any region; the
+	 *           remaining regions are skipped then
+	 */
+	public void run(final RegionOp op) {
+		final TilingTask task = submit(op);
+		try {
+			task.get();
+		}
+		catch (final InterruptedException e) {
+			task.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new CancellationException("Interrupted");
+		}
+		catch (final ExecutionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+			if (cause instanceof Error) throw (Error) cause;
+			throw new RuntimeException(cause);
+		}
+	}
+
+	/** Starts processing all regions in the background. */
+	public TilingTask submit(final RegionOp op) {
+		final TilingTask task = new TilingTask(this, op, progressListener);
+		getPool().execute(task.getRoot());
+		return task;
+	}
+
+	/**
+	 * Gets the pool all tilings share. Its size follows ImageJ's
+	 * <i>Edit&gt;Options&gt;Memory &amp; Threads</i> setting when the pool is
+	 * first used.
+	 */
+	public static synchronized ForkJoinPool getPool() {
+		if (pool == null) {
+			final ClassLoader classLoader =
+				Thread.currentThread().getContextClassLoader();
+			pool = new ForkJoinPool(Prefs.getThreads(),
+				new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+
+					@Override
+					public ForkJoinWorkerThread newThread(final ForkJoinPool p) {
+						final ForkJoinWorkerThread thread =
+							ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+						thread.setName("fiji-parallel-" + thread.getPoolIndex());
+						thread.setContextClassLoader(classLoader);
+						return thread;
+					}
+				}, null, false);
+		}
+		return pool;
+	}
+
+	// -- Internal methods --
+
+	int getFirstPlane() {
+		return firstPlane;
+	}
+
+	int getRegionsPerPlane() {
+		if (bounds.isEmpty()) return 0;
+		final int w = Math.min(regionWidth, bounds.width);
+		final int h = Math.min(getRegionHeight(), bounds.height);
+		return ((bounds.width + w - 1) / w) * ((bounds.height + h - 1) / h);
+	}
+
+	/**
+	 * Drops the processor of a plane whose regions are all done, storing its
+	 * pixels back into a virtual stack.
+	 */
+	void release(final int plane) {
+		final ImageProcessor processor = processors.getAndSet(plane, null);
+		if (processor == null || readOnly || image.getStackSize() == 1) return;
+		final ImageStack stack = image.getStack();
+		if (stack.isVirtual()) stack.setPixels(processor.getPixels(), plane);
+	}
+
+	// -- Helper methods --
+
+	private int getRegionHeight() {
+		if (regionHeight > 0) return regionHeight;
+		return Math.max(1, MIN_BAND_PIXELS / Math.max(1, bounds.width));
+	}
+
+	/** Gets the processor of the given plane, shared by all its regions. */
+	private ImageProcessor getProcessor(final int plane) {
+		final ImageProcessor processor = processors.get(plane);
+		if (processor != null) return processor;
+		final ImageProcessor loaded = image.getStackSize() == 1 ? image
+			.getProcessor() : image.getStack().getProcessor(plane);
+		// NB: Another thread may have loaded the plane in the meantime.
+		return processors.compareAndSet(plane, null, loaded) ? loaded
+			: processors.get(plane);
+	}
+
+}
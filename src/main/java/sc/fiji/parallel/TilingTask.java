@@ -0,0 +1,203 @@
+/*
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2015 Fiji
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package sc.fiji.parallel;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The processing of a {@link Tiling}, running in the shared pool.
+ * <p>
+ * Canceling the task skips all regions not yet started; regions being
+ * processed are finished. If the operation fails on any region, the task is
+ * canceled, too, and {@link #get()} reports the (first) failure.
+ * </p>
+ */
+public class TilingTask implements Future<Void> {
+
+	/**
+	 * The number of queued chunks above which a worker stops splitting its
+	 * chunk, as there is enough work left for idle workers to steal.
+	 */
+	private static final int MAX_SURPLUS = 3;
+
+	private final Tiling tiling;
+	private final RegionOp op;
+	private final ProgressListener progressListener;
+	private final long total;
+	private final AtomicLong done = new AtomicLong();
+	private final AtomicReference<Throwable> failure = new AtomicReference<>();
+	private final Chunk root;
+	private volatile boolean canceled;
+
+	/** The number of regions left to process, per plane. */
+	private final AtomicIntegerArray regionsLeft;
+
+	TilingTask(final Tiling tiling, final RegionOp op,
+		final ProgressListener progressListener)
+	{
+		this.tiling = tiling;
+		this.op = op;
+		this.progressListener = progressListener;
+		total = tiling.getRegionCount();
+		root = new Chunk(0, tiling.getRegionCount(), null);
+		final int perPlane = tiling.getRegionsPerPlane();
+		regionsLeft = new AtomicIntegerArray(perPlane == 0 ? 0 : (int) (total /
+			perPlane));
+		for (int i = 0; i < regionsLeft.length(); i++) {
+			regionsLeft.set(i, perPlane);
+		}
+	}
+
+	/** Gets the number of regions processed so far. */
+	public long getDone() {
+		return done.get();
+	}
+
+	/** Gets the number of regions overall. */
+	public long getTotal() {
+		return total;
+	}
+
+	/** Gets the fraction of the regions processed so far. */
+	public double getProgress() {
+		return total == 0 ? 1 : (double) done.get() / total;
+	}
+
+	// -- Future methods --
+
+	@Override
+	public boolean cancel(final boolean mayInterruptIfRunning) {
+		if (root.isDone()) return false;
+		canceled = true;
+		return true;
+	}
+
+	@Override
+	public boolean isCancelled() {
+		return canceled && failure.get() == null;
+	}
+
+	@Override
+	public boolean isDone() {
+		return root.isDone();
+	}
+
+	@Override
+	public Void get() throws InterruptedException, ExecutionException {
+		root.get();
+		return result();
+	}
+
+	@Override
+	public Void get(final long timeout, final TimeUnit unit)
+		throws InterruptedException, ExecutionException, TimeoutException
+	{
+		root.get(timeout, unit);
+		return result();
+	}
+
+	// -- Internal methods --
+
+	ForkJoinTask<Void> getRoot() {
+		return root;
+	}
+
+	// -- Helper methods --
+
+	private Void result() throws ExecutionException {
+		final Throwable t = failure.get();
+		if (t != null) throw new ExecutionException(t);
+		if (canceled) throw new CancellationException();
+		return null;
+	}
+
+	private void process(final int index) {
+		if (canceled) return;
+		final Region region = tiling.getRegion(index);
+		try {
+			op.process(region);
+		}
+		catch (final Throwable t) {
+			if (failure.compareAndSet(null, t)) canceled = true;
+			return;
+		}
+		finally {
+			final int plane = region.getPlane();
+			if (regionsLeft.decrementAndGet(plane - tiling.getFirstPlane()) == 0) {
+				tiling.release(plane);
+			}
+		}
+		final long count = done.incrementAndGet();
+		if (progressListener != null) progressListener.progress(count, total);
+	}
+
+	// -- Helper classes --
+
+	/** A range of regions, split up lazily while other workers are idle. */
+	private class Chunk extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int start, end;
+		private final Chunk next;
+
+		private Chunk(final int start, final int end, final Chunk next) {
+			this.start = start;
+			this.end = end;
+			this.next = next;
+		}
+
+		@Override
+		protected void compute() {
+			int to = end;
+			Chunk forked = null;
+			while (to - start > 1 && !canceled &&
+				getSurplusQueuedTaskCount() <= MAX_SURPLUS)
+			{
+				final int middle = (start + to) >>> 1;
+				forked = new Chunk(middle, to, forked);
+				forked.fork();
+				to = middle;
+			}
+			for (int i = start; i < to && !canceled; i++) {
+				process(i);
+			}
+			// NB: Process the chunks nobody stole right here.
+			for (Chunk chunk = forked; chunk != null; chunk = chunk.next) {
+				if (chunk.tryUnfork()) chunk.compute();
+				else chunk.join();
+			}
+		}
+	}
+
+}
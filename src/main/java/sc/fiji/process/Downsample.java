@@ -0,0 +1,107 @@
+/*
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2015 Fiji
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package sc.fiji.process;
+
+import ij.IJ;
+import ij.ImagePlus;
+
+import org.scijava.ItemIO;
+import org.scijava.command.Command;
+import org.scijava.log.LogService;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+
+import sc.fiji.parallel.ProgressListener;
+
+/**
+ * Downsamples an image with a {@link Downsampler}, to the given size (by
+ * default, half the image's) or to a pyramid of images of half the size
+ * each.
+ */
+@Plugin(type = Command.class,
+	menuPath = "Image>Transform>Downsample (Gaussian)...")
+public class Downsample implements Command {
+
+	@Parameter
+	private ImagePlus image;
+
+	@Parameter(label = "Width (0 for half the image's)", min = "0")
+	private int width;
+
+	@Parameter(label = "Height (0 for half the image's)", min = "0")
+	private int height;
+
+	@Parameter(label = "Source sigma", min = "0", stepSize = "0.05")
+	private double sourceSigma = 0.5;
+
+	@Parameter(label = "Target sigma", min = "0", stepSize = "0.05")
+	private double targetSigma = 0.5;
+
+	@Parameter(label = "Pyramid levels (0 for the given size)", min = "0")
+	private int levels;
+
+	@Parameter
+	private LogService log;
+
+	@Parameter(type = ItemIO.OUTPUT)
+	private ImagePlus result;
+
+	@Override
+	public void run() {
+		final Downsampler downsampler = new Downsampler(image).sourceSigma(
+			sourceSigma).targetSigma(targetSigma).progress(new ProgressListener() {
+
+				@Override
+				public void progress(final long done, final long total) {
+					final long step = Math.max(1, total / 100);
+					if (done % step == 0 || done == total) {
+						IJ.showProgress((int) done, (int) total);
+					}
+				}
+			});
+		if (levels == 0) {
+			final int w = width > 0 ? width : Math.max(1, image.getWidth() / 2);
+			final int h = height > 0 ? height : Math.max(1, image.getHeight() / 2);
+			try {
+				downsampler.size(w, h);
+			}
+			catch (final IllegalArgumentException e) {
+				log.error(e.getMessage());
+				return;
+			}
+			result = downsampler.run();
+			return;
+		}
+		final ImagePlus[] pyramid = downsampler.pyramid(levels);
+		for (int i = 0; i < pyramid.length - 1; i++) {
+			pyramid[i].show();
+		}
+		if (pyramid.length > 0) result = pyramid[pyramid.length - 1];
+	}
+
+	public ImagePlus getResult() {
+		return result;
+	}
+
+}
@@ -0,0 +1,393 @@
+/*
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2015 Fiji
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package sc.fiji.process;
+
+import ij.CompositeImage;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.measure.Calibration;
+import ij.process.ImageProcessor;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import sc.fiji.parallel.ProgressListener;
+import sc.fiji.parallel.Region;
+import sc.fiji.parallel.RegionOp;
+import sc.fiji.parallel.Tiling;
+
+/**
+ * Downsamples images with a Gaussian kernel, e.g. for previews and mipmaps.
+ * <p>
+ * Sound downsampling needs to remove the frequencies above half the target
+ * sampling frequency, i.e. to blur the image before resampling it. Instead of
+ * blurring the whole image and then picking the target pixels (as the
+ * {@code Examples>downsample} script does with <i>Gaussian Blur...</i> and
+ * <i>Scale...</i>), the separable kernel is evaluated only at the target
+ * pixels: each target row is blurred vertically from the source rows it
+ * needs, and only the target columns of that row are blurred horizontally.
+ * </p>
+ * <p>
+ * The kernel is centered on the target pixels, and its sigma is chosen per
+ * axis as in the script: with an optimal sampler having a sigma of 0.5, the
+ * source image's intrinsic sigma ({@link #sourceSigma}) is raised to the
+ * target sigma ({@link #targetSigma}), scaled to the source pixel size.
+ * Pixels beyond the image's edges repeat the edge pixels.
+ * </p>
+ * <p>
+ * The target rows of all planes are computed in parallel by a
+ * {@link Tiling}; planes of virtual stacks are read only once.
+ * </p>
+ */
+public class Downsampler {
+
+	/** The sigma below which a kernel picks the nearest pixel. */
+	private static final double MIN_SIGMA = 0.1;
+
+	private final ImagePlus source;
+	private int width, height;
+	private double sourceSigma = 0.5, targetSigma = 0.5;
+	private ProgressListener listener;
+
+	public Downsampler(final ImagePlus source) {
+		this.source = source;
+		width = source.getWidth();
+		height = source.getHeight();
+	}
+
+	/** Sets the target size; it must not exceed the source size. */
+	public Downsampler size(final int width, final int height) {
+		if (width < 1 || height < 1 || width > source.getWidth() ||
+			height > source.getHeight())
+		{
+			throw new IllegalArgumentException("Cannot downsample " + source
+				.getWidth() + "x" + source.getHeight() + " to " + width + "x" +
+				height);
+		}
+		this.width = width;
+		this.height = height;
+		return this;
+	}
+
+	/** Sets the target size to the source size divided by the factor. */
+	public Downsampler factor(final double factor) {
+		return size(Math.max(1, (int) Math.round(source.getWidth() / factor)),
+			Math.max(1, (int) Math.round(source.getHeight() / factor)));
+	}
+
+	/** Sets the intrinsic sigma of the source image (0.5 by default). */
+	public Downsampler sourceSigma(final double sigma) {
+		sourceSigma = sigma;
+		return this;
+	}
+
+	/** Sets the intrinsic sigma of the target image (0.5 by default). */
+	public Downsampler targetSigma(final double sigma) {
+		targetSigma = sigma;
+		return this;
+	}
+
+	public Downsampler progress(final ProgressListener listener) {
+		this.listener = listener;
+		return this;
+	}
+
+	/** Downsamples all planes of the source image. */
+	public ImagePlus run() {
+		final ImagePlus target = createTarget(source, width, height);
+		final Kernel xKernel = new Kernel(source.getWidth(), width, sigma(source
+			.getWidth(), width));
+		final Kernel yKernel = new Kernel(source.getHeight(), height, sigma(source
+			.getHeight(), height));
+		final Tiling tiling = Tiling.rows(target);
+		if (listener != null) tiling.progress(listener);
+		tiling.run(new Rows(source, target, xKernel, yKernel));
+		return target;
+	}
+
+	/**
+	 * Downsamples the source image to half its size, that image to half its
+	 * size, and so on, as long as the image is larger than one pixel.
+	 * <p>
+	 * Each level is computed from the previous one, which is held in memory,
+	 * so the source image is read only once.
+	 * </p>
+	 *
+	 * @param levels the maximal number of levels
+	 * @return the levels, from largest to smallest, not including the source
+	 */
+	public ImagePlus[] pyramid(final int levels) {
+		int count = 0;
+		for (int w = source.getWidth(), h = source.getHeight(); count < levels &&
+			(w > 1 || h > 1); count++)
+		{
+			w = Math.max(1, w / 2);
+			h = Math.max(1, h / 2);
+		}
+		final ImagePlus[] pyramid = new ImagePlus[count];
+		ImagePlus previous = source;
+		double sigma = sourceSigma;
+		for (int i = 0; i < count; i++) {
+			pyramid[i] = new Downsampler(previous).size(Math.max(1, previous
+				.getWidth() / 2), Math.max(1, previous.getHeight() / 2)).sourceSigma(
+					sigma).targetSigma(targetSigma).progress(listener).run();
+			previous = pyramid[i];
+			// NB: The next level starts from a target-sigma image.
+			sigma = targetSigma;
+		}
+		return pyramid;
+	}
+
+	// -- Helper methods --
+
+	/** Computes the sigma of the kernel downsampling one axis. */
+	private double sigma(final int sourceSize, final int targetSize) {
+		final double s = targetSigma * sourceSize / targetSize;
+		return Math.sqrt(Math.max(0, s * s - sourceSigma * sourceSigma));
+	}
+
+	private static ImagePlus createTarget(final ImagePlus source,
+		final int width, final int height)
+	{
+		final ImageStack sourceStack = source.getStack();
+		final ImageStack stack = new ImageStack(width, height);
+		for (int plane = 1; plane <= source.getStackSize(); plane++) {
+			final ImageProcessor processor = source.getProcessor()
+				.createProcessor(width, height);
+			stack.addSlice(sourceStack.getSliceLabel(plane), processor);
+		}
+		ImagePlus target = new ImagePlus(source.getTitle() + " (" + width + "x" +
+			height + ")", stack);
+		target.setDimensions(source.getNChannels(), source.getNSlices(), source
+			.getNFrames());
+		target.setOpenAsHyperStack(source.isHyperStack());
+		if (source.isComposite()) {
+			final CompositeImage composite = (CompositeImage) source;
+			target = new CompositeImage(target, composite.getMode());
+			((CompositeImage) target).setLuts(composite.getLuts());
+		}
+		else if (source.getType() != ImagePlus.COLOR_RGB) {
+			target.getProcessor().setColorModel(source.getProcessor()
+				.getColorModel());
+			target.getProcessor().setMinAndMax(source.getDisplayRangeMin(), source
+				.getDisplayRangeMax());
+		}
+		final Calibration calibration = source.getCalibration().copy();
+		calibration.pixelWidth *= (double) source.getWidth() / width;
+		calibration.pixelHeight *= (double) source.getHeight() / height;
+		target.setCalibration(calibration);
+		return target;
+	}
+
+	// -- Helper classes --
+
+	/**
+	 * The Gaussian weights of the source pixels contributing to each target
+	 * pixel along one axis.
+	 */
+	private static final class Kernel {
+
+		/** The number of source pixels per target pixel. */
+		private final int taps;
+
+		/** The source pixels, clamped to the image, {@link #taps} per target. */
+		private final int[] indices;
+
+		private final float[] weights;
+
+		private Kernel(final int sourceSize, final int targetSize,
+			final double sigma)
+		{
+			final double scale = (double) sourceSize / targetSize;
+			final int radius = sigma < MIN_SIGMA ? 0 : (int) Math.ceil(3 * sigma);
+			taps = 2 * radius + 1;
+			indices = new int[targetSize * taps];
+			weights = new float[targetSize * taps];
+			for (int t = 0; t < targetSize; t++) {
+				// NB: Align the centers of the first and last pixels.
+				final double center = (t + 0.5) * scale - 0.5;
+				final int nearest = (int) Math.floor(center + 0.5);
+				double sum = 0;
+				for (int k = 0; k < taps; k++) {
+					final int i = nearest - radius + k;
+					final double d = i - center;
+					final double weight = radius == 0 ? 1 : Math.exp(-d * d / (2 *
+						sigma * sigma));
+					indices[t * taps + k] = Math.max(0, Math.min(sourceSize - 1, i));
+					weights[t * taps + k] = (float) weight;
+					sum += weight;
+				}
+				for (int k = 0; k < taps; k++) {
+					weights[t * taps + k] /= sum;
+				}
+			}
+		}
+	}
+
+	/** Computes bands of target rows. */
+	private static final class Rows implements RegionOp {
+
+		private final ImagePlus source;
+		private final int sourceWidth, targetWidth, targetHeight;
+		private final boolean rgb;
+		private final Kernel xKernel, yKernel;
+
+		/** The source pixels of each plane, while its rows are computed. */
+		private final AtomicReferenceArray<Object> planes;
+
+		/** The number of target rows computed so far, per plane. */
+		private final AtomicIntegerArray rowsDone;
+
+		private Rows(final ImagePlus source, final ImagePlus target,
+			final Kernel xKernel, final Kernel yKernel)
+		{
+			this.source = source;
+			this.xKernel = xKernel;
+			this.yKernel = yKernel;
+			sourceWidth = source.getWidth();
+			targetWidth = target.getWidth();
+			targetHeight = target.getHeight();
+			rgb = source.getType() == ImagePlus.COLOR_RGB;
+			planes = new AtomicReferenceArray<>(source.getStackSize() + 1);
+			rowsDone = new AtomicIntegerArray(source.getStackSize() + 1);
+		}
+
+		@Override
+		public void process(final Region region) {
+			final int plane = region.getPlane();
+			final Object pixels = getSourcePixels(plane);
+			final Object target = region.getPixels();
+			final int channels = rgb ? 3 : 1;
+			final float[][] rows = new float[channels][sourceWidth];
+			final float[] values = new float[channels];
+			for (int y = region.getY(); y < region.getY() + region.getHeight(); y++)
+			{
+				blurVertically(pixels, y, rows);
+				for (int x = 0; x < targetWidth; x++) {
+					blurHorizontally(rows, x, values);
+					store(target, y * targetWidth + x, values);
+				}
+			}
+			// NB: Release the source plane as soon as all its rows are done.
+			if (rowsDone.addAndGet(plane, region.getHeight()) == targetHeight) {
+				planes.set(plane, null);
+			}
+		}
+
+		/** Gets the source plane, reading it only once. */
+		private Object getSourcePixels(final int plane) {
+			final Object pixels = planes.get(plane);
+			if (pixels != null) return pixels;
+			final Object loaded = source.getStackSize() == 1 ? source
+				.getProcessor().getPixels() : source.getStack().getPixels(plane);
+			return planes.compareAndSet(plane, null, loaded) ? loaded : planes.get(
+				plane);
+		}
+
+		/** Blurs the source rows contributing to the given target row. */
+		private void blurVertically(final Object pixels, final int y,
+			final float[][] rows)
+		{
+			for (final float[] row : rows) {
+				Arrays.fill(row, 0);
+			}
+			final int taps = yKernel.taps;
+			for (int k = 0; k < taps; k++) {
+				final float w = yKernel.weights[y * taps + k];
+				final int offset = yKernel.indices[y * taps + k] * sourceWidth;
+				if (pixels instanceof byte[]) {
+					final byte[] p = (byte[]) pixels;
+					final float[] row = rows[0];
+					for (int x = 0; x < sourceWidth; x++) {
+						row[x] += w * (p[offset + x] & 0xff);
+					}
+				}
+				else if (pixels instanceof short[]) {
+					final short[] p = (short[]) pixels;
+					final float[] row = rows[0];
+					for (int x = 0; x < sourceWidth; x++) {
+						row[x] += w * (p[offset + x] & 0xffff);
+					}
+				}
+				else if (pixels instanceof float[]) {
+					final float[] p = (float[]) pixels;
+					final float[] row = rows[0];
+					for (int x = 0; x < sourceWidth; x++) {
+						row[x] += w * p[offset + x];
+					}
+				}
+				else {
+					final int[] p = (int[]) pixels;
+					final float[] r = rows[0], g = rows[1], b = rows[2];
+					for (int x = 0; x < sourceWidth; x++) {
+						final int c = p[offset + x];
+						r[x] += w * ((c >> 16) & 0xff);
+						g[x] += w * ((c >> 8) & 0xff);
+						b[x] += w * (c & 0xff);
+					}
+				}
+			}
+		}
+
+		/** Blurs the given target pixel of the vertically blurred rows. */
+		private void blurHorizontally(final float[][] rows, final int x,
+			final float[] values)
+		{
+			final int taps = xKernel.taps;
+			for (int c = 0; c < rows.length; c++) {
+				final float[] row = rows[c];
+				float sum = 0;
+				for (int k = x * taps; k < (x + 1) * taps; k++) {
+					sum += xKernel.weights[k] * row[xKernel.indices[k]];
+				}
+				values[c] = sum;
+			}
+		}
+
+		private static void store(final Object pixels, final int index,
+			final float[] values)
+		{
+			if (pixels instanceof byte[]) {
+				((byte[]) pixels)[index] = (byte) clamp(values[0], 255);
+			}
+			else if (pixels instanceof short[]) {
+				((short[]) pixels)[index] = (short) clamp(values[0], 65535);
+			}
+			else if (pixels instanceof float[]) {
+				((float[]) pixels)[index] = values[0];
+			}
+			else {
+				((int[]) pixels)[index] = 0xff000000 | clamp(values[0], 255) << 16 |
+					clamp(values[1], 255) << 8 | clamp(values[2], 255);
+			}
+		}
+
+		private static int clamp(final float value, final int max) {
+			final int rounded = (int) (value + 0.5f);
+			return rounded < 0 ? 0 : rounded > max ? max : rounded;
+		}
+	}
+
+}
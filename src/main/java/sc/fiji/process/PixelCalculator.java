@@ -0,0 +1,139 @@
+/*
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2015 Fiji
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package sc.fiji.process;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+
+import org.scijava.ItemIO;
+import org.scijava.command.Command;
+import org.scijava.log.LogService;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+
+/**
+ * Combines two images pixel by pixel, like ImageJ's Image Calculator, but with
+ * the parallel {@link PixelKernels}.
+ * <p>
+ * Both images must be of the same type and size; the second image may be a
+ * single plane, which is then combined with every plane of the first one.
+ * Virtual stacks can only be combined into a new window.
+ * </p>
+ */
+@Plugin(type = Command.class,
+	menuPath = "Process>Image Calculator (Parallel)...")
+public class PixelCalculator implements Command {
+
+	public static final String ADD = "Add", SUBTRACT = "Subtract",
+			AVERAGE = "Average", BLEND = "Blend", MIN = "Min", MAX = "Max",
+			DIFFERENCE = "Difference";
+
+	@Parameter
+	private LogService log;
+
+	@Parameter(label = "Image1")
+	private ImagePlus image1;
+
+	@Parameter(choices = { ADD, SUBTRACT, AVERAGE, BLEND, MIN, MAX,
+		DIFFERENCE })
+	private String operation = AVERAGE;
+
+	@Parameter(label = "Image2")
+	private ImagePlus image2;
+
+	@Parameter(label = "Weight of image2 (for Blend)", min = "0", max = "1",
+		stepSize = "0.05")
+	private double weight = 0.5;
+
+	@Parameter(label = "Create new window")
+	private boolean createNew = true;
+
+	@Parameter(type = ItemIO.OUTPUT)
+	private ImagePlus result;
+
+	@Override
+	public void run() {
+		final ImageStack stack1 = image1.getStack(), stack2 = image2.getStack();
+		if (image1.getType() != image2.getType() || image1.getWidth() != image2
+			.getWidth() || image1.getHeight() != image2.getHeight())
+		{
+			log.error("The images must be of the same type and size");
+			return;
+		}
+		if (stack2.getSize() != 1 && stack2.getSize() != stack1.getSize()) {
+			log.error("Image2 must have one plane, or as many as Image1");
+			return;
+		}
+		if (!createNew && stack1.isVirtual()) {
+			// NB: The planes of a virtual stack are copies; changes are lost.
+			log.error("Image1 is a virtual stack; create a new window instead");
+			return;
+		}
+
+		final ImageStack target = createNew ? new ImageStack(stack1.getWidth(),
+			stack1.getHeight(), image1.getProcessor().getColorModel()) : stack1;
+		for (int i = 1; i <= stack1.getSize(); i++) {
+			final Object a = stack1.getPixels(i);
+			final Object b = stack2.getPixels(stack2.getSize() == 1 ? 1 : i);
+			final Object out = createNew ? newArray(a) : a;
+			apply(a, b, out);
+			if (createNew) target.addSlice(stack1.getSliceLabel(i), out);
+		}
+
+		if (createNew) {
+			result = new ImagePlus("Result of " + image1.getTitle(), target);
+			result.setDimensions(image1.getNChannels(), image1.getNSlices(), image1
+				.getNFrames());
+			result.setCalibration(image1.getCalibration());
+		}
+		else {
+			image1.getProcessor().resetMinAndMax();
+			image1.updateAndDraw();
+		}
+	}
+
+	public ImagePlus getResult() {
+		return result;
+	}
+
+	// -- Helper methods --
+
+	private void apply(final Object a, final Object b, final Object out) {
+		if (operation.equals(ADD)) PixelKernels.add(a, b, out);
+		else if (operation.equals(SUBTRACT)) PixelKernels.subtract(a, b, out);
+		else if (operation.equals(BLEND)) PixelKernels.blend(a, b, weight, out);
+		else if (operation.equals(MIN)) PixelKernels.min(a, b, out);
+		else if (operation.equals(MAX)) PixelKernels.max(a, b, out);
+		else if (operation.equals(DIFFERENCE)) PixelKernels.difference(a, b, out);
+		else PixelKernels.average(a, b, out);
+	}
+
+	private static Object newArray(final Object pixels) {
+		if (pixels instanceof byte[]) return new byte[((byte[]) pixels).length];
+		if (pixels instanceof short[]) return new short[((short[]) pixels).length];
+		if (pixels instanceof float[]) return new float[((float[]) pixels).length];
+		return new int[((int[]) pixels).length];
+	}
+
+}
@@ -0,0 +1,542 @@
+/*
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2015 Fiji
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package sc.fiji.process;
+
+import java.util.concurrent.RecursiveAction;
+
+import sc.fiji.parallel.Tiling;
+
+/**
+ * Pixel arithmetic on whole pixel arrays, e.g. of
+ * {@link ij.process.ImageProcessor#getPixels()}.
+ * <p>
+ * The kernels work on 8-bit and 16-bit (both unsigned and saturating),
+ * 32-bit floating-point and packed RGB (per channel, saturating) pixels; all
+ * arrays passed to a kernel must be of the same type and length. The result
+ * array may be one of the inputs. For example, to average two images in
+ * JavaScript:
+ * </p>
+ * <pre>
+ * PixelKernels.average(imp1.getProcessor().getPixels(),
+ * 	imp2.getProcessor().getPixels(), imp1.getProcessor().getPixels());
+ * </pre>
+ * <p>
+ * Each kernel is a tight loop over primitive arrays; no temporary pixel
+ * arrays are allocated, and no values are boxed. Large arrays are split into
+ * ranges processed in parallel on the {@link Tiling#getPool() shared pool},
+ * which takes one small task object per range. Small arrays are processed on
+ * the calling thread, and the arithmetic kernels then allocate nothing.
+ * </p>
+ */
+public final class PixelKernels {
+
+	/** The minimal number of pixels processed by one task. */
+	private static final int GRAIN = 1 << 16;
+
+	private enum Operation {
+		ADD, SUBTRACT, AVERAGE, BLEND, MIN, MAX, DIFFERENCE, CLAMP, SCALE_OFFSET
+	}
+
+	private PixelKernels() {
+		// NB: Prevent instantiation of utility class.
+	}
+
+	/** Stores {@code a + b} in the result. */
+	public static void add(final Object a, final Object b, final Object result) {
+		run(Operation.ADD, a, b, result, 0, 0);
+	}
+
+	/** Stores {@code a - b} in the result. */
+	public static void subtract(final Object a, final Object b,
+		final Object result)
+	{
+		run(Operation.SUBTRACT, a, b, result, 0, 0);
+	}
+
+	/** Stores the (truncated) average of {@code a} and {@code b}. */
+	public static void average(final Object a, final Object b,
+		final Object result)
+	{
+		run(Operation.AVERAGE, a, b, result, 0, 0);
+	}
+
+	/**
+	 * Stores {@code (1 - weight) * a + weight * b} in the result.
+	 *
+	 * @param weight the weight of {@code b}, between 0 and 1
+	 */
+	public static void blend(final Object a, final Object b,
+		final double weight, final Object result)
+	{
+		if (weight < 0 || weight > 1) {
+			throw new IllegalArgumentException("Invalid weight: " + weight);
+		}
+		run(Operation.BLEND, a, b, result, weight, 0);
+	}
+
+	/** Stores the minimum of {@code a} and {@code b} in the result. */
+	public static void min(final Object a, final Object b, final Object result) {
+		run(Operation.MIN, a, b, result, 0, 0);
+	}
+
+	/** Stores the maximum of {@code a} and {@code b} in the result. */
+	public static void max(final Object a, final Object b, final Object result) {
+		run(Operation.MAX, a, b, result, 0, 0);
+	}
+
+	/** Stores the absolute difference of {@code a} and {@code b}. */
+	public static void difference(final Object a, final Object b,
+		final Object result)
+	{
+		run(Operation.DIFFERENCE, a, b, result, 0, 0);
+	}
+
+	/** Clamps the values (of each channel) to the given range. */
+	public static void clamp(final Object a, final double min,
+		final double max, final Object result)
+	{
+		run(Operation.CLAMP, a, a, result, min, max);
+	}
+
+	/**
+	 * Stores {@code a * scale + offset} (of each channel), rounded to the
+	 * nearest integer for integer types.
+	 */
+	public static void scaleOffset(final Object a, final double scale,
+		final double offset, final Object result)
+	{
+		run(Operation.SCALE_OFFSET, a, a, result, scale, offset);
+	}
+
+	/** Splits packed RGB pixels into their channels. */
+	public static void split(final int[] rgb, final byte[] red,
+		final byte[] green, final byte[] blue)
+	{
+		checkLength(rgb.length, red.length, green.length, blue.length);
+		run(new Range() {
+
+			@Override
+			void apply(final int from, final int to) {
+				for (int i = from; i < to; i++) {
+					final int c = rgb[i];
+					red[i] = (byte) (c >> 16);
+					green[i] = (byte) (c >> 8);
+					blue[i] = (byte) c;
+				}
+			}
+		}, rgb.length);
+	}
+
+	/** Merges the channels into packed RGB pixels. */
+	public static void merge(final byte[] red, final byte[] green,
+		final byte[] blue, final int[] rgb)
+	{
+		checkLength(rgb.length, red.length, green.length, blue.length);
+		run(new Range() {
+
+			@Override
+			void apply(final int from, final int to) {
+				for (int i = from; i < to; i++) {
+					rgb[i] = 0xff000000 | (red[i] & 0xff) << 16 | (green[i] & 0xff) <<
+						8 | blue[i] & 0xff;
+				}
+			}
+		}, rgb.length);
+	}
+
+	// -- Helper methods --
+
+	private static void run(final Operation op, final Object a, final Object b,
+		final Object result, final double p, final double q)
+	{
+		final int length = getLength(a);
+		if (a.getClass() != b.getClass() || a.getClass() != result.getClass()) {
+			throw new IllegalArgumentException("Pixel types differ");
+		}
+		checkLength(length, getLength(b), getLength(result));
+		if (isSequential(length)) {
+			// NB: Spare small arrays the range object, too.
+			apply(op, a, b, result, p, q, 0, length);
+			return;
+		}
+		run(new Range() {
+
+			@Override
+			void apply(final int from, final int to) {
+				PixelKernels.apply(op, a, b, result, p, q, from, to);
+			}
+		}, length);
+	}
+
+	private static void run(final Range range, final int length) {
+		if (isSequential(length)) range.apply(0, length);
+		else Tiling.getPool().invoke(new Split(range, 0, length));
+	}
+
+	private static boolean isSequential(final int length) {
+		return length < 2 * GRAIN || Tiling.getPool().getParallelism() < 2;
+	}
+
+	private static void apply(final Operation op, final Object a,
+		final Object b, final Object result, final double p, final double q,
+		final int from, final int to)
+	{
+		if (a instanceof byte[]) {
+			bytes(op, (byte[]) a, (byte[]) b, (byte[]) result, p, q, from, to);
+		}
+		else if (a instanceof short[]) {
+			shorts(op, (short[]) a, (short[]) b, (short[]) result, p, q, from, to);
+		}
+		else if (a instanceof float[]) {
+			floats(op, (float[]) a, (float[]) b, (float[]) result, (float) p,
+				(float) q, from, to);
+		}
+		else rgb(op, (int[]) a, (int[]) b, (int[]) result, p, q, from, to);
+	}
+
+	private static int getLength(final Object pixels) {
+		if (pixels instanceof byte[]) return ((byte[]) pixels).length;
+		if (pixels instanceof short[]) return ((short[]) pixels).length;
+		if (pixels instanceof float[]) return ((float[]) pixels).length;
+		if (pixels instanceof int[]) return ((int[]) pixels).length;
+		throw new IllegalArgumentException("Not a pixel array: " + pixels);
+	}
+
+	private static void checkLength(final int length, final int... lengths) {
+		for (final int other : lengths) {
+			if (other != length) {
+				throw new IllegalArgumentException("Pixel counts differ: " + length +
+					" != " + other);
+			}
+		}
+	}
+
+	// -- Kernels --
+
+	private static void bytes(final Operation op, final byte[] a,
+		final byte[] b, final byte[] r, final double p, final double q,
+		final int from, final int to)
+	{
+		switch (op) {
+			case ADD:
+				for (int i = from; i < to; i++) {
+					r[i] = (byte) Math.min(255, (a[i] & 0xff) + (b[i] & 0xff));
+				}
+				break;
+			case SUBTRACT:
+				for (int i = from; i < to; i++) {
+					r[i] = (byte) Math.max(0, (a[i] & 0xff) - (b[i] & 0xff));
+				}
+				break;
+			case AVERAGE:
+				for (int i = from; i < to; i++) {
+					r[i] = (byte) (((a[i] & 0xff) + (b[i] & 0xff)) >> 1);
+				}
+				break;
+			case BLEND: {
+				final int w = (int) Math.round(p * 256), v = 256 - w;
+				for (int i = from; i < to; i++) {
+					r[i] = (byte) (((a[i] & 0xff) * v + (b[i] & 0xff) * w + 128) >> 8);
+				}
+				break;
+			}
+			case MIN:
+				for (int i = from; i < to; i++) {
+					r[i] = (byte) Math.min(a[i] & 0xff, b[i] & 0xff);
+				}
+				break;
+			case MAX:
+				for (int i = from; i < to; i++) {
+					r[i] = (byte) Math.max(a[i] & 0xff, b[i] & 0xff);
+				}
+				break;
+			case DIFFERENCE:
+				for (int i = from; i < to; i++) {
+					r[i] = (byte) Math.abs((a[i] & 0xff) - (b[i] & 0xff));
+				}
+				break;
+			case CLAMP: {
+				final int min = (int) Math.max(0, Math.ceil(p));
+				final int max = (int) Math.min(255, Math.floor(q));
+				for (int i = from; i < to; i++) {
+					r[i] = (byte) Math.max(min, Math.min(max, a[i] & 0xff));
+				}
+				break;
+			}
+			case SCALE_OFFSET: {
+				final float scale = (float) p, offset = (float) q + 0.5f;
+				for (int i = from; i < to; i++) {
+					r[i] = (byte) saturate((a[i] & 0xff) * scale + offset, 255);
+				}
+				break;
+			}
+		}
+	}
+
+	private static void shorts(final Operation op, final short[] a,
+		final short[] b, final short[] r, final double p, final double q,
+		final int from, final int to)
+	{
+		switch (op) {
+			case ADD:
+				for (int i = from; i < to; i++) {
+					r[i] = (short) Math.min(65535, (a[i] & 0xffff) + (b[i] & 0xffff));
+				}
+				break;
+			case SUBTRACT:
+				for (int i = from; i < to; i++) {
+					r[i] = (short) Math.max(0, (a[i] & 0xffff) - (b[i] & 0xffff));
+				}
+				break;
+			case AVERAGE:
+				for (int i = from; i < to; i++) {
+					r[i] = (short) (((a[i] & 0xffff) + (b[i] & 0xffff)) >> 1);
+				}
+				break;
+			case BLEND: {
+				final float w = (float) p;
+				for (int i = from; i < to; i++) {
+					final int x = a[i] & 0xffff;
+					r[i] = (short) (x + ((b[i] & 0xffff) - x) * w + 0.5f);
+				}
+				break;
+			}
+			case MIN:
+				for (int i = from; i < to; i++) {
+					r[i] = (short) Math.min(a[i] & 0xffff, b[i] & 0xffff);
+				}
+				break;
+			case MAX:
+				for (int i = from; i < to; i++) {
+					r[i] = (short) Math.max(a[i] & 0xffff, b[i] & 0xffff);
+				}
+				break;
+			case DIFFERENCE:
+				for (int i = from; i < to; i++) {
+					r[i] = (short) Math.abs((a[i] & 0xffff) - (b[i] & 0xffff));
+				}
+				break;
+			case CLAMP: {
+				final int min = (int) Math.max(0, Math.ceil(p));
+				final int max = (int) Math.min(65535, Math.floor(q));
+				for (int i = from; i < to; i++) {
+					r[i] = (short) Math.max(min, Math.min(max, a[i] & 0xffff));
+				}
+				break;
+			}
+			case SCALE_OFFSET: {
+				final float scale = (float) p, offset = (float) q + 0.5f;
+				for (int i = from; i < to; i++) {
+					r[i] = (short) saturate((a[i] & 0xffff) * scale + offset, 65535);
+				}
+				break;
+			}
+		}
+	}
+
+	private static void floats(final Operation op, final float[] a,
+		final float[] b, final float[] r, final float p, final float q,
+		final int from, final int to)
+	{
+		switch (op) {
+			case ADD:
+				for (int i = from; i < to; i++) {
+					r[i] = a[i] + b[i];
+				}
+				break;
+			case SUBTRACT:
+				for (int i = from; i < to; i++) {
+					r[i] = a[i] - b[i];
+				}
+				break;
+			case AVERAGE:
+				for (int i = from; i < to; i++) {
+					r[i] = (a[i] + b[i]) * 0.5f;
+				}
+				break;
+			case BLEND:
+				for (int i = from; i < to; i++) {
+					r[i] = a[i] + (b[i] - a[i]) * p;
+				}
+				break;
+			case MIN:
+				for (int i = from; i < to; i++) {
+					r[i] = Math.min(a[i], b[i]);
+				}
+				break;
+			case MAX:
+				for (int i = from; i < to; i++) {
+					r[i] = Math.max(a[i], b[i]);
+				}
+				break;
+			case DIFFERENCE:
+				for (int i = from; i < to; i++) {
+					r[i] = Math.abs(a[i] - b[i]);
+				}
+				break;
+			case CLAMP:
+				for (int i = from; i < to; i++) {
+					r[i] = Math.max(p, Math.min(q, a[i]));
+				}
+				break;
+			case SCALE_OFFSET:
+				for (int i = from; i < to; i++) {
+					r[i] = a[i] * p + q;
+				}
+				break;
+		}
+	}
+
+	private static void rgb(final Operation op, final int[] a, final int[] b,
+		final int[] r, final double p, final double q, final int from,
+		final int to)
+	{
+		switch (op) {
+			case ADD:
+				for (int i = from; i < to; i++) {
+					final int x = a[i], y = b[i];
+					r[i] = 0xff000000 |
+						Math.min(255, ((x >> 16) & 0xff) + ((y >> 16) & 0xff)) << 16 |
+						Math.min(255, ((x >> 8) & 0xff) + ((y >> 8) & 0xff)) << 8 |
+						Math.min(255, (x & 0xff) + (y & 0xff));
+				}
+				break;
+			case SUBTRACT:
+				for (int i = from; i < to; i++) {
+					final int x = a[i], y = b[i];
+					r[i] = 0xff000000 |
+						Math.max(0, ((x >> 16) & 0xff) - ((y >> 16) & 0xff)) << 16 |
+						Math.max(0, ((x >> 8) & 0xff) - ((y >> 8) & 0xff)) << 8 |
+						Math.max(0, (x & 0xff) - (y & 0xff));
+				}
+				break;
+			case AVERAGE:
+				// NB: Average all channels at once, without carries between them.
+				for (int i = from; i < to; i++) {
+					r[i] = 0xff000000 | ((a[i] & b[i]) + (((a[i] ^ b[i]) & 0xfefefe) >>>
+						1));
+				}
+				break;
+			case BLEND: {
+				final int w = (int) Math.round(p * 256), v = 256 - w;
+				for (int i = from; i < to; i++) {
+					final int x = a[i], y = b[i];
+					r[i] = 0xff000000 |
+						(((x >> 16) & 0xff) * v + ((y >> 16) & 0xff) * w + 128) >> 8 << 16 |
+						(((x >> 8) & 0xff) * v + ((y >> 8) & 0xff) * w + 128) >> 8 << 8 |
+						((x & 0xff) * v + (y & 0xff) * w + 128) >> 8;
+				}
+				break;
+			}
+			case MIN:
+				for (int i = from; i < to; i++) {
+					final int x = a[i], y = b[i];
+					r[i] = 0xff000000 |
+						Math.min((x >> 16) & 0xff, (y >> 16) & 0xff) << 16 |
+						Math.min((x >> 8) & 0xff, (y >> 8) & 0xff) << 8 |
+						Math.min(x & 0xff, y & 0xff);
+				}
+				break;
+			case MAX:
+				for (int i = from; i < to; i++) {
+					final int x = a[i], y = b[i];
+					r[i] = 0xff000000 |
+						Math.max((x >> 16) & 0xff, (y >> 16) & 0xff) << 16 |
+						Math.max((x >> 8) & 0xff, (y >> 8) & 0xff) << 8 |
+						Math.max(x & 0xff, y & 0xff);
+				}
+				break;
+			case DIFFERENCE:
+				for (int i = from; i < to; i++) {
+					final int x = a[i], y = b[i];
+					r[i] = 0xff000000 |
+						Math.abs(((x >> 16) & 0xff) - ((y >> 16) & 0xff)) << 16 |
+						Math.abs(((x >> 8) & 0xff) - ((y >> 8) & 0xff)) << 8 |
+						Math.abs((x & 0xff) - (y & 0xff));
+				}
+				break;
+			case CLAMP: {
+				final int min = (int) Math.max(0, Math.ceil(p));
+				final int max = (int) Math.min(255, Math.floor(q));
+				for (int i = from; i < to; i++) {
+					final int x = a[i];
+					r[i] = 0xff000000 |
+						Math.max(min, Math.min(max, (x >> 16) & 0xff)) << 16 |
+						Math.max(min, Math.min(max, (x >> 8) & 0xff)) << 8 |
+						Math.max(min, Math.min(max, x & 0xff));
+				}
+				break;
+			}
+			case SCALE_OFFSET: {
+				final float scale = (float) p, offset = (float) q + 0.5f;
+				for (int i = from; i < to; i++) {
+					final int x = a[i];
+					r[i] = 0xff000000 |
+						saturate(((x >> 16) & 0xff) * scale + offset, 255) << 16 |
+						saturate(((x >> 8) & 0xff) * scale + offset, 255) << 8 |
+						saturate((x & 0xff) * scale + offset, 255);
+				}
+				break;
+			}
+		}
+	}
+
+	private static int saturate(final float value, final int max) {
+		return value <= 0 ? 0 : value >= max ? max : (int) value;
+	}
+
+	// -- Helper classes --
+
+	/** A kernel applied to a range of pixels. */
+	private abstract static class Range {
+
+		abstract void apply(int from, int to);
+	}
+
+	/** Splits a range of pixels in halves until they are small enough. */
+	private static class Split extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Range range;
+		private final int from, to;
+
+		private Split(final Range range, final int from, final int to) {
+			this.range = range;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from < 2 * GRAIN) {
+				range.apply(from, to);
+				return;
+			}
+			final int middle = (from + to) >>> 1;
+			invokeAll(new Split(range, from, middle), new Split(range, middle, to));
+		}
+	}
+
+}
@@ -0,0 +1,373 @@
+/*
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2015 Fiji
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package sc.fiji.process;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.VirtualStack;
+import ij.process.ColorProcessor;
+import ij.process.ImageProcessor;
+
+import sc.fiji.parallel.ProgressListener;
+import sc.fiji.parallel.Region;
+import sc.fiji.parallel.RegionOp;
+import sc.fiji.parallel.Tiling;
+
+/**
+ * Composes two RGB image series, plane by plane: a source series is blended
+ * over a target series.
+ * <p>
+ * The blending works directly on the packed RGB pixels, in integer
+ * arithmetic, as the {@code compose_rgb-stacks} script's TrakEM2 composites
+ * do for opaque images, but without going through {@code BufferedImage}s and
+ * {@code Graphics2D}. The result is either composed in parallel across planes
+ * ({@link #run()}), or on demand, plane by plane, as a
+ * {@link #createVirtualStack() virtual stack}; both read the planes of the
+ * series only once, so the series may be virtual stacks themselves.
+ * </p>
+ */
+public class StackComposer {
+
+	/** How the source pixels are blended over the target pixels. */
+	public enum Mode {
+		/** The source over the target. */
+		NORMAL("Normal"),
+		/** The sum of the source and the target. */
+		ADD("Add"),
+		/** The target minus the source. */
+		SUBTRACT("Subtract"),
+		/** The product of the source and the target. */
+		MULTIPLY("Multiply"),
+		/** The absolute difference of the source and the target. */
+		DIFFERENCE("Difference"),
+		/**
+		 * The luminance (Y) of the target with the chroma (Cb and Cr) of the
+		 * source. This looks like the color of the source over the target, but
+		 * as chroma carries some luminance, color over black or white stays
+		 * visible.
+		 */
+		COLOR_YCBCR("Color (YCbCr)");
+
+		private final String label;
+
+		private Mode(final String label) {
+			this.label = label;
+		}
+
+		/** Gets the mode of the given label (or name). */
+		public static Mode get(final String label) {
+			for (final Mode mode : values()) {
+				if (mode.label.equals(label) || mode.name().equals(label)) {
+					return mode;
+				}
+			}
+			throw new IllegalArgumentException("Unknown mode: " + label);
+		}
+
+		@Override
+		public String toString() {
+			return label;
+		}
+	}
+
+	private final ImagePlus source, target;
+	private Mode mode = Mode.COLOR_YCBCR;
+	private double alpha = 1;
+	private ProgressListener listener;
+
+	/**
+	 * @param source the series blended over the target
+	 * @param target the series the source is blended over
+	 */
+	public StackComposer(final ImagePlus source, final ImagePlus target) {
+		if (source.getType() != ImagePlus.COLOR_RGB || target
+			.getType() != ImagePlus.COLOR_RGB || source.getStackSize() != target
+				.getStackSize() || source.getWidth() != target.getWidth() || source
+					.getHeight() != target.getHeight())
+		{
+			throw new IllegalArgumentException(
+				"Both stacks must be RGB and of the same size.");
+		}
+		this.source = source;
+		this.target = target;
+	}
+
+	public StackComposer mode(final Mode mode) {
+		this.mode = mode;
+		return this;
+	}
+
+	/** Sets the opacity of the blended source, between 0 and 1. */
+	public StackComposer alpha(final double alpha) {
+		this.alpha = Math.max(0, Math.min(1, alpha));
+		return this;
+	}
+
+	public StackComposer progress(final ProgressListener listener) {
+		this.listener = listener;
+		return this;
+	}
+
+	/** Composes all planes, in parallel. */
+	public ImagePlus run() {
+		final int width = target.getWidth(), height = target.getHeight();
+		final ImageStack targetStack = target.getStack();
+		final ImageStack stack = new ImageStack(width, height);
+		for (int plane = 1; plane <= target.getStackSize(); plane++) {
+			stack.addSlice(targetStack.getSliceLabel(plane), new ColorProcessor(
+				width, height));
+		}
+		final ImagePlus result = createResult(stack);
+		final Tiling tiling = Tiling.planes(result);
+		if (listener != null) tiling.progress(listener);
+		tiling.run(new RegionOp() {
+
+			@Override
+			public void process(final Region region) {
+				composePlane(region.getPlane(), (int[]) region.getPixels());
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Creates a read-only virtual stack composing each plane when it is
+	 * shown, e.g. to browse or save the composition of series too large for
+	 * memory.
+	 */
+	public VirtualStack createVirtualStack() {
+		return new ComposedStack();
+	}
+
+	/**
+	 * Blends the given source pixels over the target pixels.
+	 *
+	 * @param alpha the opacity of the source, between 0 and 256
+	 */
+	public static void compose(final int[] source, final int[] target,
+		final int[] result, final Mode mode, final int alpha)
+	{
+		switch (mode) {
+			case NORMAL:
+				normal(source, target, result, alpha);
+				break;
+			case ADD:
+				add(source, target, result, alpha);
+				break;
+			case SUBTRACT:
+				subtract(source, target, result, alpha);
+				break;
+			case MULTIPLY:
+				multiply(source, target, result, alpha);
+				break;
+			case DIFFERENCE:
+				difference(source, target, result, alpha);
+				break;
+			case COLOR_YCBCR:
+				color(source, target, result, alpha);
+				break;
+		}
+	}
+
+	// -- Blending methods --
+
+	// NB: One loop per method, so that each is compiled on its own.
+
+	private static void normal(final int[] source, final int[] target,
+		final int[] result, final int alpha)
+	{
+		for (int i = 0; i < result.length; i++) {
+			result[i] = blend(source[i], target[i], alpha);
+		}
+	}
+
+	private static void add(final int[] source, final int[] target,
+		final int[] result, final int alpha)
+	{
+		for (int i = 0; i < result.length; i++) {
+			final int s = source[i], t = target[i];
+			result[i] = pack(red(t) + (red(s) * alpha >> 8), green(t) + (green(s) *
+				alpha >> 8), blue(t) + (blue(s) * alpha >> 8));
+		}
+	}
+
+	private static void subtract(final int[] source, final int[] target,
+		final int[] result, final int alpha)
+	{
+		for (int i = 0; i < result.length; i++) {
+			final int s = source[i], t = target[i];
+			result[i] = pack(red(t) - (red(s) * alpha >> 8), green(t) - (green(s) *
+				alpha >> 8), blue(t) - (blue(s) * alpha >> 8));
+		}
+	}
+
+	private static void multiply(final int[] source, final int[] target,
+		final int[] result, final int alpha)
+	{
+		for (int i = 0; i < result.length; i++) {
+			final int s = source[i], t = target[i];
+			final int product = pack(multiply(red(s), red(t)), multiply(green(s),
+				green(t)), multiply(blue(s), blue(t)));
+			result[i] = blend(product, t, alpha);
+		}
+	}
+
+	private static void difference(final int[] source, final int[] target,
+		final int[] result, final int alpha)
+	{
+		for (int i = 0; i < result.length; i++) {
+			final int s = source[i], t = target[i];
+			final int difference = pack(Math.abs(red(s) - red(t)), Math.abs(green(
+				s) - green(t)), Math.abs(blue(s) - blue(t)));
+			result[i] = blend(difference, t, alpha);
+		}
+	}
+
+	private static void color(final int[] source, final int[] target,
+		final int[] result, final int alpha)
+	{
+		for (int i = 0; i < result.length; i++) {
+			result[i] = blend(swapLuminance(source[i], target[i]), target[i], alpha);
+		}
+	}
+
+	// -- Helper methods --
+
+	private void composePlane(final int plane, final int[] result) {
+		final int[] s = (int[]) source.getStack().getPixels(plane);
+		final int[] t = (int[]) target.getStack().getPixels(plane);
+		compose(s, t, result, mode, (int) Math.round(alpha * 256));
+	}
+
+	private ImagePlus createResult(final ImageStack stack) {
+		final ImagePlus result = new ImagePlus(target.getTitle(), stack);
+		result.setDimensions(target.getNChannels(), target.getNSlices(), target
+			.getNFrames());
+		result.setOpenAsHyperStack(target.isHyperStack());
+		result.setCalibration(target.getCalibration().copy());
+		return result;
+	}
+
+	/** Packs the given channel values, clamped to 0-255, into an RGB pixel. */
+	private static int pack(final int r, final int g, final int b) {
+		return 0xff000000 | clamp(r) << 16 | clamp(g) << 8 | clamp(b);
+	}
+
+	private static int clamp(final int value) {
+		return Math.max(0, Math.min(255, value));
+	}
+
+	private static int multiply(final int a, final int b) {
+		return (a * b + 127) / 255;
+	}
+
+	/** Blends two RGB pixels, weighting the first by alpha (of 256). */
+	private static int blend(final int a, final int b, final int alpha) {
+		final int beta = 256 - alpha;
+		return 0xff000000 | (red(a) * alpha + red(b) * beta) >> 8 << 16 |
+			(green(a) * alpha + green(b) * beta) >> 8 << 8 | (blue(a) * alpha +
+				blue(b) * beta) >> 8;
+	}
+
+	/**
+	 * Combines the luminance of the target with the chroma of the source
+	 * (JPEG's YCbCr, in 16-bit fixed point arithmetic).
+	 */
+	private static int swapLuminance(final int source, final int target) {
+		final int y = (19595 * red(target) + 38470 * green(target) + 7471 *
+			blue(target) + 32768) >> 16;
+		final int cb = (-11059 * red(source) - 21709 * green(source) + 32768 *
+			blue(source) + 32768) >> 16;
+		final int cr = (32768 * red(source) - 27439 * green(source) - 5329 *
+			blue(source) + 32768) >> 16;
+		return pack(y + ((91881 * cr + 32768) >> 16), y - ((22554 * cb + 46802 *
+			cr + 32768) >> 16), y + ((116130 * cb + 32768) >> 16));
+	}
+
+	private static int red(final int rgb) {
+		return (rgb >> 16) & 0xff;
+	}
+
+	private static int green(final int rgb) {
+		return (rgb >> 8) & 0xff;
+	}
+
+	private static int blue(final int rgb) {
+		return rgb & 0xff;
+	}
+
+	// -- Helper classes --
+
+	/** Composes each plane when it is requested. */
+	private class ComposedStack extends VirtualStack {
+
+		private ComposedStack() {
+			super(target.getWidth(), target.getHeight(), null, null);
+		}
+
+		@Override
+		public ImageProcessor getProcessor(final int n) {
+			return new ColorProcessor(getWidth(), getHeight(), (int[]) getPixels(
+				n));
+		}
+
+		@Override
+		public Object getPixels(final int n) {
+			final int[] pixels = new int[getWidth() * getHeight()];
+			composePlane(n, pixels);
+			return pixels;
+		}
+
+		@Override
+		public void setPixels(final Object pixels, final int n) {
+			// NB: The stack is read-only.
+		}
+
+		@Override
+		public int getSize() {
+			return target.getStackSize();
+		}
+
+		@Override
+		public int size() {
+			return target.getStackSize();
+		}
+
+		@Override
+		public String getSliceLabel(final int n) {
+			return target.getStack().getSliceLabel(n);
+		}
+
+		@Override
+		public int getBitDepth() {
+			return 24;
+		}
+
+		@Override
+		public void deleteSlice(final int n) {
+			throw new UnsupportedOperationException("Read-only stack");
+		}
+	}
+
+}
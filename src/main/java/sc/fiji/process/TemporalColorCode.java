@@ -0,0 +1,96 @@
+/*
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2015 Fiji
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package sc.fiji.process;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.gui.NewImage;
+
+import java.awt.image.ColorModel;
+import java.awt.image.IndexColorModel;
+
+import org.scijava.ItemIO;
+import org.scijava.command.Command;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+
+import sc.fiji.parallel.ProgressListener;
+
+/**
+ * Color-codes the frames of a time-lapse with a {@link TemporalColorCoder}.
+ */
+@Plugin(type = Command.class,
+	menuPath = "Image>Hyperstacks>Temporal-Color Code (Streaming)")
+public class TemporalColorCode implements Command {
+
+	@Parameter
+	private ImagePlus image;
+
+	@Parameter(label = "LUT",
+		description = "The name of a command in Image>Lookup Tables")
+	private String lut = "Fire";
+
+	@Parameter(label = "Start frame", min = "1")
+	private int start = 1;
+
+	@Parameter(label = "End frame (0 for the last frame)", min = "0")
+	private int end;
+
+	@Parameter(type = ItemIO.OUTPUT)
+	private ImagePlus result;
+
+	@Override
+	public void run() {
+		final TemporalColorCoder coder = new TemporalColorCoder(image);
+		coder.lut(getLut(lut)).frames(start, end == 0 ? coder.getFrameCount()
+			: Math.min(end, coder.getFrameCount())).progress(
+				new ProgressListener() {
+
+					@Override
+					public void progress(final long done, final long total) {
+						IJ.showProgress((int) done, (int) total);
+					}
+				});
+		result = coder.run();
+	}
+
+	public ImagePlus getResult() {
+		return result;
+	}
+
+	// -- Helper methods --
+
+	/** Gets a lookup table by running its command on a small image. */
+	private static IndexColorModel getLut(final String name) {
+		final ImagePlus stamp = NewImage.createByteImage("stamp", 256, 1, 1,
+			NewImage.FILL_RAMP);
+		IJ.run(stamp, name, "");
+		final ColorModel model = stamp.getProcessor().getColorModel();
+		if (!(model instanceof IndexColorModel)) {
+			throw new IllegalArgumentException("Not a lookup table: " + name);
+		}
+		return (IndexColorModel) model;
+	}
+
+}
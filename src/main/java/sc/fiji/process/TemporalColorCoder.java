@@ -0,0 +1,271 @@
+/*
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2015 Fiji
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package sc.fiji.process;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ColorProcessor;
+
+import java.awt.image.IndexColorModel;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+
+import sc.fiji.parallel.ProgressListener;
+import sc.fiji.parallel.Region;
+import sc.fiji.parallel.RegionOp;
+import sc.fiji.parallel.Tiling;
+import sc.fiji.parallel.TilingTask;
+
+/**
+ * Color-codes the time points of a time-lapse, and projects them into one
+ * RGB image per slice.
+ * <p>
+ * Each frame is converted to 8-bit (using the image's display range), its
+ * gray values scale the color the lookup table assigns to the frame, and the
+ * brightest value of each color channel over all frames is kept. This is what
+ * the {@code Temporal-Color Code} script does by duplicating the stack,
+ * converting every frame to RGB and running a maximum projection; here, the
+ * frames are streamed instead: each frame is read once, and folded into the
+ * projection in parallel tiles while the next frame is read. Only two frames
+ * are held at any time, so the frames may come from a virtual stack of any
+ * length.
+ * </p>
+ * <p>
+ * Images with only one frame, but several slices, are coded by slice.
+ * </p>
+ */
+public class TemporalColorCoder {
+
+	private final ImagePlus image;
+	private final boolean slicesAsFrames;
+	private IndexColorModel lut;
+	private int firstFrame, lastFrame;
+	private ProgressListener listener;
+
+	public TemporalColorCoder(final ImagePlus image) {
+		if (image.getNChannels() > 1) {
+			throw new IllegalArgumentException(
+				"Cannot color-code multi-channel images");
+		}
+		if (image.getType() == ImagePlus.COLOR_RGB ||
+			image.getType() == ImagePlus.COLOR_256)
+		{
+			throw new IllegalArgumentException("Cannot color-code color images");
+		}
+		this.image = image;
+		slicesAsFrames = image.getNFrames() == 1 && image.getNSlices() > 1;
+		firstFrame = 1;
+		lastFrame = getFrameCount();
+		lut = grays();
+	}
+
+	/** Sets the lookup table assigning colors to the frames. */
+	public TemporalColorCoder lut(final IndexColorModel lut) {
+		if (lut.getMapSize() != 256) {
+			throw new IllegalArgumentException("Not a 256-color lookup table");
+		}
+		this.lut = lut;
+		return this;
+	}
+
+	/** Restricts the coding to the given (1-based) range of frames. */
+	public TemporalColorCoder frames(final int first, final int last) {
+		if (first < 1 || last > getFrameCount() || first > last) {
+			throw new IllegalArgumentException("Invalid frames: " + first + "-" +
+				last);
+		}
+		firstFrame = first;
+		lastFrame = last;
+		return this;
+	}
+
+	/** Reports the progress in frames. */
+	public TemporalColorCoder progress(final ProgressListener listener) {
+		this.listener = listener;
+		return this;
+	}
+
+	public int getFrameCount() {
+		return slicesAsFrames ? image.getNSlices() : image.getNFrames();
+	}
+
+	/** Color-codes the frames, returning one RGB image per slice. */
+	public ImagePlus run() {
+		final int slices = slicesAsFrames ? 1 : image.getNSlices();
+		final int frames = lastFrame - firstFrame + 1;
+		final ImageStack stack = new ImageStack(image.getWidth(), image
+			.getHeight());
+		for (int z = 1; z <= slices; z++) {
+			stack.addSlice(null, new ColorProcessor(image.getWidth(), image
+				.getHeight()));
+		}
+		final ImagePlus result = new ImagePlus("MAX_colored", stack);
+		result.setCalibration(image.getCalibration().copy());
+
+		final byte[] grays = createGrayTable();
+		final ImageStack source = image.getStack();
+		long done = 0;
+		for (int z = 1; z <= slices; z++) {
+			final Tiling tiling = Tiling.rows(result).planes(z, z);
+			Object next = source.getPixels(getStackIndex(z, firstFrame));
+			for (int i = 0; i < frames; i++) {
+				final Object pixels = next;
+				final TilingTask task = tiling.submit(new Projection(pixels,
+					createColorTable(i, frames), grays));
+				// NB: Read the next frame while this one is projected.
+				next = i + 1 < frames ? source.getPixels(getStackIndex(z,
+					firstFrame + i + 1)) : null;
+				await(task);
+				if (listener != null) listener.progress(++done, (long) slices *
+					frames);
+			}
+		}
+		return result;
+	}
+
+	// -- Helper methods --
+
+	private int getStackIndex(final int slice, final int frame) {
+		return slicesAsFrames ? image.getStackIndex(1, frame, 1) : image
+			.getStackIndex(1, slice, frame);
+	}
+
+	/**
+	 * Maps 16-bit values to 8-bit ones through the display range, like
+	 * ImageJ's type conversion; null for other types.
+	 */
+	private byte[] createGrayTable() {
+		if (image.getBitDepth() != 16) return null;
+		final double min = image.getDisplayRangeMin();
+		final double max = image.getDisplayRangeMax();
+		final double scale = 256.0 / (max - min + 1);
+		final byte[] table = new byte[65536];
+		for (int v = 0; v < table.length; v++) {
+			final int value = (int) ((v - min) * scale + 0.5);
+			table[v] = (byte) Math.max(0, Math.min(255, value));
+		}
+		return table;
+	}
+
+	/**
+	 * Gets the RGB value of each gray value of the given frame: the frame's
+	 * color, scaled by the gray value.
+	 */
+	private int[] createColorTable(final int frame, final int frames) {
+		final int index = (int) Math.floor(256.0 / frames * frame);
+		final int r = lut.getRed(index), g = lut.getGreen(index), b = lut
+			.getBlue(index);
+		final int[] table = new int[256];
+		for (int v = 0; v < 256; v++) {
+			final double factor = v / 255.0;
+			table[v] = (int) Math.round(r * factor) << 16 | (int) Math.round(g *
+				factor) << 8 | (int) Math.round(b * factor);
+		}
+		return table;
+	}
+
+	private static IndexColorModel grays() {
+		final byte[] ramp = new byte[256];
+		for (int i = 0; i < 256; i++) {
+			ramp[i] = (byte) i;
+		}
+		return new IndexColorModel(8, 256, ramp, ramp, ramp);
+	}
+
+	private static void await(final TilingTask task) {
+		try {
+			task.get();
+		}
+		catch (final InterruptedException e) {
+			task.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new CancellationException("Interrupted");
+		}
+		catch (final ExecutionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+			if (cause instanceof Error) throw (Error) cause;
+			throw new RuntimeException(cause);
+		}
+	}
+
+	// -- Helper classes --
+
+	/** Folds one frame into the projection, tile by tile. */
+	private final class Projection implements RegionOp {
+
+		private final Object pixels;
+		private final int[] colors;
+		private final byte[] grays;
+		private final double min, scale;
+
+		private Projection(final Object pixels, final int[] colors,
+			final byte[] grays)
+		{
+			this.pixels = pixels;
+			this.colors = colors;
+			this.grays = grays;
+			min = image.getDisplayRangeMin();
+			scale = 255 / (image.getDisplayRangeMax() - min);
+		}
+
+		@Override
+		public void process(final Region region) {
+			final int[] target = (int[]) region.getPixels();
+			final int width = image.getWidth();
+			for (int y = region.getY(); y < region.getY() + region.getHeight(); y++)
+			{
+				final int start = y * width + region.getX();
+				final int end = start + region.getWidth();
+				if (pixels instanceof byte[]) {
+					final byte[] p = (byte[]) pixels;
+					for (int i = start; i < end; i++) {
+						target[i] = max(target[i], colors[p[i] & 0xff]);
+					}
+				}
+				else if (pixels instanceof short[]) {
+					final short[] p = (short[]) pixels;
+					for (int i = start; i < end; i++) {
+						target[i] = max(target[i], colors[grays[p[i] & 0xffff] & 0xff]);
+					}
+				}
+				else {
+					final float[] p = (float[]) pixels;
+					for (int i = start; i < end; i++) {
+						final int value = (int) ((p[i] - min) * scale + 0.5);
+						target[i] = max(target[i], colors[value < 0 ? 0 : value > 255
+							? 255 : value]);
+					}
+				}
+			}
+		}
+
+		/** Gets the maximum of two RGB values, channel by channel. */
+		private int max(final int a, final int b) {
+			return 0xff000000 | Math.max(a & 0xff0000, b & 0xff0000) | Math.max(
+				a & 0xff00, b & 0xff00) | Math.max(a & 0xff, b & 0xff);
+		}
+	}
+
+}
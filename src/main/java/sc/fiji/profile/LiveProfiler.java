@@ -0,0 +1,250 @@
+/*
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2015 Fiji
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package sc.fiji.profile;
+
+import ij.IJ;
+import ij.ImageListener;
+import ij.ImagePlus;
+import ij.gui.ImageCanvas;
+import ij.gui.Roi;
+import ij.gui.RoiListener;
+import ij.process.FloatPolygon;
+import ij.process.ImageProcessor;
+
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseMotionAdapter;
+import java.awt.event.MouseMotionListener;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Follows the profile of an image's ROI while the ROI is moved or edited.
+ * <p>
+ * Changes of the ROI, of the current slice and mouse drags on the image only
+ * request an update; the updates are coalesced, so that the profile is
+ * sampled at most once per frame (60 times per second by default), on a
+ * thread of its own, and always from the latest ROI.
+ * </p>
+ * <p>
+ * The profile is written into the same array every time, which is grown
+ * only if the profile gets longer. If the ROI was merely moved by whole
+ * pixels, the {@link ProfileSampler} of its previous profile is reused, so
+ * that only the pixels need to be read again.
+ * </p>
+ */
+public class LiveProfiler {
+
+	/** Receives the profiles; called on the profiler's thread. */
+	public interface Listener {
+
+		/**
+		 * Called with a new profile.
+		 *
+		 * @param profile the values of the profile, reused for the next profile
+		 *          (copy the array to keep it)
+		 * @param length the number of values, or 0 if the image has no
+		 *          {@link ProfilePath#isProfilable(Roi) profilable} ROI
+		 */
+		void profileChanged(float[] profile, int length);
+	}
+
+	private final ImagePlus image;
+	private final Listener listener;
+	private final AtomicBoolean pending = new AtomicBoolean();
+	private long frameNanos = TimeUnit.SECONDS.toNanos(1) / 60;
+
+	private ScheduledExecutorService executor;
+	private RoiListener roiListener;
+	private ImageListener imageListener;
+	private MouseMotionListener mouseListener;
+	private ImageCanvas canvas;
+
+	private volatile long lastUpdate;
+
+	/** The state of the profiler thread. */
+	private ProfileSampler sampler;
+	private int roiType, roiWidth;
+	private FloatPolygon roiPolygon;
+	private float[] profile = new float[0];
+
+	public LiveProfiler(final ImagePlus image, final Listener listener) {
+		this.image = image;
+		this.listener = listener;
+	}
+
+	/** Sets the maximal number of profiles per second. */
+	public LiveProfiler frameRate(final double framesPerSecond) {
+		if (!(framesPerSecond > 0)) {
+			throw new IllegalArgumentException("Invalid frame rate: " +
+				framesPerSecond);
+		}
+		frameNanos = (long) (TimeUnit.SECONDS.toNanos(1) / framesPerSecond);
+		return this;
+	}
+
+	/** Starts following the ROI, and requests the first profile. */
+	public synchronized void start() {
+		if (executor != null) return;
+		executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+			@Override
+			public Thread newThread(final Runnable r) {
+				final Thread thread = new Thread(r, "fiji-live-profiler");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		roiListener = new RoiListener() {
+
+			@Override
+			public void roiModified(final ImagePlus imp, final int id) {
+				if (imp == image) update();
+			}
+		};
+		Roi.addRoiListener(roiListener);
+		imageListener = new ImageListener() {
+
+			@Override
+			public void imageOpened(final ImagePlus imp) {
+				// NB: No action needed.
+			}
+
+			@Override
+			public void imageClosed(final ImagePlus imp) {
+				if (imp == image) stop();
+			}
+
+			@Override
+			public void imageUpdated(final ImagePlus imp) {
+				if (imp == image) update();
+			}
+		};
+		ImagePlus.addImageListener(imageListener);
+		// NB: Not all ImageJ versions report ROI changes while dragging.
+		canvas = image.getCanvas();
+		if (canvas != null) {
+			mouseListener = new MouseMotionAdapter() {
+
+				@Override
+				public void mouseDragged(final MouseEvent e) {
+					update();
+				}
+			};
+			canvas.addMouseMotionListener(mouseListener);
+		}
+		update();
+	}
+
+	/** Stops following the ROI. */
+	public synchronized void stop() {
+		if (executor == null) return;
+		Roi.removeRoiListener(roiListener);
+		ImagePlus.removeImageListener(imageListener);
+		if (canvas != null) canvas.removeMouseMotionListener(mouseListener);
+		executor.shutdown();
+		executor = null;
+		roiListener = null;
+		imageListener = null;
+		mouseListener = null;
+		canvas = null;
+	}
+
+	/**
+	 * Requests a new profile. It is sampled one frame after the previous one at
+	 * the earliest; further requests until then are coalesced.
+	 */
+	public synchronized void update() {
+		if (executor == null || !pending.compareAndSet(false, true)) return;
+		final long delay = Math.max(0, lastUpdate + frameNanos - System
+			.nanoTime());
+		executor.schedule(new Runnable() {
+
+			@Override
+			public void run() {
+				pending.set(false);
+				lastUpdate = System.nanoTime();
+				try {
+					profile();
+				}
+				catch (final RuntimeException e) {
+					// NB: The ROI may change while it is read; try with the next one.
+					if (IJ.debugMode) IJ.log("Live profile skipped: " + e);
+				}
+			}
+		}, delay, TimeUnit.NANOSECONDS);
+	}
+
+	// -- Helper methods --
+
+	/** Samples the current ROI's profile, and passes it to the listener. */
+	private void profile() {
+		final Roi roi = image.getRoi();
+		if (!ProfilePath.isProfilable(roi)) {
+			sampler = null;
+			listener.profileChanged(profile, 0);
+			return;
+		}
+		final FloatPolygon polygon = roi.getFloatPolygon();
+		final int width = ProfilePath.getWidth(roi);
+		int dx = 0, dy = 0;
+		if (sampler != null && roi.getType() == roiType && width == roiWidth &&
+			polygon.npoints == roiPolygon.npoints && polygon.npoints > 0)
+		{
+			dx = Math.round(polygon.xpoints[0] - roiPolygon.xpoints[0]);
+			dy = Math.round(polygon.ypoints[0] - roiPolygon.ypoints[0]);
+			if (!isTranslated(polygon, roiPolygon, dx, dy)) sampler = null;
+		}
+		else sampler = null;
+		if (sampler == null) {
+			sampler = new ProfileSampler(ProfilePath.of(roi), width);
+			roiType = roi.getType();
+			roiWidth = width;
+			roiPolygon = polygon;
+			dx = dy = 0;
+		}
+		final int length = sampler.getLength();
+		if (profile.length < length) profile = new float[length];
+		final ImageProcessor ip = image.getProcessor();
+		sampler.sample(ip, dx, dy, profile);
+		listener.profileChanged(profile, length);
+	}
+
+	/** Tells whether the polygon is the other one, moved by whole pixels. */
+	private static boolean isTranslated(final FloatPolygon polygon,
+		final FloatPolygon other, final int dx, final int dy)
+	{
+		for (int i = 0; i < polygon.npoints; i++) {
+			if (Math.abs(polygon.xpoints[i] - other.xpoints[i] - dx) > 1e-4 ||
+				Math.abs(polygon.ypoints[i] - other.ypoints[i] - dy) > 1e-4)
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
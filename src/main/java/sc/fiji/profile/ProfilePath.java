@@ -0,0 +1,242 @@
+/*
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2015 Fiji
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package sc.fiji.profile;
+
+import ij.gui.Line;
+import ij.gui.Roi;
+import ij.process.FloatPolygon;
+
+import java.awt.Rectangle;
+
+/**
+ * The sample positions of a line profile.
+ * <p>
+ * Like ImageJ's profiles, a path is sampled once per pixel of its length; in
+ * addition, each sample has the unit normal of the path there, along which
+ * wide profiles are averaged.
+ * </p>
+ */
+public class ProfilePath {
+
+	private final float[] x, y, normalX, normalY;
+	private final int length;
+
+	private ProfilePath(final float[] x, final float[] y, final float[] normalX,
+		final float[] normalY, final int length)
+	{
+		this.x = x;
+		this.y = y;
+		this.normalX = normalX;
+		this.normalY = normalY;
+		this.length = length;
+	}
+
+	/**
+	 * Samples the given polyline (or polygon) at unit distances.
+	 *
+	 * @param xs the x coordinates of the vertices
+	 * @param ys the y coordinates of the vertices
+	 * @param count the number of vertices
+	 * @param closed whether the last vertex connects back to the first one
+	 */
+	public static ProfilePath polyline(final float[] xs, final float[] ys,
+		final int count, final boolean closed)
+	{
+		if (count < 1) throw new IllegalArgumentException("No vertices");
+		final int segments = closed ? count : count - 1;
+		double total = 0;
+		for (int i = 0; i < segments; i++) {
+			final int j = (i + 1) % count;
+			total += Math.hypot(xs[j] - xs[i], ys[j] - ys[i]);
+		}
+		// NB: A closed path does not repeat its first sample at the end.
+		final int length = closed && total > 0 ? (int) Math.ceil(total) : (int) Math
+			.floor(total) + 1;
+		final float[] x = new float[length], y = new float[length];
+		final float[] normalX = new float[length], normalY = new float[length];
+
+		int n = 0;
+		double start = 0;
+		for (int i = 0; i < segments && n < length; i++) {
+			final int j = (i + 1) % count;
+			final double dx = xs[j] - xs[i], dy = ys[j] - ys[i];
+			final double segment = Math.hypot(dx, dy);
+			if (segment == 0) continue;
+			while (n < length && n <= start + segment) {
+				final double t = (n - start) / segment;
+				x[n] = (float) (xs[i] + t * dx);
+				y[n] = (float) (ys[i] + t * dy);
+				normalX[n] = (float) (-dy / segment);
+				normalY[n] = (float) (dx / segment);
+				n++;
+			}
+			start += segment;
+		}
+		// NB: Rounding may leave the last sample (or a single point) unset.
+		for (; n < length; n++) {
+			x[n] = closed ? xs[0] : xs[count - 1];
+			y[n] = closed ? ys[0] : ys[count - 1];
+			normalX[n] = n > 0 ? normalX[n - 1] : 0;
+			normalY[n] = n > 0 ? normalY[n - 1] : 1;
+		}
+		return new ProfilePath(x, y, normalX, normalY, length);
+	}
+
+	/**
+	 * Samples a Catmull-Rom spline through the given vertices at unit
+	 * distances. Unlike a polyline, the path is smooth at the vertices; a
+	 * closed spline is smooth where it closes, too.
+	 *
+	 * @param xs the x coordinates of the vertices
+	 * @param ys the y coordinates of the vertices
+	 * @param count the number of vertices
+	 * @param closed whether the last vertex connects back to the first one
+	 */
+	public static ProfilePath spline(final float[] xs, final float[] ys,
+		final int count, final boolean closed)
+	{
+		int n = count;
+		// NB: Closed polygons need not repeat their first vertex.
+		if (closed && n > 1 && xs[n - 1] == xs[0] && ys[n - 1] == ys[0]) n--;
+		if (n < 3) return polyline(xs, ys, n, closed);
+
+		// Evaluate the spline at least twice per pixel, then resample it.
+		final int segments = closed ? n : n - 1;
+		final int[] steps = new int[segments];
+		int total = closed ? 0 : 1;
+		for (int i = 0; i < segments; i++) {
+			final int j = (i + 1) % n;
+			steps[i] = Math.max(1, (int) Math.ceil(2 * Math.hypot(xs[j] - xs[i],
+				ys[j] - ys[i])));
+			total += steps[i];
+		}
+		final float[] x = new float[total], y = new float[total];
+		int k = 0;
+		for (int i = 0; i < segments; i++) {
+			final int i0 = vertex(i - 1, n, closed), i2 = vertex(i + 1, n, closed);
+			final int i3 = vertex(i + 2, n, closed);
+			for (int step = 0; step < steps[i]; step++) {
+				final float t = (float) step / steps[i];
+				x[k] = catmullRom(xs[i0], xs[i], xs[i2], xs[i3], t);
+				y[k] = catmullRom(ys[i0], ys[i], ys[i2], ys[i3], t);
+				k++;
+			}
+		}
+		if (!closed) {
+			x[k] = xs[n - 1];
+			y[k] = ys[n - 1];
+		}
+		return polyline(x, y, total, closed);
+	}
+
+	/**
+	 * Gets the path of the given ROI, as ImageJ's profile plot would sample it:
+	 * along lines, polylines and freelines, and along the columns of
+	 * rectangles.
+	 *
+	 * @return the path, or null if the ROI is not {@link #isProfilable(Roi)
+	 *         profilable}
+	 */
+	public static ProfilePath of(final Roi roi) {
+		if (!isProfilable(roi)) return null;
+		if (roi.getType() == Roi.RECTANGLE) {
+			final Rectangle bounds = roi.getBounds();
+			final float[] x = new float[bounds.width], y = new float[bounds.width];
+			final float[] normalX = new float[bounds.width];
+			final float[] normalY = new float[bounds.width];
+			for (int i = 0; i < bounds.width; i++) {
+				x[i] = bounds.x + i;
+				y[i] = bounds.y + (bounds.height - 1) / 2f;
+				normalY[i] = 1;
+			}
+			return new ProfilePath(x, y, normalX, normalY, bounds.width);
+		}
+		if (roi instanceof Line) {
+			final Line line = (Line) roi;
+			return polyline(new float[] { (float) line.x1d, (float) line.x2d },
+				new float[] { (float) line.y1d, (float) line.y2d }, 2, false);
+		}
+		final FloatPolygon polygon = roi.getFloatPolygon();
+		return polyline(polygon.xpoints, polygon.ypoints, polygon.npoints, false);
+	}
+
+	/**
+	 * Gets the width to average profiles of the given ROI over: the line width
+	 * of line ROIs, and the height of rectangles.
+	 */
+	public static int getWidth(final Roi roi) {
+		if (roi.getType() == Roi.RECTANGLE) return roi.getBounds().height;
+		return Math.max(1, Math.round(roi.getStrokeWidth()));
+	}
+
+	/**
+	 * Tells whether the ROI has a profile: lines, polylines, freelines and
+	 * rectangles do.
+	 */
+	public static boolean isProfilable(final Roi roi) {
+		if (roi == null) return false;
+		final int type = roi.getType();
+		return type == Roi.LINE || type == Roi.POLYLINE ||
+			type == Roi.FREELINE || type == Roi.RECTANGLE;
+	}
+
+	/** Gets the number of samples. */
+	public int getLength() {
+		return length;
+	}
+
+	public float getX(final int index) {
+		return x[index];
+	}
+
+	public float getY(final int index) {
+		return y[index];
+	}
+
+	public float getNormalX(final int index) {
+		return normalX[index];
+	}
+
+	public float getNormalY(final int index) {
+		return normalY[index];
+	}
+
+	// -- Helper methods --
+
+	/** Gets the index of a vertex, wrapping around or clamping at the ends. */
+	private static int vertex(final int index, final int count,
+		final boolean closed)
+	{
+		if (closed) return (index + count) % count;
+		return Math.max(0, Math.min(count - 1, index));
+	}
+
+	private static float catmullRom(final float p0, final float p1,
+		final float p2, final float p3, final float t)
+	{
+		return 0.5f * (2 * p1 + t * (p2 - p0 + t * (2 * p0 - 5 * p1 + 4 * p2 - p3 +
+			t * (3 * (p1 - p2) + p3 - p0))));
+	}
+
+}
@@ -0,0 +1,179 @@
+/*
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2015 Fiji
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package sc.fiji.profile;
+
+import ij.process.ImageProcessor;
+
+/**
+ * Samples the pixels along a {@link ProfilePath} by bilinear interpolation,
+ * averaging across the path if it is wider than one pixel.
+ * <p>
+ * The interpolation weights are computed once; sampling only reads the
+ * pixels, and writes the profile into a given array, so that a sampler can
+ * profile many images (e.g. the slices of a stack), or the same path shifted
+ * by whole pixels, without allocating anything.
+ * </p>
+ * <p>
+ * RGB pixels are sampled as the average of their channels. Samples outside
+ * the image are left out of the average; a profile value is {@code NaN} if
+ * all of its samples are outside.
+ * </p>
+ */
+public class ProfileSampler {
+
+	private final int length, width;
+
+	/** The pixel to the top left of each sample. */
+	private final int[] left, top;
+
+	/** The weights of the pixels to the right and to the bottom. */
+	private final float[] right, bottom;
+
+	/** Samples the given path, one pixel wide. */
+	public ProfileSampler(final ProfilePath path) {
+		this(path, 1);
+	}
+
+	/**
+	 * Samples the given path, averaging {@code width} samples one pixel apart
+	 * across it.
+	 */
+	public ProfileSampler(final ProfilePath path, final int width) {
+		if (width < 1) throw new IllegalArgumentException("Invalid width: " + width);
+		this.length = path.getLength();
+		this.width = width;
+		final int count = length * width;
+		left = new int[count];
+		top = new int[count];
+		right = new float[count];
+		bottom = new float[count];
+		for (int i = 0; i < length; i++) {
+			for (int j = 0; j < width; j++) {
+				final double offset = j - (width - 1) / 2.0;
+				final double x = path.getX(i) + offset * path.getNormalX(i);
+				final double y = path.getY(i) + offset * path.getNormalY(i);
+				final int k = i * width + j;
+				left[k] = (int) Math.floor(x);
+				top[k] = (int) Math.floor(y);
+				right[k] = (float) (x - left[k]);
+				bottom[k] = (float) (y - top[k]);
+			}
+		}
+	}
+
+	/** Gets the number of values of the profile. */
+	public int getLength() {
+		return length;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	/** Samples the given image into a new array. */
+	public float[] sample(final ImageProcessor ip) {
+		final float[] profile = new float[length];
+		sample(ip, 0, 0, profile);
+		return profile;
+	}
+
+	/**
+	 * Samples the given image along the path shifted by the given number of
+	 * pixels.
+	 *
+	 * @param profile the array to store the profile in; it must hold at least
+	 *          {@link #getLength()} values
+	 */
+	public void sample(final ImageProcessor ip, final int dx, final int dy,
+		final float[] profile)
+	{
+		sample(ip.getPixels(), ip.getWidth(), ip.getHeight(), dx, dy, profile);
+	}
+
+	/**
+	 * Samples the given pixels (of an 8-bit, 16-bit, 32-bit or RGB image) along
+	 * the path shifted by the given number of pixels.
+	 */
+	public void sample(final Object pixels, final int w, final int h,
+		final int dx, final int dy, final float[] profile)
+	{
+		if (profile.length < length) {
+			throw new IllegalArgumentException("Profile too short: " +
+				profile.length + " < " + length);
+		}
+		for (int i = 0; i < length; i++) {
+			double sum = 0;
+			int n = 0;
+			for (int k = i * width; k < (i + 1) * width; k++) {
+				final int x = left[k] + dx, y = top[k] + dy;
+				if (x < 0 || y < 0 || x >= w || y >= h) continue;
+				final int index = y * w + x;
+				// NB: Weights of neighbors beyond the edge are zero, or nearly so.
+				final int nextX = x + 1 < w ? 1 : 0, nextY = y + 1 < h ? w : 0;
+				final float fx = right[k], fy = bottom[k];
+				final float v00, v10, v01, v11;
+				if (pixels instanceof short[]) {
+					final short[] p = (short[]) pixels;
+					v00 = p[index] & 0xffff;
+					v10 = p[index + nextX] & 0xffff;
+					v01 = p[index + nextY] & 0xffff;
+					v11 = p[index + nextX + nextY] & 0xffff;
+				}
+				else if (pixels instanceof byte[]) {
+					final byte[] p = (byte[]) pixels;
+					v00 = p[index] & 0xff;
+					v10 = p[index + nextX] & 0xff;
+					v01 = p[index + nextY] & 0xff;
+					v11 = p[index + nextX + nextY] & 0xff;
+				}
+				else if (pixels instanceof float[]) {
+					final float[] p = (float[]) pixels;
+					v00 = p[index];
+					v10 = p[index + nextX];
+					v01 = p[index + nextY];
+					v11 = p[index + nextX + nextY];
+				}
+				else {
+					final int[] p = (int[]) pixels;
+					v00 = brightness(p[index]);
+					v10 = brightness(p[index + nextX]);
+					v01 = brightness(p[index + nextY]);
+					v11 = brightness(p[index + nextX + nextY]);
+				}
+				final float upper = v00 + fx * (v10 - v00);
+				final float lower = v01 + fx * (v11 - v01);
+				sum += upper + fy * (lower - upper);
+				n++;
+			}
+			profile[i] = n == 0 ? Float.NaN : (float) (sum / n);
+		}
+	}
+
+	// -- Helper methods --
+
+	private static float brightness(final int rgb) {
+		return (((rgb >> 16) & 0xff) + ((rgb >> 8) & 0xff) + (rgb & 0xff)) / 3f;
+	}
+
+}
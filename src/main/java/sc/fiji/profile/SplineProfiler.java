@@ -0,0 +1,182 @@
+/*
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2015 Fiji
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package sc.fiji.profile;
+
+import ij.ImagePlus;
+import ij.gui.Line;
+import ij.gui.Roi;
+import ij.process.FloatPolygon;
+
+import sc.fiji.parallel.ProgressListener;
+import sc.fiji.parallel.Region;
+import sc.fiji.parallel.RegionOp;
+import sc.fiji.parallel.Tiling;
+
+/**
+ * Samples the intensities along a spline through a ROI's vertices, in every
+ * plane of an image, e.g. to follow a cell membrane over time.
+ * <p>
+ * The spline is sampled once per pixel of its length (see
+ * {@link ProfilePath#spline}); a wide profile averages the samples across the
+ * spline. The planes are profiled in parallel by a {@link Tiling}, straight
+ * from their pixel arrays: no plots or images are created.
+ * </p>
+ */
+public class SplineProfiler {
+
+	private final ImagePlus image;
+	private float[] xs, ys;
+	private int count;
+	private boolean closed, spline = true;
+	private int width;
+	private int firstPlane, lastPlane;
+	private ProgressListener listener;
+	private ProfileSampler sampler;
+
+	/** Profiles the given image along its current ROI, if any. */
+	public SplineProfiler(final ImagePlus image) {
+		this.image = image;
+		firstPlane = 1;
+		lastPlane = image.getStackSize();
+		if (image.getRoi() != null) roi(image.getRoi());
+	}
+
+	/**
+	 * Profiles along the vertices of the given ROI; the spline is closed unless
+	 * the ROI is a line.
+	 */
+	public SplineProfiler roi(final Roi roi) {
+		if (roi instanceof Line) {
+			// NB: The polygon of a wide line is its outline, not its end points.
+			final Line line = (Line) roi;
+			return polygon(new float[] { (float) line.x1d, (float) line.x2d },
+				new float[] { (float) line.y1d, (float) line.y2d }, 2, false);
+		}
+		final FloatPolygon polygon = roi.getFloatPolygon();
+		return polygon(polygon.xpoints, polygon.ypoints, polygon.npoints, !roi
+			.isLine());
+	}
+
+	/** Profiles along the given vertices. */
+	public SplineProfiler polygon(final float[] x, final float[] y,
+		final int vertices, final boolean isClosed)
+	{
+		if (vertices < 1) throw new IllegalArgumentException("No vertices");
+		xs = x.clone();
+		ys = y.clone();
+		count = vertices;
+		closed = isClosed;
+		sampler = null;
+		return this;
+	}
+
+	/**
+	 * Sets whether to fit a spline through the vertices (the default), or to
+	 * connect them by straight lines.
+	 */
+	public SplineProfiler spline(final boolean fit) {
+		spline = fit;
+		sampler = null;
+		return this;
+	}
+
+	/**
+	 * Sets the number of samples, one pixel apart, to average across the
+	 * spline. By default, it is the line width of the image's ROI.
+	 */
+	public SplineProfiler width(final int samples) {
+		if (samples < 1) {
+			throw new IllegalArgumentException("Invalid width: " + samples);
+		}
+		width = samples;
+		sampler = null;
+		return this;
+	}
+
+	/** Restricts the {@link #run()} to the given (1-based) range of planes. */
+	public SplineProfiler planes(final int first, final int last) {
+		if (first < 1 || last > image.getStackSize() || first > last) {
+			throw new IllegalArgumentException("Invalid planes: " + first + "-" +
+				last);
+		}
+		firstPlane = first;
+		lastPlane = last;
+		return this;
+	}
+
+	public SplineProfiler progress(final ProgressListener progressListener) {
+		listener = progressListener;
+		return this;
+	}
+
+	/** Gets the sample positions along the spline. */
+	public ProfilePath getPath() {
+		if (xs == null) throw new IllegalStateException("No ROI to profile");
+		return spline ? ProfilePath.spline(xs, ys, count, closed) : ProfilePath
+			.polyline(xs, ys, count, closed);
+	}
+
+	/** Gets the profile of the given (1-based) plane. */
+	public float[] profile(final int plane) {
+		return getSampler().sample(image.getStack().getProcessor(plane));
+	}
+
+	/**
+	 * Gets the profiles of all planes (or of the {@link #planes(int, int)
+	 * given range}), in parallel.
+	 *
+	 * @return the profiles, indexed by plane (starting with the first plane to
+	 *         profile) and by position along the spline
+	 */
+	public float[][] run() {
+		final ProfileSampler s = getSampler();
+		final float[][] profiles = new float[lastPlane - firstPlane + 1][s
+			.getLength()];
+		final int w = image.getWidth(), h = image.getHeight();
+		final Tiling tiling = Tiling.planes(image).planes(firstPlane, lastPlane)
+			.readOnly();
+		if (listener != null) tiling.progress(listener);
+		tiling.run(new RegionOp() {
+
+			@Override
+			public void process(final Region region) {
+				s.sample(region.getPixels(), w, h, 0, 0, profiles[region.getPlane() -
+					firstPlane]);
+			}
+		});
+		return profiles;
+	}
+
+	// -- Helper methods --
+
+	private synchronized ProfileSampler getSampler() {
+		if (sampler == null) {
+			final int samples = width > 0 ? width : image.getRoi() != null ? Math
+				.max(1, Math.round(image.getRoi().getStrokeWidth())) : 1;
+			sampler = new ProfileSampler(getPath(), samples);
+		}
+		return sampler;
+	}
+
+}
@@ -0,0 +1,310 @@
+/*
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2015 Fiji
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package sc.fiji.script;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptException;
+
+/**
+ * A {@link ScriptEngine} which reuses the compiled form of the scripts it
+ * runs.
+ * <p>
+ * Jython scripts are compiled to bytecode once, which is kept in the
+ * {@link CompiledScriptCache}, on disk, too, if the script is a file. That
+ * code does not depend on the engine that compiled it, so every engine
+ * reuses it. Scripts for other {@link Compilable} engines are compiled, too,
+ * but the compiled form belongs to the engine and is only reused when the
+ * same engine runs the script again. Scripts for all other engines are
+ * simply evaluated.
+ * </p>
+ * <p>
+ * The engine remembers the state it started with, so that it can be
+ * {@link #reset()} and reused from the {@link ScriptEnginePool}.
+ * </p>
+ */
+class CachingScriptEngine implements ScriptEngine {
+
+	/** The number of compiled scripts each engine keeps. */
+	private static final int MAX_COMPILED = 16;
+
+	private final ScriptEngine engine;
+	private final CachingScriptLanguage language;
+	private final CompiledScriptCache cache;
+	private final JythonCompiler jython;
+
+	private final ScriptContext initialContext;
+	private final Map<String, Object> initialBindings;
+	private final Reader initialReader;
+	private final Writer initialWriter, initialErrorWriter;
+
+	private final Map<String, CompiledScript> compiledScripts =
+		new LinkedHashMap<String, CompiledScript>(16, 0.75f, true)
+		{
+
+			@Override
+			protected boolean removeEldestEntry(
+				final Map.Entry<String, CompiledScript> eldest)
+			{
+				return size() > MAX_COMPILED;
+			}
+		};
+
+	/**
+	 * @param engine the engine to run the scripts
+	 * @param language the language the engine was created for
+	 * @param cache the cache of compiled scripts
+	 */
+	CachingScriptEngine(final ScriptEngine engine,
+		final CachingScriptLanguage language, final CompiledScriptCache cache)
+	{
+		this.engine = engine;
+		this.language = language;
+		this.cache = cache;
+		jython = JythonCompiler.get(engine);
+
+		initialContext = engine.getContext();
+		initialReader = initialContext.getReader();
+		initialWriter = initialContext.getWriter();
+		initialErrorWriter = initialContext.getErrorWriter();
+		initialBindings = snapshot(initialContext.getBindings(
+			ScriptContext.ENGINE_SCOPE));
+	}
+
+	/** Gets the engine running the scripts. */
+	ScriptEngine getEngine() {
+		return engine;
+	}
+
+	/** Gets the language this engine was created for. */
+	CachingScriptLanguage getLanguage() {
+		return language;
+	}
+
+	/**
+	 * Restores the state this engine started with: removes the variables
+	 * scripts defined, restores the initial values of the others, and
+	 * restores the initial reader and writers.
+	 *
+	 * @return whether the engine could be reset, i.e. can be reused
+	 */
+	boolean reset() {
+		if (initialBindings == null) return false;
+		try {
+			if (engine.getContext() != initialContext) {
+				engine.setContext(initialContext);
+			}
+			final Bindings bindings =
+				initialContext.getBindings(ScriptContext.ENGINE_SCOPE);
+			for (final String key : new ArrayList<>(bindings.keySet())) {
+				if (!initialBindings.containsKey(key)) bindings.remove(key);
+			}
+			for (final Map.Entry<String, Object> entry : initialBindings
+				.entrySet())
+			{
+				if (bindings.get(entry.getKey()) != entry.getValue()) {
+					bindings.put(entry.getKey(), entry.getValue());
+				}
+			}
+			initialContext.setReader(initialReader);
+			initialContext.setWriter(initialWriter);
+			initialContext.setErrorWriter(initialErrorWriter);
+			return true;
+		}
+		catch (final RuntimeException e) {
+			return false;
+		}
+	}
+
+	// -- ScriptEngine methods --
+
+	@Override
+	public Object eval(final String script, final ScriptContext context)
+		throws ScriptException
+	{
+		// NB: Compiled scripts run in the engine's own context.
+		if (context != engine.getContext()) return engine.eval(script, context);
+		final Object fileName = engine.get(ScriptEngine.FILENAME);
+		final String name = fileName == null ? "<script>" : fileName.toString();
+		if (jython != null) return evalJython(script, name, context);
+		if (engine instanceof Compilable) return evalCompiled(script, name, context);
+		return engine.eval(script, context);
+	}
+
+	@Override
+	public Object eval(final Reader reader, final ScriptContext context)
+		throws ScriptException
+	{
+		return eval(read(reader), context);
+	}
+
+	@Override
+	public Object eval(final String script) throws ScriptException {
+		return eval(script, engine.getContext());
+	}
+
+	@Override
+	public Object eval(final Reader reader) throws ScriptException {
+		return eval(read(reader), engine.getContext());
+	}
+
+	@Override
+	public Object eval(final String script, final Bindings bindings)
+		throws ScriptException
+	{
+		return engine.eval(script, bindings);
+	}
+
+	@Override
+	public Object eval(final Reader reader, final Bindings bindings)
+		throws ScriptException
+	{
+		return engine.eval(reader, bindings);
+	}
+
+	@Override
+	public void put(final String key, final Object value) {
+		engine.put(key, value);
+	}
+
+	@Override
+	public Object get(final String key) {
+		return engine.get(key);
+	}
+
+	@Override
+	public Bindings getBindings(final int scope) {
+		return engine.getBindings(scope);
+	}
+
+	@Override
+	public void setBindings(final Bindings bindings, final int scope) {
+		engine.setBindings(bindings, scope);
+	}
+
+	@Override
+	public Bindings createBindings() {
+		return engine.createBindings();
+	}
+
+	@Override
+	public ScriptContext getContext() {
+		return engine.getContext();
+	}
+
+	@Override
+	public void setContext(final ScriptContext context) {
+		engine.setContext(context);
+	}
+
+	@Override
+	public ScriptEngineFactory getFactory() {
+		return engine.getFactory();
+	}
+
+	// -- Helper methods --
+
+	private Object evalJython(final String script, final String fileName,
+		final ScriptContext context) throws ScriptException
+	{
+		final String key = CompiledScriptCache.key(language.getEngineId(),
+			jython.getVersion(),
+			fileName, script);
+		Object code = cache.get(key);
+		if (code == null) {
+			// NB: Only scripts from files are worth keeping between launches.
+			final boolean persist = new File(fileName).isFile();
+			byte[] bytes = persist ? cache.read(key) : null;
+			if (bytes != null) code = jython.load(bytes, fileName);
+			if (code == null) {
+				bytes = jython.compile(script, fileName);
+				if (bytes != null) code = jython.load(bytes, fileName);
+				if (code == null) return engine.eval(script, context);
+				if (persist) cache.write(key, bytes);
+			}
+			cache.put(key, code, bytes.length);
+		}
+		return jython.exec(code, context);
+	}
+
+	private Object evalCompiled(final String script, final String fileName,
+		final ScriptContext context) throws ScriptException
+	{
+		final String key =
+			CompiledScriptCache.key(language.getEngineId(), fileName, script);
+		CompiledScript compiled;
+		synchronized (compiledScripts) {
+			compiled = compiledScripts.get(key);
+		}
+		if (compiled == null) {
+			compiled = ((Compilable) engine).compile(script);
+			synchronized (compiledScripts) {
+				compiledScripts.put(key, compiled);
+			}
+		}
+		return compiled.eval(context);
+	}
+
+	/** Copies the given bindings, or returns null if they cannot be read. */
+	private static Map<String, Object> snapshot(final Bindings bindings) {
+		if (bindings == null) return null;
+		try {
+			return new HashMap<>(bindings);
+		}
+		catch (final RuntimeException e) {
+			return null;
+		}
+	}
+
+	private static String read(final Reader reader) throws ScriptException {
+		final StringBuilder builder = new StringBuilder();
+		final char[] buffer = new char[16384];
+		try {
+			for (;;) {
+				final int count = reader.read(buffer);
+				if (count < 0) break;
+				builder.append(buffer, 0, count);
+			}
+			reader.close();
+		}
+		catch (final IOException e) {
+			throw new ScriptException(e);
+		}
+		return builder.toString();
+	}
+
+}
@@ -0,0 +1,188 @@
+/*
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2015 Fiji
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package sc.fiji.script;
+
+import java.util.List;
+
+import javax.script.ScriptEngine;
+
+import org.scijava.Context;
+import org.scijava.plugin.PluginInfo;
+import org.scijava.script.AbstractScriptLanguage;
+import org.scijava.script.ScriptLanguage;
+
+/**
+ * A {@link ScriptLanguage} whose script engines reuse the compiled form of
+ * the scripts they run, via the {@link CompiledScriptCache}, and are taken
+ * from the {@link ScriptEnginePool}.
+ * <p>
+ * Everything but the creation of script engines is delegated to the wrapped
+ * language.
+ * </p>
+ */
+class CachingScriptLanguage extends AbstractScriptLanguage {
+
+	private final ScriptLanguage language;
+	private final CompiledScriptCache cache;
+	private final ScriptEnginePool pool;
+	private String engineId;
+
+	CachingScriptLanguage(final ScriptLanguage language,
+		final CompiledScriptCache cache, final ScriptEnginePool pool)
+	{
+		this.language = language;
+		this.cache = cache;
+		this.pool = pool;
+	}
+
+	/** Gets the wrapped language. */
+	ScriptLanguage getLanguage() {
+		return language;
+	}
+
+	// -- ScriptLanguage methods --
+
+	@Override
+	public boolean isCompiledLanguage() {
+		return language.isCompiledLanguage();
+	}
+
+	@Override
+	public Object decode(final Object object) {
+		return language.decode(object);
+	}
+
+	// -- ScriptEngineFactory methods --
+
+	@Override
+	public ScriptEngine getScriptEngine() {
+		return pool.acquire(this);
+	}
+
+	@Override
+	public String getEngineName() {
+		return language.getEngineName();
+	}
+
+	@Override
+	public String getEngineVersion() {
+		return language.getEngineVersion();
+	}
+
+	@Override
+	public List<String> getExtensions() {
+		return language.getExtensions();
+	}
+
+	@Override
+	public List<String> getMimeTypes() {
+		return language.getMimeTypes();
+	}
+
+	@Override
+	public List<String> getNames() {
+		return language.getNames();
+	}
+
+	@Override
+	public String getLanguageName() {
+		return language.getLanguageName();
+	}
+
+	@Override
+	public String getLanguageVersion() {
+		return language.getLanguageVersion();
+	}
+
+	@Override
+	public Object getParameter(final String key) {
+		return language.getParameter(key);
+	}
+
+	@Override
+	public String getMethodCallSyntax(final String obj, final String m,
+		final String... args)
+	{
+		return language.getMethodCallSyntax(obj, m, args);
+	}
+
+	@Override
+	public String getOutputStatement(final String toDisplay) {
+		return language.getOutputStatement(toDisplay);
+	}
+
+	@Override
+	public String getProgram(final String... statements) {
+		return language.getProgram(statements);
+	}
+
+	// -- RichPlugin methods --
+
+	@Override
+	public PluginInfo<?> getInfo() {
+		return language.getInfo();
+	}
+
+	@Override
+	public double getPriority() {
+		return language.getPriority();
+	}
+
+	// -- Contextual methods --
+
+	@Override
+	public Context context() {
+		return language.context();
+	}
+
+	@Override
+	public Context getContext() {
+		return language.getContext();
+	}
+
+	// -- Object methods --
+
+	@Override
+	public String toString() {
+		return language.toString();
+	}
+
+	// -- Internal methods --
+
+	/** Creates a new engine, bypassing the pool. */
+	CachingScriptEngine createEngine() {
+		return new CachingScriptEngine(language.getScriptEngine(), this, cache);
+	}
+
+	/** Gets the name and version of the engine, for the cache keys. */
+	synchronized String getEngineId() {
+		if (engineId == null) {
+			engineId = language.getClass().getName() + " " +
+				language.getEngineName() + " " + language.getEngineVersion() + " " +
+				language.getLanguageVersion();
+		}
+		return engineId;
+	}
+
+}
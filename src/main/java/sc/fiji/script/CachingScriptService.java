@@ -0,0 +1,199 @@
+/*
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2015 Fiji
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package sc.fiji.script;
+
+import java.awt.GraphicsEnvironment;
+import java.io.File;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.script.ScriptEngine;
+
+import org.scijava.Priority;
+import org.scijava.module.ModuleService;
+import org.scijava.object.LazyObjects;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+import org.scijava.script.DefaultScriptService;
+import org.scijava.script.ScriptInfo;
+import org.scijava.script.ScriptLanguage;
+import org.scijava.script.ScriptService;
+import org.scijava.service.Service;
+
+import sc.fiji.memory.MemoryBudgetService;
+import sc.fiji.startup.StartupCache;
+
+/**
+ * A {@link ScriptService} which remembers the scripts found in the script
+ * directories (such as {@code plugins/Scripts/}) between launches.
+ * <p>
+ * As long as no script directory changed, the scripts and their menu paths
+ * are read from the {@link ScriptMenuCache} instead of scanning the
+ * directories. When the UI is shown, a {@link ScriptDirectoryWatcher} picks
+ * up scripts added or removed while Fiji runs.
+ * </p>
+ * <p>
+ * Scripts run as modules reuse their compiled form from the
+ * {@link CompiledScriptCache} (see {@link CompiledScriptPreprocessor}), and
+ * run on warm engines from the {@link ScriptEnginePool}, to which they are
+ * returned afterwards (see {@link ScriptEnginePostprocessor}).
+ * </p>
+ */
+@Plugin(type = Service.class, priority = Priority.HIGH_PRIORITY)
+public class CachingScriptService extends DefaultScriptService {
+
+	@Parameter
+	private ModuleService moduleService;
+
+	private List<ScriptInfo> scripts;
+
+	private ScriptDirectoryWatcher watcher;
+
+	private CompiledScriptCache compiledScripts;
+
+	private final ScriptEnginePool enginePool = new ScriptEnginePool();
+
+	private final Map<ScriptLanguage, ScriptLanguage> cachingLanguages =
+		new HashMap<>();
+
+	/**
+	 * Registers the instances of the script languages, and the scripts, as
+	 * {@link DefaultScriptService#initialize()} does. The scripts, however,
+	 * come from {@link #getScripts()}, i.e. from the {@link ScriptMenuCache},
+	 * so that the script directories are not scanned as long as the cache is
+	 * up-to-date.
+	 */
+	@Override
+	public void initialize() {
+		// NB: Do not call super.initialize(); it would register a full scan.
+		objectService().getIndex().addLater(new LazyObjects<ScriptLanguage>() {
+
+			@Override
+			public Collection<ScriptLanguage> get() {
+				return getInstances();
+			}
+		});
+		moduleService.getIndex().addLater(new LazyObjects<ScriptInfo>() {
+
+			@Override
+			public Collection<ScriptInfo> get() {
+				return getScripts();
+			}
+		});
+	}
+
+	@Override
+	public synchronized Collection<ScriptInfo> getScripts() {
+		if (scripts != null) return scripts;
+		final ScriptMenuCache cache =
+			new ScriptMenuCache(getContext(), getScriptDirectories());
+		final List<ScriptInfo> cached = cache.read();
+		if (cached != null) scripts = new CopyOnWriteArrayList<>(cached);
+		else {
+			scripts = new CopyOnWriteArrayList<>(super.getScripts());
+			cache.write(scripts);
+		}
+		startWatcher();
+		return scripts;
+	}
+
+	/**
+	 * Gets a language whose script engines reuse the compiled form of the
+	 * scripts they run, and come from the engine pool, or the given language
+	 * itself if the startup caches are disabled.
+	 */
+	public synchronized ScriptLanguage getCachingLanguage(
+		final ScriptLanguage language)
+	{
+		if (language == null || language instanceof CachingScriptLanguage ||
+			!StartupCache.isEnabled())
+		{
+			return language;
+		}
+		ScriptLanguage cachingLanguage = cachingLanguages.get(language);
+		if (cachingLanguage == null) {
+			if (compiledScripts == null) {
+				compiledScripts = new CompiledScriptCache(CompiledScriptCache
+					.getDefaultDirectory(), getContext().getService(
+						MemoryBudgetService.class));
+			}
+			cachingLanguage =
+				new CachingScriptLanguage(language, compiledScripts, enginePool);
+			cachingLanguages.put(language, cachingLanguage);
+		}
+		return cachingLanguage;
+	}
+
+	/** Gets the pool of idle script engines. */
+	public ScriptEnginePool getEnginePool() {
+		return enginePool;
+	}
+
+	/**
+	 * Fills the engine pool with started engines of the given language, so
+	 * that the first scripts need not wait for the engines to start.
+	 */
+	public void warmUp(final ScriptLanguage language) {
+		final ScriptLanguage cachingLanguage = getCachingLanguage(language);
+		if (cachingLanguage instanceof CachingScriptLanguage) {
+			enginePool.warmUp((CachingScriptLanguage) cachingLanguage);
+		}
+		else language.getScriptEngine();
+	}
+
+	/**
+	 * Returns the given engine to the pool, if it came from there. The engine
+	 * must not be used any more by the caller.
+	 */
+	public void release(final ScriptEngine engine) {
+		if (engine instanceof CachingScriptEngine) {
+			enginePool.release((CachingScriptEngine) engine);
+		}
+	}
+
+	@Override
+	public void dispose() {
+		if (watcher != null) watcher.close();
+		enginePool.dispose();
+		synchronized (this) {
+			if (compiledScripts != null) compiledScripts.dispose();
+		}
+		super.dispose();
+	}
+
+	// -- Helper methods --
+
+	private void startWatcher() {
+		if (GraphicsEnvironment.isHeadless()) return;
+		watcher = new ScriptDirectoryWatcher(this, scripts);
+		for (final File dir : getScriptDirectories()) {
+			watcher.watch(dir, getMenuPrefix(dir));
+		}
+		watcher.start();
+	}
+
+}
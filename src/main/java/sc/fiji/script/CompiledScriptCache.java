@@ -0,0 +1,152 @@
+/*
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2015 Fiji
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package sc.fiji.script;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import sc.fiji.memory.LruCache;
+import sc.fiji.memory.MemoryBudgetService;
+import sc.fiji.startup.StartupCache;
+
+/**
+ * Remembers the compiled form of scripts, so that running the same script
+ * again need not parse and compile it again.
+ * <p>
+ * Entries are keyed by a hash of everything the compiled form depends on
+ * (see {@link #key(String...)}): the script's contents, its file name, and
+ * the name and version of the script engine. Hence an entry is simply never
+ * used again once the script or the engine changed.
+ * </p>
+ * <p>
+ * Compiled forms are kept in memory, in a cache accounted for by the
+ * {@link MemoryBudgetService}. The bytecode of compiled forms can also be
+ * stored on disk, to be reused by later launches; entries which have not
+ * been used for a month are deleted.
+ * </p>
+ */
+public class CompiledScriptCache {
+
+	/** Entries on disk which have not been used for this long are deleted. */
+	private static final long MAX_AGE = 30L * 24 * 60 * 60 * 1000;
+
+	private final File dir;
+	private final LruCache<String, Object> compiled;
+	private final AtomicBoolean pruned = new AtomicBoolean();
+
+	/**
+	 * @param dir the directory to store bytecode in, or null to keep compiled
+	 *          forms in memory only
+	 * @param budgetService the service accounting for the memory cache, or
+	 *          null
+	 */
+	public CompiledScriptCache(final File dir,
+		final MemoryBudgetService budgetService)
+	{
+		this.dir = dir;
+		compiled = new LruCache<>("compiled scripts", budgetService);
+	}
+
+	/** Gets the directory in the startup cache directory to use by default. */
+	public static File getDefaultDirectory() {
+		return new File(StartupCache.getDirectory(), "scripts");
+	}
+
+	/** Computes the key of the compiled form depending on the given parts. */
+	public static String key(final String... parts) {
+		final StringBuilder builder = new StringBuilder();
+		for (final String part : parts) {
+			builder.append(part).append('\0');
+		}
+		return StartupCache.hash(builder.toString());
+	}
+
+	/** Gets the compiled form with the given key, or null. */
+	public Object get(final String key) {
+		return compiled.get(key);
+	}
+
+	/**
+	 * Keeps the given compiled form in memory.
+	 *
+	 * @param bytes the (estimated) number of bytes the compiled form holds
+	 */
+	public void put(final String key, final Object value, final long bytes) {
+		compiled.put(key, value, bytes);
+	}
+
+	/** Reads the bytecode stored with the given key, or returns null. */
+	public byte[] read(final String key) {
+		if (dir == null) return null;
+		final File file = getFile(key);
+		if (!file.isFile()) return null;
+		try {
+			final byte[] bytes = Files.readAllBytes(file.toPath());
+			// NB: Mark the entry as used, so that it is not pruned.
+			file.setLastModified(System.currentTimeMillis());
+			return bytes;
+		}
+		catch (final IOException e) {
+			return null;
+		}
+	}
+
+	/** Stores the given bytecode with the given key. */
+	public void write(final String key, final byte[] bytes) {
+		if (dir == null) return;
+		try {
+			StartupCache.write(getFile(key), bytes, null);
+		}
+		catch (final IOException e) {
+			System.err.println("[WARNING] Could not cache compiled script: " + e);
+		}
+		if (pruned.compareAndSet(false, true)) prune();
+	}
+
+	/** Empties the memory cache. */
+	public void dispose() {
+		compiled.dispose();
+	}
+
+	// -- Helper methods --
+
+	private File getFile(final String key) {
+		return new File(dir, key + ".class");
+	}
+
+	/** Deletes the entries on disk which have not been used for long. */
+	private void prune() {
+		final File[] list = dir.listFiles();
+		if (list == null) return;
+		final long oldest = System.currentTimeMillis() - MAX_AGE;
+		for (final File file : list) {
+			if (file.getName().endsWith(".class") && file.lastModified() < oldest) {
+				file.delete();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,67 @@
+/*
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2015 Fiji
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package sc.fiji.script;
+
+import org.scijava.Priority;
+import org.scijava.module.Module;
+import org.scijava.module.process.AbstractPreprocessorPlugin;
+import org.scijava.module.process.PreprocessorPlugin;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+import org.scijava.script.ScriptLanguage;
+import org.scijava.script.ScriptModule;
+import org.scijava.script.ScriptService;
+
+/**
+ * Makes script modules reuse the compiled form of their script.
+ * <p>
+ * This preprocessor runs first, before anything asks the module for its
+ * script engine, and switches the module to the
+ * {@link CachingScriptService#getCachingLanguage caching variant} of its
+ * language.
+ * </p>
+ */
+@Plugin(type = PreprocessorPlugin.class, priority = Priority.FIRST_PRIORITY)
+public class CompiledScriptPreprocessor extends AbstractPreprocessorPlugin {
+
+	@Parameter(required = false)
+	private ScriptService scriptService;
+
+	// -- ModuleProcessor methods --
+
+	@Override
+	public void process(final Module module) {
+		if (!(module instanceof ScriptModule) ||
+			!(scriptService instanceof CachingScriptService))
+		{
+			return;
+		}
+		final ScriptModule scriptModule = (ScriptModule) module;
+		final ScriptLanguage language = scriptModule.getInfo().getLanguage();
+		if (language == null) return;
+		scriptModule.setLanguage(((CachingScriptService) scriptService)
+			.getCachingLanguage(language));
+	}
+
+}
@@ -0,0 +1,201 @@
+/*
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2015 Fiji
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package sc.fiji.script;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.security.CodeSource;
+import java.util.Collections;
+
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+
+import sc.fiji.startup.StartupCache;
+
+/**
+ * Compiles Jython scripts to {@code $py.class} bytecode, and runs the
+ * compiled code in the interpreter of a script engine.
+ * <p>
+ * Jython is not a dependency of Fiji itself, hence its API is accessed via
+ * reflection. Both Jython's own script engine and SciJava's wrap a
+ * {@code PythonInterpreter}; the compiled code is run in that interpreter,
+ * just like the engine would run the code it compiled itself.
+ * </p>
+ */
+final class JythonCompiler {
+
+	private static final String INTERPRETER_CLASS =
+		"org.python.util.PythonInterpreter";
+
+	/** The name of the compiled module; the class is named after it. */
+	private static final String MODULE_NAME = "__main__";
+
+	private final Object interpreter;
+	private final Method compileSource, makeCode;
+	private final Method exec, setIn, setOut, setErr;
+	private final String version;
+
+	private JythonCompiler(final Object interpreter,
+		final Class<?> interpreterClass) throws ReflectiveOperationException
+	{
+		this.interpreter = interpreter;
+		final ClassLoader loader = interpreterClass.getClassLoader();
+		final Class<?> imp = Class.forName("org.python.core.imp", false, loader);
+		final Class<?> pyObject =
+			Class.forName("org.python.core.PyObject", false, loader);
+		compileSource = imp.getMethod("compileSource", String.class,
+			InputStream.class, String.class);
+		makeCode = Class.forName("org.python.core.BytecodeLoader", false, loader)
+			.getMethod("makeCode", String.class, byte[].class, String.class);
+		exec = interpreterClass.getMethod("exec", pyObject);
+		setIn = interpreterClass.getMethod("setIn", Reader.class);
+		setOut = interpreterClass.getMethod("setOut", Writer.class);
+		setErr = interpreterClass.getMethod("setErr", Writer.class);
+		version = getVersion(imp);
+	}
+
+	/**
+	 * Gets a compiler for the given script engine, or null if it is not a
+	 * Jython engine.
+	 */
+	static JythonCompiler get(final ScriptEngine engine) {
+		for (Class<?> c = engine.getClass(); c != null; c = c.getSuperclass()) {
+			for (final Field field : c.getDeclaredFields()) {
+				final Class<?> interpreterClass = getInterpreterClass(field.getType());
+				if (interpreterClass == null) continue;
+				try {
+					field.setAccessible(true);
+					final Object interpreter = field.get(engine);
+					if (interpreter == null) return null;
+					return new JythonCompiler(interpreter, interpreterClass);
+				}
+				catch (final ReflectiveOperationException | RuntimeException e) {
+					return null;
+				}
+			}
+		}
+		return null;
+	}
+
+	/** Gets the version of the Jython runtime, as a fingerprint of its jar. */
+	String getVersion() {
+		return version;
+	}
+
+	/**
+	 * Compiles the given script to bytecode.
+	 *
+	 * @return the bytecode, or null if the script cannot be compiled
+	 */
+	byte[] compile(final String source, final String fileName) {
+		// NB: Jython decodes scripts without an encoding declaration as ASCII,
+		// unlike scripts passed as strings; leave the others to the engine.
+		for (int i = 0; i < source.length(); i++) {
+			if (source.charAt(i) > 0x7f) return null;
+		}
+		try {
+			return (byte[]) compileSource.invoke(null, MODULE_NAME,
+				new ByteArrayInputStream(source.getBytes(StandardCharsets.US_ASCII)),
+				fileName);
+		}
+		catch (final ReflectiveOperationException e) {
+			// NB: Syntax errors are reported when the engine runs the script.
+			return null;
+		}
+	}
+
+	/**
+	 * Loads the compiled code from the given bytecode.
+	 *
+	 * @return the code, or null if the bytecode cannot be loaded
+	 */
+	Object load(final byte[] bytes, final String fileName) {
+		try {
+			return makeCode.invoke(null, MODULE_NAME + "$py", bytes, fileName);
+		}
+		catch (final ReflectiveOperationException | LinkageError e) {
+			return null;
+		}
+	}
+
+	/** Runs the given compiled code in the engine's interpreter. */
+	Object exec(final Object code, final ScriptContext context)
+		throws ScriptException
+	{
+		try {
+			if (context.getReader() != null) {
+				setIn.invoke(interpreter, context.getReader());
+			}
+			if (context.getWriter() != null) {
+				setOut.invoke(interpreter, context.getWriter());
+			}
+			if (context.getErrorWriter() != null) {
+				setErr.invoke(interpreter, context.getErrorWriter());
+			}
+			exec.invoke(interpreter, code);
+			return null;
+		}
+		catch (final InvocationTargetException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof Error) throw (Error) cause;
+			final ScriptException exception = new ScriptException(cause.toString());
+			exception.initCause(cause);
+			throw exception;
+		}
+		catch (final IllegalAccessException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	// -- Helper methods --
+
+	private static Class<?> getInterpreterClass(final Class<?> type) {
+		for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+			if (c.getName().equals(INTERPRETER_CLASS)) return c;
+		}
+		return null;
+	}
+
+	private static String getVersion(final Class<?> c) {
+		final CodeSource source = c.getProtectionDomain().getCodeSource();
+		if (source == null || source.getLocation() == null) return "unknown";
+		try {
+			return StartupCache.fingerprint(Collections.singletonList(new File(
+				source.getLocation().toURI())));
+		}
+		catch (final URISyntaxException | IllegalArgumentException e) {
+			return source.getLocation().toString();
+		}
+	}
+
+}
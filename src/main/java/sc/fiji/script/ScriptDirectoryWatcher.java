@@ -0,0 +1,267 @@
+/*
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2015 Fiji
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package sc.fiji.script;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.scijava.MenuEntry;
+import org.scijava.MenuPath;
+import org.scijava.module.ModuleInfo;
+import org.scijava.module.ModuleService;
+import org.scijava.script.ScriptInfo;
+import org.scijava.script.ScriptService;
+
+/**
+ * Watches the script directories, and updates the scripts of the
+ * {@link ScriptService} when scripts are added or removed.
+ * <p>
+ * Only the directory in which something changed is rescanned, and the
+ * {@link ScriptMenuCache} is updated afterwards, so that the next launch
+ * need not rescan anything either.
+ * </p>
+ */
+public class ScriptDirectoryWatcher implements Runnable {
+
+	private static final String SCRIPT_ICON = "/icons/script_code.png";
+
+	private final ScriptService scriptService;
+	private final List<ScriptInfo> scripts;
+	private final WatchService watchService;
+	private final Map<WatchKey, Directory> directories = new HashMap<>();
+	private final List<File> roots = new ArrayList<>();
+	private Thread thread;
+
+	/**
+	 * @param scriptService the service the scripts belong to
+	 * @param scripts the (thread-safe) list of scripts to keep up-to-date
+	 */
+	public ScriptDirectoryWatcher(final ScriptService scriptService,
+		final List<ScriptInfo> scripts)
+	{
+		this.scriptService = scriptService;
+		this.scripts = scripts;
+		WatchService service = null;
+		try {
+			service = FileSystems.getDefault().newWatchService();
+		}
+		catch (final IOException e) {
+			System.err.println("[WARNING] Cannot watch script directories: " + e);
+		}
+		watchService = service;
+	}
+
+	/** Watches the given directory and its subdirectories. */
+	public synchronized void watch(final File root, final MenuPath prefix) {
+		if (watchService == null) return;
+		roots.add(root);
+		final List<File> dirs = new ArrayList<>();
+		ScriptMenuCache.listDirectories(root, dirs);
+		for (final File dir : dirs) {
+			register(new Directory(dir, root, prefix));
+		}
+	}
+
+	public synchronized void start() {
+		if (watchService == null || thread != null) return;
+		thread = new Thread(this, "script-directory-watcher");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public void close() {
+		if (watchService == null) return;
+		try {
+			watchService.close();
+		}
+		catch (final IOException e) {
+			// NB: Nothing left to do.
+		}
+	}
+
+	@Override
+	public void run() {
+		for (;;) {
+			final WatchKey key;
+			try {
+				key = watchService.take();
+			}
+			catch (final InterruptedException | ClosedWatchServiceException e) {
+				return;
+			}
+			// NB: The events only tell us that the directory changed; rescan it.
+			key.pollEvents();
+			final Directory directory;
+			synchronized (this) {
+				directory = directories.get(key);
+			}
+			if (directory != null) rescan(directory);
+			if (!key.reset()) {
+				synchronized (this) {
+					directories.remove(key);
+				}
+			}
+		}
+	}
+
+	// -- Helper methods --
+
+	private void register(final Directory directory) {
+		try {
+			directories.put(directory.dir.toPath().register(watchService,
+				ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), directory);
+		}
+		catch (final IOException e) {
+			System.err.println("[WARNING] Cannot watch " + directory.dir + ": " + e);
+		}
+	}
+
+	/** Updates the scripts of the given directory. */
+	private void rescan(final Directory directory) {
+		final Set<String> known = new HashSet<>();
+		final List<ScriptInfo> removed = new ArrayList<>();
+		for (final ScriptInfo info : scripts) {
+			if (info.getURL() != null && !"file".equals(info.getURL()
+				.getProtocol())) continue;
+			final File file = new File(info.getPath());
+			if (!directory.dir.equals(file.getParentFile())) continue;
+			if (file.exists()) known.add(file.getName());
+			else removed.add(info);
+		}
+
+		final List<ScriptInfo> added = new ArrayList<>();
+		final File[] list = directory.dir.listFiles();
+		if (list != null) {
+			for (final File file : list) {
+				if (file.isDirectory()) {
+					final Directory subdirectory =
+						new Directory(file, directory.root, directory.prefix);
+					final boolean isNew;
+					synchronized (this) {
+						isNew = !directories.containsValue(subdirectory);
+						if (isNew) register(subdirectory);
+					}
+					if (isNew) rescan(subdirectory);
+				}
+				else if (!known.contains(file.getName()) && scriptService
+					.canHandleFile(file))
+				{
+					added.add(createInfo(file, directory));
+				}
+			}
+		}
+		if (added.isEmpty() && removed.isEmpty()) return;
+
+		scripts.removeAll(removed);
+		scripts.addAll(added);
+		final ModuleService moduleService =
+			scriptService.context().service(ModuleService.class);
+		moduleService.removeModules(getRegistered(moduleService, removed));
+		moduleService.addModules(added);
+		synchronized (this) {
+			new ScriptMenuCache(scriptService.context(), roots).write(scripts);
+		}
+	}
+
+	/**
+	 * Gets the scripts of the module index which have the same paths as the
+	 * given ones; they need not be the same objects.
+	 */
+	private static List<ModuleInfo> getRegistered(
+		final ModuleService moduleService, final List<ScriptInfo> scripts)
+	{
+		final Set<String> paths = new HashSet<>();
+		for (final ScriptInfo info : scripts) {
+			paths.add(info.getPath());
+		}
+		final List<ModuleInfo> registered = new ArrayList<>();
+		for (final ModuleInfo info : moduleService.getModules()) {
+			if (info instanceof ScriptInfo && paths.contains(((ScriptInfo) info)
+				.getPath()))
+			{
+				registered.add(info);
+			}
+		}
+		return registered;
+	}
+
+	/** Creates a script with the menu path the script directory implies. */
+	private ScriptInfo createInfo(final File file, final Directory directory) {
+		final ScriptInfo info =
+			new ScriptInfo(scriptService.context(), file.getPath());
+		final MenuPath menuPath = directory.prefix == null ? new MenuPath()
+			: new MenuPath(directory.prefix);
+		final String relative = directory.root.toURI().relativize(file
+			.getParentFile().toURI()).getPath();
+		for (final String name : relative.split("/")) {
+			if (!name.isEmpty()) menuPath.add(new MenuEntry(name.replace('_', ' ')));
+		}
+		final String name = file.getName();
+		final MenuEntry leaf = new MenuEntry(name.substring(0, name.lastIndexOf(
+			'.')).replace('_', ' '));
+		leaf.setIconPath(SCRIPT_ICON);
+		menuPath.add(leaf);
+		info.setMenuPath(menuPath);
+		return info;
+	}
+
+	// -- Helper classes --
+
+	private static class Directory {
+
+		private final File dir, root;
+		private final MenuPath prefix;
+
+		private Directory(final File dir, final File root, final MenuPath prefix) {
+			this.dir = dir;
+			this.root = root;
+			this.prefix = prefix;
+		}
+
+		@Override
+		public boolean equals(final Object o) {
+			return o instanceof Directory && dir.equals(((Directory) o).dir);
+		}
+
+		@Override
+		public int hashCode() {
+			return dir.hashCode();
+		}
+	}
+
+}
@@ -0,0 +1,203 @@
+/*
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2015 Fiji
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package sc.fiji.script;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps idle script engines, per language, so that running scripts again
+ * need not start a new runtime (such as a Jython interpreter) every time.
+ * <p>
+ * An engine is {@link CachingScriptEngine#reset() reset} when it is
+ * released to the pool: the variables a script defined are removed, and
+ * the variables the engine started with are restored. The runtime itself
+ * stays warm, though, e.g. Jython keeps the modules scripts imported.
+ * </p>
+ * <p>
+ * At most {@value #SIZE_PROPERTY} engines are kept per language (by
+ * default, one per processor), and engines which were idle for longer than
+ * {@value #IDLE_PROPERTY} seconds (by default, five minutes) are dropped.
+ * A size of 0 disables the pool.
+ * </p>
+ */
+public class ScriptEnginePool {
+
+	/** System property setting the number of idle engines per language. */
+	public static final String SIZE_PROPERTY = "fiji.script.pool.size";
+
+	/** System property setting the seconds after which idle engines go. */
+	public static final String IDLE_PROPERTY = "fiji.script.pool.idle";
+
+	private final int size;
+	private final long maxIdleMillis;
+
+	private final Map<CachingScriptLanguage, Deque<Idle>> pools =
+		new HashMap<>();
+
+	private ScheduledExecutorService evictor;
+
+	/** Creates a pool configured by the system properties. */
+	public ScriptEnginePool() {
+		this(Integer.getInteger(SIZE_PROPERTY, Runtime.getRuntime()
+			.availableProcessors()), 1000 * Long.getLong(IDLE_PROPERTY, 300));
+	}
+
+	/**
+	 * @param size the number of idle engines to keep per language
+	 * @param maxIdleMillis the milliseconds after which idle engines are
+	 *          dropped
+	 */
+	public ScriptEnginePool(final int size, final long maxIdleMillis) {
+		this.size = size;
+		this.maxIdleMillis = maxIdleMillis;
+	}
+
+	/** Gets the number of idle engines kept per language. */
+	public int getSize() {
+		return size;
+	}
+
+	/** Gets the number of engines of the given language in the pool. */
+	synchronized int getIdleCount(final CachingScriptLanguage language) {
+		final Deque<Idle> pool = pools.get(language);
+		return pool == null ? 0 : pool.size();
+	}
+
+	/**
+	 * Takes an idle engine of the given language from the pool, or creates a
+	 * new one if there is none.
+	 */
+	CachingScriptEngine acquire(final CachingScriptLanguage language) {
+		synchronized (this) {
+			final Deque<Idle> pool = pools.get(language);
+			// NB: The most recently used engine is the warmest one.
+			if (pool != null && !pool.isEmpty()) return pool.pop().engine;
+		}
+		return language.createEngine();
+	}
+
+	/**
+	 * Resets the given engine and puts it back into the pool, unless the
+	 * pool is full.
+	 *
+	 * @return whether the engine was put into the pool; engines which cannot
+	 *         be reset are not
+	 */
+	boolean release(final CachingScriptEngine engine) {
+		if (size <= 0 || !engine.reset()) return false;
+		synchronized (this) {
+			Deque<Idle> pool = pools.get(engine.getLanguage());
+			if (pool == null) {
+				pool = new ArrayDeque<>();
+				pools.put(engine.getLanguage(), pool);
+			}
+			if (pool.size() >= size) return false;
+			pool.push(new Idle(engine));
+			startEvictor();
+			return true;
+		}
+	}
+
+	/**
+	 * Fills the pool with new engines of the given language, e.g. so that they
+	 * are started before the first script runs.
+	 */
+	void warmUp(final CachingScriptLanguage language) {
+		// NB: Give up on languages whose engines are never pooled.
+		for (int i = 0; i < size && getIdleCount(language) < size; i++) {
+			if (!release(language.createEngine())) break;
+		}
+	}
+
+	/** Drops all idle engines. */
+	public synchronized void clear() {
+		pools.clear();
+	}
+
+	/** Drops all idle engines, and stops evicting. */
+	public synchronized void dispose() {
+		clear();
+		if (evictor != null) evictor.shutdownNow();
+		evictor = null;
+	}
+
+	// -- Helper methods --
+
+	private void startEvictor() {
+		if (evictor != null || maxIdleMillis <= 0) return;
+		evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+			@Override
+			public Thread newThread(final Runnable r) {
+				final Thread thread = new Thread(r, "fiji-script-engine-pool");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		final long period = Math.max(1000, maxIdleMillis / 4);
+		evictor.scheduleWithFixedDelay(new Runnable() {
+
+			@Override
+			public void run() {
+				evict();
+			}
+		}, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	/** Drops the engines which were idle for too long. */
+	private synchronized void evict() {
+		final long oldest = System.currentTimeMillis() - maxIdleMillis;
+		for (final Iterator<Deque<Idle>> iterator = pools.values()
+			.iterator(); iterator.hasNext();)
+		{
+			final Deque<Idle> pool = iterator.next();
+			// NB: The least recently used engines are at the end.
+			while (!pool.isEmpty() && pool.peekLast().since < oldest) {
+				pool.removeLast();
+			}
+			if (pool.isEmpty()) iterator.remove();
+		}
+	}
+
+	// -- Helper classes --
+
+	private static class Idle {
+
+		private final CachingScriptEngine engine;
+		private final long since = System.currentTimeMillis();
+
+		private Idle(final CachingScriptEngine engine) {
+			this.engine = engine;
+		}
+	}
+
+}
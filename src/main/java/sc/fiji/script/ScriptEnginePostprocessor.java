@@ -0,0 +1,62 @@
+/*
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2015 Fiji
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package sc.fiji.script;
+
+import org.scijava.Priority;
+import org.scijava.module.Module;
+import org.scijava.module.process.AbstractPostprocessorPlugin;
+import org.scijava.module.process.PostprocessorPlugin;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+import org.scijava.script.ScriptModule;
+import org.scijava.script.ScriptService;
+
+/**
+ * Returns the script engine of a script module to the
+ * {@link ScriptEnginePool} once the module ran.
+ * <p>
+ * This postprocessor runs last; the module's outputs have been read from
+ * the engine by then.
+ * </p>
+ */
+@Plugin(type = PostprocessorPlugin.class, priority = Priority.LAST_PRIORITY)
+public class ScriptEnginePostprocessor extends AbstractPostprocessorPlugin {
+
+	@Parameter(required = false)
+	private ScriptService scriptService;
+
+	// -- ModuleProcessor methods --
+
+	@Override
+	public void process(final Module module) {
+		if (!(module instanceof ScriptModule) ||
+			!(scriptService instanceof CachingScriptService))
+		{
+			return;
+		}
+		((CachingScriptService) scriptService).release(((ScriptModule) module)
+			.getEngine());
+	}
+
+}
@@ -0,0 +1,164 @@
+/*
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2015 Fiji
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package sc.fiji.script;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.scijava.Context;
+import org.scijava.MenuEntry;
+import org.scijava.MenuPath;
+import org.scijava.script.ScriptInfo;
+
+import sc.fiji.startup.StartupCache;
+
+/**
+ * Persists the scripts found in the script directories, with their menu
+ * paths.
+ * <p>
+ * The cache is keyed by a {@link StartupCache#fingerprint fingerprint} of
+ * all (sub)directories of the script directories and of the jars of the
+ * distribution. Adding, removing or renaming a script changes the
+ * modification time of its directory, so only the directories, not the
+ * scripts themselves, need to be looked at to validate the cache. This
+ * matters on network file systems where every {@code stat} is expensive.
+ * </p>
+ */
+public class ScriptMenuCache {
+
+	private static final String PREFIX = "script-menus";
+
+	private final Context context;
+	private final File file;
+
+	public ScriptMenuCache(final Context context,
+		final Collection<File> scriptDirectories)
+	{
+		this.context = context;
+		final List<File> files = new ArrayList<>();
+		for (final File dir : scriptDirectories) {
+			listDirectories(dir, files);
+		}
+		files.addAll(StartupCache.getDistributionFiles());
+		file = StartupCache.getFile(PREFIX, StartupCache.fingerprint(files),
+			".txt");
+	}
+
+	/** Reads the cached scripts, or returns null if the cache is outdated. */
+	public List<ScriptInfo> read() {
+		if (!StartupCache.isEnabled() || !StartupCache.use(file)) return null;
+		final List<ScriptInfo> scripts = new ArrayList<>();
+		try (final BufferedReader reader = new BufferedReader(
+			new InputStreamReader(Files.newInputStream(file.toPath()), "UTF-8")))
+		{
+			for (;;) {
+				final String line = reader.readLine();
+				if (line == null) break;
+				scripts.add(parse(line));
+			}
+		}
+		catch (final IOException | RuntimeException e) {
+			System.err.println("[WARNING] Ignoring invalid script cache " + file +
+				": " + e);
+			return null;
+		}
+		return scripts;
+	}
+
+	/** Writes the given scripts to the cache. */
+	public void write(final Collection<ScriptInfo> scripts) {
+		if (!StartupCache.isEnabled()) return;
+		final StringBuilder builder = new StringBuilder();
+		for (final ScriptInfo info : scripts) {
+			builder.append(format(info)).append('\n');
+		}
+		try {
+			StartupCache.write(file, builder.toString().getBytes("UTF-8"), PREFIX);
+		}
+		catch (final IOException e) {
+			System.err.println("[WARNING] Could not write script cache " + file +
+				": " + e);
+		}
+	}
+
+	/** Recursively lists the given directory and all of its subdirectories. */
+	static void listDirectories(final File dir, final List<File> result) {
+		final File[] list = dir.listFiles();
+		if (list == null) return;
+		result.add(dir);
+		Arrays.sort(list);
+		for (final File file : list) {
+			// NB: Directory names may contain dots, just like script names.
+			if (file.isDirectory()) listDirectories(file, result);
+		}
+	}
+
+	// -- Helper methods --
+
+	/**
+	 * Formats a script as one line: path, URL, then one field per menu entry
+	 * ({@code name|weight|icon}), all separated by tabs.
+	 */
+	private static String format(final ScriptInfo info) {
+		final StringBuilder builder = new StringBuilder(info.getPath());
+		final URL url = info.getURL();
+		builder.append('\t').append(url == null ? "" : url.toString());
+		final MenuPath menuPath = info.getMenuPath();
+		if (menuPath != null) {
+			for (final MenuEntry entry : menuPath) {
+				builder.append('\t').append(entry.getName()).append('|').append(
+					entry.getWeight()).append('|').append(entry.getIconPath() == null
+						? "" : entry.getIconPath());
+			}
+		}
+		return builder.toString();
+	}
+
+	private ScriptInfo parse(final String line) throws IOException {
+		final String[] fields = line.split("\t", -1);
+		final ScriptInfo info = fields[1].isEmpty() ? new ScriptInfo(context,
+			fields[0]) : new ScriptInfo(context, new URL(fields[1]), fields[0]);
+		if (fields.length > 2) {
+			final MenuPath menuPath = new MenuPath();
+			for (int i = 2; i < fields.length; i++) {
+				final String[] parts = fields[i].split("\\|", -1);
+				final MenuEntry entry = new MenuEntry(parts[0], Double.parseDouble(
+					parts[1]));
+				if (!parts[2].isEmpty()) entry.setIconPath(parts[2]);
+				menuPath.add(entry);
+			}
+			info.setMenuPath(menuPath);
+		}
+		return info;
+	}
+
+}
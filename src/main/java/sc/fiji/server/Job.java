@@ -0,0 +1,270 @@
+/*
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2015 Fiji
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package sc.fiji.server;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A job submitted to the {@link JobServer}, and the channel to report its
+ * output back to the client.
+ * <p>
+ * The protocol is line based and UTF-8 encoded. A request consists of a
+ * greeting line, header lines and a body:
+ * </p>
+ *
+ * <pre>
+ * FIJI-JOB 1 &lt;token&gt;
+ * type: script
+ * name: process.py
+ * input: file=/data/image1.tif
+ * isolated: true
+ *
+ * &lt;the script, until the client closes its output&gt;
+ * </pre>
+ * <p>
+ * The {@code type} is either {@code script} (the {@code name} determines
+ * the language; {@code .ijm} runs an ImageJ 1.x macro) or {@code command}
+ * (the {@code name} is the class name of the SciJava command, and there is
+ * no body). {@code input} headers may be repeated. {@code isolated} defaults
+ * to true for macros; see {@link LegacyState}.
+ * </p>
+ * <p>
+ * The server answers with one line per line of output, prefixed by
+ * {@code out: } or {@code err: }, one {@code output: name=value} line per
+ * output of the script or command, and a final {@code status: ok},
+ * {@code status: failed <message>} or {@code status: busy} line.
+ * </p>
+ */
+public class Job {
+
+	/** The greeting of a request, followed by the protocol version. */
+	public static final String GREETING = "FIJI-JOB";
+
+	public static final int VERSION = 1;
+
+	private String token;
+	private String type = "script";
+	private String name;
+	private Boolean isolated;
+	private final Map<String, Object> inputs = new LinkedHashMap<>();
+	private String body;
+
+	private PrintStream response;
+
+	// -- Job methods --
+
+	/** Reads a job request from the given stream. */
+	public static Job read(final InputStream in) throws IOException {
+		final BufferedReader reader =
+			new BufferedReader(new InputStreamReader(in, "UTF-8"));
+		final Job job = new Job();
+		final String greeting = reader.readLine();
+		final String prefix = GREETING + " " + VERSION + " ";
+		if (greeting == null || !greeting.startsWith(prefix)) {
+			throw new IOException("Not a job request: " + greeting);
+		}
+		job.token = greeting.substring(prefix.length()).trim();
+		for (;;) {
+			final String line = reader.readLine();
+			if (line == null || line.isEmpty()) break;
+			final int colon = line.indexOf(':');
+			if (colon < 0) throw new IOException("Invalid header: " + line);
+			final String key = line.substring(0, colon).trim();
+			final String value = line.substring(colon + 1).trim();
+			if (key.equals("type")) job.type = value;
+			else if (key.equals("name")) job.name = value;
+			else if (key.equals("isolated")) job.isolated = Boolean.valueOf(value);
+			else if (key.equals("input")) {
+				final int equals = value.indexOf('=');
+				if (equals < 0) throw new IOException("Invalid input: " + value);
+				job.inputs.put(value.substring(0, equals), value.substring(equals + 1));
+			}
+			else throw new IOException("Unknown header: " + key);
+		}
+		final StringWriter body = new StringWriter();
+		final char[] buffer = new char[16384];
+		for (;;) {
+			final int count = reader.read(buffer);
+			if (count < 0) break;
+			body.write(buffer, 0, count);
+		}
+		job.body = body.toString();
+		if (job.name == null) throw new IOException("Missing job name");
+		return job;
+	}
+
+	/** Writes the request for this job to the given stream. */
+	public void write(final OutputStream out) throws IOException {
+		final PrintStream print = new PrintStream(out, false, "UTF-8");
+		print.print(GREETING + " " + VERSION + " " + token + "\n");
+		print.print("type: " + type + "\n");
+		print.print("name: " + name + "\n");
+		if (isolated != null) print.print("isolated: " + isolated + "\n");
+		for (final Map.Entry<String, Object> entry : inputs.entrySet()) {
+			print.print("input: " + entry.getKey() + "=" + entry.getValue() + "\n");
+		}
+		print.print("\n");
+		if (body != null) print.print(body);
+		print.flush();
+	}
+
+	public String getToken() {
+		return token;
+	}
+
+	public void setToken(final String token) {
+		this.token = token;
+	}
+
+	public String getType() {
+		return type;
+	}
+
+	public void setType(final String type) {
+		this.type = type;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void setName(final String name) {
+		this.name = name;
+	}
+
+	public boolean isMacro() {
+		return "script".equals(type) && name.endsWith(".ijm");
+	}
+
+	/** Whether the job needs exclusive access to the ImageJ 1.x state. */
+	public boolean isIsolated() {
+		return isolated != null ? isolated : isMacro();
+	}
+
+	public void setIsolated(final boolean isolated) {
+		this.isolated = isolated;
+	}
+
+	public Map<String, Object> getInputs() {
+		return inputs;
+	}
+
+	public String getBody() {
+		return body;
+	}
+
+	public void setBody(final String body) {
+		this.body = body;
+	}
+
+	// -- Response methods --
+
+	/** Sets the stream the response to the client is written to. */
+	public void setResponse(final OutputStream out) {
+		try {
+			response = new PrintStream(out, true, "UTF-8");
+		}
+		catch (final UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/** Gets a stream sending each line written to it as {@code out:} line. */
+	public OutputStream getOut() {
+		return new LineStream("out");
+	}
+
+	/** Gets a stream sending each line written to it as {@code err:} line. */
+	public OutputStream getErr() {
+		return new LineStream("err");
+	}
+
+	public void sendOutput(final String key, final Object value) {
+		send("output", key + "=" + value);
+	}
+
+	public void sendStatus(final String status) {
+		send("status", status);
+	}
+
+	private synchronized void send(final String prefix, final String line) {
+		if (response == null) return;
+		response.print(prefix + ": " + line.replace('\n', ' ') + "\n");
+		response.flush();
+	}
+
+	// -- Helper classes --
+
+	/** Sends everything written to it line by line. */
+	private class LineStream extends OutputStream {
+
+		private final String prefix;
+		private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+		private LineStream(final String prefix) {
+			this.prefix = prefix;
+		}
+
+		@Override
+		public synchronized void write(final int b) {
+			if (b == '\n') flushLine();
+			else if (b != '\r') line.write(b);
+		}
+
+		@Override
+		public synchronized void write(final byte[] b, final int off,
+			final int len)
+		{
+			for (int i = off; i < off + len; i++) {
+				write(b[i]);
+			}
+		}
+
+		@Override
+		public synchronized void close() {
+			if (line.size() > 0) flushLine();
+		}
+
+		private void flushLine() {
+			try {
+				send(prefix, line.toString("UTF-8"));
+			}
+			catch (final UnsupportedEncodingException e) {
+				throw new IllegalStateException(e);
+			}
+			line.reset();
+		}
+	}
+
+}
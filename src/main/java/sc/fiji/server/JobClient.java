@@ -0,0 +1,128 @@
+/*
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2015 Fiji
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package sc.fiji.server;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+
+/**
+ * Submits a job to a running {@link JobServer}, printing its output.
+ * <p>
+ * Usage:
+ * </p>
+ *
+ * <pre>
+ * java sc.fiji.server.JobClient --port=&lt;port&gt; [--isolated=true|false] \
+ * 	(&lt;script-file&gt; | --command &lt;class-name&gt;) [&lt;input&gt;=&lt;value&gt;...]
+ * </pre>
+ * <p>
+ * The exit status is 0 when the job succeeded, 1 when it failed and 2 when
+ * the server was too busy to accept it.
+ * </p>
+ */
+public final class JobClient {
+
+	private JobClient() {
+		// Prevent instantiation of utility class.
+	}
+
+	/**
+	 * Submits the given job to the server on the given port, and prints its
+	 * output.
+	 *
+	 * @return the final status line sent by the server
+	 */
+	public static String submit(final int port, final Job job)
+		throws IOException
+	{
+		job.setToken(new String(Files.readAllBytes(JobServer.getTokenFile(port)
+			.toPath()), "UTF-8").trim());
+		try (final Socket socket =
+			new Socket(InetAddress.getLoopbackAddress(), port))
+		{
+			job.write(socket.getOutputStream());
+			socket.shutdownOutput();
+			final BufferedReader reader = new BufferedReader(new InputStreamReader(
+				socket.getInputStream(), "UTF-8"));
+			for (;;) {
+				final String line = reader.readLine();
+				if (line == null) throw new IOException("Connection lost");
+				if (line.startsWith("status: ")) return line.substring(8);
+				if (line.startsWith("err: ")) System.err.println(line.substring(5));
+				else if (line.startsWith("out: ")) System.out.println(line.substring(5));
+				else System.out.println(line);
+			}
+		}
+	}
+
+	// -- Main method --
+
+	public static void main(final String[] args) throws IOException {
+		int port = -1;
+		final Job job = new Job();
+		for (int i = 0; i < args.length; i++) {
+			final String arg = args[i];
+			if (arg.startsWith("--port=")) {
+				port = Integer.parseInt(arg.substring(7));
+			}
+			else if (arg.startsWith("--isolated=")) {
+				job.setIsolated(Boolean.parseBoolean(arg.substring(11)));
+			}
+			else if (arg.equals("--command") && i + 1 < args.length) {
+				job.setType("command");
+				job.setName(args[++i]);
+			}
+			else if (job.getName() == null) {
+				final File file = new File(arg);
+				job.setName(file.getName());
+				job.setBody(new String(Files.readAllBytes(file.toPath()), "UTF-8"));
+			}
+			else {
+				final int equals = arg.indexOf('=');
+				if (equals < 0) usage();
+				job.getInputs().put(arg.substring(0, equals), arg.substring(equals +
+					1));
+			}
+		}
+		if (port < 0 || job.getName() == null) usage();
+
+		final String status = submit(port, job);
+		if (status.equals("ok")) System.exit(0);
+		System.err.println(status);
+		System.exit(status.equals("busy") ? 2 : 1);
+	}
+
+	private static void usage() {
+		System.err.println("Usage: JobClient --port=<port> " +
+			"[--isolated=true|false] (<script> | --command <class>) " +
+			"[<input>=<value>...]");
+		System.exit(1);
+	}
+
+}
@@ -0,0 +1,387 @@
+/*
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2015 Fiji
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package sc.fiji.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.scijava.Cancelable;
+import org.scijava.Context;
+import org.scijava.command.CommandInfo;
+import org.scijava.command.CommandService;
+import org.scijava.convert.ConvertService;
+import org.scijava.module.Module;
+import org.scijava.module.ModuleException;
+import org.scijava.module.ModuleItem;
+import org.scijava.module.ModuleRunner;
+import org.scijava.module.ModuleService;
+import org.scijava.module.process.PostprocessorPlugin;
+import org.scijava.module.process.PreprocessorPlugin;
+import org.scijava.plugin.PluginService;
+import org.scijava.script.ScriptInfo;
+import org.scijava.script.ScriptModule;
+
+import sc.fiji.startup.Checkpoint;
+import sc.fiji.startup.StartupCache;
+
+/**
+ * Runs macro, script and command jobs in a long-lived Fiji.
+ * <p>
+ * The server keeps one warm context, and accepts {@link Job}s on a socket
+ * bound to the loopback interface. Jobs run concurrently on a bounded
+ * thread pool; their output is streamed back to the client that submitted
+ * them (see {@link OutputRouter}).
+ * </p>
+ * <p>
+ * Only clients which can read the server's token file may submit jobs: it
+ * is written to {@code server-<port>.token} in the
+ * {@link StartupCache#getDirectory() cache directory}, readable by the
+ * owner only, and its contents must be sent with every request.
+ * </p>
+ * <p>
+ * The server survives a {@link Checkpoint}: it waits for the running jobs,
+ * and closes its socket before the checkpoint; after the restore, it listens
+ * on the same port again, with a new token.
+ * </p>
+ */
+public class JobServer implements Runnable, Checkpoint.Resource {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final Context context;
+	private final int port;
+	private final ThreadPoolExecutor executor;
+	private final File tokenFile;
+	private volatile ServerSocket serverSocket;
+	private volatile String token;
+	private volatile boolean closed, suspended;
+
+	/**
+	 * Creates a new job server.
+	 *
+	 * @param context the context to run the jobs in
+	 * @param port the port to listen on, or 0 to pick a free one
+	 * @param threads the maximal number of jobs to run at the same time
+	 * @param queueSize the maximal number of jobs waiting to be run; further
+	 *          jobs are rejected as {@code busy}
+	 */
+	public JobServer(final Context context, final int port, final int threads,
+		final int queueSize) throws IOException
+	{
+		this.context = context;
+		serverSocket = listen(port);
+		this.port = serverSocket.getLocalPort();
+		final AtomicInteger counter = new AtomicInteger();
+		executor = new ThreadPoolExecutor(threads, threads, 0,
+			TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(queueSize),
+			new ThreadFactory() {
+
+				@Override
+				public Thread newThread(final Runnable r) {
+					return new Thread(r, "fiji-job-" + counter.incrementAndGet());
+				}
+			});
+		token = createToken();
+		tokenFile = getTokenFile(this.port);
+		writeToken(tokenFile, token);
+		OutputRouter.install();
+		Checkpoint.register(this);
+	}
+
+	/** Gets the file holding the token of the server on the given port. */
+	public static File getTokenFile(final int port) {
+		return new File(StartupCache.getDirectory(), "server-" + port + ".token");
+	}
+
+	public int getPort() {
+		return port;
+	}
+
+	/** Accepts jobs until the server is {@link #close() closed}. */
+	@Override
+	public void run() {
+		System.err.println("Fiji job server listening on localhost:" +
+			getPort());
+		while (!closed) {
+			final Socket socket;
+			try {
+				socket = serverSocket.accept();
+			}
+			catch (final IOException e) {
+				if (!closed && !suspended) e.printStackTrace();
+				awaitRestore();
+				continue;
+			}
+			try {
+				executor.execute(new Runnable() {
+
+					@Override
+					public void run() {
+						handle(socket);
+					}
+				});
+			}
+			catch (final RejectedExecutionException e) {
+				final Job busy = new Job();
+				try {
+					busy.setResponse(socket.getOutputStream());
+					busy.sendStatus("busy");
+				}
+				catch (final IOException exc) {
+					// NB: The client is gone already.
+				}
+				close(socket);
+			}
+		}
+	}
+
+	/** Stops accepting jobs, and waits for the running jobs to finish. */
+	public void close() throws IOException {
+		Checkpoint.unregister(this);
+		synchronized (this) {
+			closed = true;
+			notifyAll();
+		}
+		serverSocket.close();
+		executor.shutdown();
+		tokenFile.delete();
+		try {
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		}
+		catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	// -- Checkpoint.Resource methods --
+
+	@Override
+	public void beforeCheckpoint() throws Exception {
+		synchronized (this) {
+			suspended = true;
+		}
+		serverSocket.close();
+		tokenFile.delete();
+		// NB: The connections of running jobs cannot be checkpointed either.
+		while (executor.getActiveCount() > 0 || !executor.getQueue().isEmpty()) {
+			Thread.sleep(10);
+		}
+	}
+
+	@Override
+	public void afterRestore() throws Exception {
+		serverSocket = listen(port);
+		token = createToken();
+		writeToken(tokenFile, token);
+		synchronized (this) {
+			suspended = false;
+			notifyAll();
+		}
+		System.err.println("Fiji job server listening on localhost:" + port);
+	}
+
+	// -- Helper methods --
+
+	/** Waits while the server is suspended for a checkpoint. */
+	private synchronized void awaitRestore() {
+		while (suspended && !closed) {
+			try {
+				wait();
+			}
+			catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	private static ServerSocket listen(final int port) throws IOException {
+		return new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+	}
+
+	private void handle(final Socket socket) {
+		try {
+			final Job job = Job.read(socket.getInputStream());
+			job.setResponse(socket.getOutputStream());
+			if (!token.equals(job.getToken())) {
+				job.sendStatus("failed invalid token");
+				return;
+			}
+			run(job);
+		}
+		catch (final IOException e) {
+			System.err.println("[WARNING] Invalid job request: " + e);
+		}
+		finally {
+			close(socket);
+		}
+	}
+
+	/** Runs the given job on the current thread, reporting to its client. */
+	private void run(final Job job) {
+		final OutputStream outStream = job.getOut(), errStream = job.getErr();
+		final PrintWriter out = writer(outStream), err = writer(errStream);
+		final LegacyState legacyState = new LegacyState(job.isIsolated());
+		Module module = null;
+		Throwable failure = null;
+		OutputRouter.begin(outStream, errStream);
+		try {
+			legacyState.begin();
+			module = execute(job, out, err);
+		}
+		catch (final Throwable t) {
+			t.printStackTrace(err);
+			failure = t;
+		}
+		finally {
+			legacyState.end();
+			OutputRouter.end();
+		}
+		// NB: Send any pending output before the status.
+		out.close();
+		err.close();
+
+		if (failure != null) job.sendStatus("failed " + failure);
+		else if (module instanceof Cancelable && ((Cancelable) module)
+			.isCanceled())
+		{
+			job.sendStatus("failed " + ((Cancelable) module).getCancelReason());
+		}
+		else {
+			for (final Map.Entry<String, Object> entry : module.getOutputs()
+				.entrySet())
+			{
+				job.sendOutput(entry.getKey(), entry.getValue());
+			}
+			job.sendStatus("ok");
+		}
+	}
+
+	private Module execute(final Job job, final Writer out, final Writer err)
+		throws ModuleException
+	{
+		final Module module;
+		if ("script".equals(job.getType())) {
+			final ScriptInfo info = new ScriptInfo(context, job.getName(),
+				new StringReader(job.getBody()));
+			final ScriptModule scriptModule = info.createModule();
+			scriptModule.setOutputWriter(out);
+			scriptModule.setErrorWriter(err);
+			module = scriptModule;
+		}
+		else if ("command".equals(job.getType())) {
+			final CommandInfo info =
+				context.service(CommandService.class).getCommand(job.getName());
+			if (info == null) {
+				throw new IllegalArgumentException("No such command: " +
+					job.getName());
+			}
+			module = context.service(ModuleService.class).createModule(info);
+		}
+		else {
+			throw new IllegalArgumentException("Unknown job type: " +
+				job.getType());
+		}
+
+		final ConvertService convertService =
+			context.service(ConvertService.class);
+		for (final Map.Entry<String, Object> entry : job.getInputs().entrySet()) {
+			final String name = entry.getKey();
+			final ModuleItem<?> item = module.getInfo().getInput(name);
+			if (item == null) {
+				throw new IllegalArgumentException("No such input: " + name);
+			}
+			module.setInput(name, convertService.convert(entry.getValue(), item
+				.getType()));
+			module.resolveInput(name);
+		}
+
+		// NB: Run the module on this thread, so that its output is routed to
+		// this job's client.
+		final PluginService pluginService = context.service(PluginService.class);
+		new ModuleRunner(context, module, pluginService.createInstancesOfType(
+			PreprocessorPlugin.class), pluginService.createInstancesOfType(
+				PostprocessorPlugin.class)).run();
+		return module;
+	}
+
+	private static PrintWriter writer(final OutputStream out) {
+		return new PrintWriter(new OutputStreamWriter(out, UTF8), true);
+	}
+
+	private static String createToken() {
+		final byte[] bytes = new byte[16];
+		new SecureRandom().nextBytes(bytes);
+		final StringBuilder builder = new StringBuilder();
+		for (final byte b : bytes) {
+			builder.append(String.format("%02x", b & 0xff));
+		}
+		return builder.toString();
+	}
+
+	private static void writeToken(final File file, final String token)
+		throws IOException
+	{
+		final File dir = file.getParentFile();
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Could not make directory " + dir);
+		}
+		file.delete();
+		if (!file.createNewFile()) throw new IOException("Could not write " + file);
+		file.setReadable(false, false);
+		file.setWritable(false, false);
+		file.setReadable(true, true);
+		file.setWritable(true, true);
+		Files.write(file.toPath(), token.getBytes(UTF8));
+		file.deleteOnExit();
+	}
+
+	private static void close(final Socket socket) {
+		try {
+			socket.close();
+		}
+		catch (final IOException e) {
+			// NB: Nothing left to do.
+		}
+	}
+
+}
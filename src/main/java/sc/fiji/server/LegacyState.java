@@ -0,0 +1,109 @@
+/*
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2015 Fiji
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package sc.fiji.server;
+
+import ij.ImagePlus;
+import ij.WindowManager;
+import ij.measure.ResultsTable;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Isolates the ImageJ 1.x state of a job from other jobs.
+ * <p>
+ * ImageJ 1.x keeps its images and the system results table in static
+ * fields, so jobs relying on them cannot run at the same time. Isolated jobs
+ * therefore run alone: each waits until no other job runs, starts with an
+ * empty results table and no current image, and the images it leaves open
+ * as well as its results are discarded when it ends. Jobs which are not
+ * isolated run concurrently with each other (but not with isolated jobs),
+ * and must not rely on that state.
+ * </p>
+ */
+public class LegacyState {
+
+	/** Held exclusively by isolated jobs, and shared by the other jobs. */
+	private static final ReadWriteLock locks = new ReentrantReadWriteLock(true);
+
+	private final boolean isolated;
+	private final Lock lock;
+	private final Set<Integer> images = new HashSet<>();
+
+	public LegacyState(final boolean isolated) {
+		this.isolated = isolated;
+		lock = isolated ? locks.writeLock() : locks.readLock();
+	}
+
+	/**
+	 * Waits until no isolated job runs (or no job at all, for an isolated
+	 * job), then resets the state of an isolated job.
+	 */
+	public void begin() {
+		lock.lock();
+		if (!isolated) return;
+		images.clear();
+		final int[] ids = WindowManager.getIDList();
+		if (ids != null) {
+			for (final int id : ids) {
+				images.add(id);
+			}
+		}
+		WindowManager.setTempCurrentImage(null);
+		resetResults();
+	}
+
+	/** Discards the images and results of an isolated job. */
+	public void end() {
+		try {
+			if (!isolated) return;
+			final int[] ids = WindowManager.getIDList();
+			if (ids != null) {
+				for (final int id : ids) {
+					if (images.contains(id)) continue;
+					final ImagePlus imp = WindowManager.getImage(id);
+					if (imp == null) continue;
+					imp.changes = false;
+					imp.close();
+				}
+			}
+			WindowManager.setTempCurrentImage(null);
+			resetResults();
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	// -- Helper methods --
+
+	private static void resetResults() {
+		final ResultsTable results = ResultsTable.getResultsTable();
+		if (results != null) results.reset();
+	}
+
+}
@@ -0,0 +1,114 @@
+/*
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2015 Fiji
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package sc.fiji.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * Routes {@link System#out} and {@link System#err} to the client of the job
+ * running on the current thread.
+ * <p>
+ * The route is not inherited by threads spawned by a job: such threads may
+ * be pooled, and outlive the job (e.g. the workers of a shared fork-join
+ * pool). Output of threads not belonging to any job goes to the original
+ * streams.
+ * </p>
+ */
+public final class OutputRouter {
+
+	private static final ThreadLocal<Route> route = new ThreadLocal<>();
+
+	private static boolean installed;
+
+	private OutputRouter() {
+		// Prevent instantiation of utility class.
+	}
+
+	/** Replaces {@link System#out} and {@link System#err} by routing streams. */
+	public static synchronized void install() {
+		if (installed) return;
+		System.setOut(new PrintStream(new RoutingStream(System.out, false), true));
+		System.setErr(new PrintStream(new RoutingStream(System.err, true), true));
+		installed = true;
+	}
+
+	/** Routes the output of the current thread. */
+	public static void begin(final OutputStream out, final OutputStream err) {
+		route.set(new Route(out, err));
+	}
+
+	/** Stops routing the output of the current thread. */
+	public static void end() {
+		route.remove();
+	}
+
+	// -- Helper classes --
+
+	private static class Route {
+
+		private final OutputStream out, err;
+
+		private Route(final OutputStream out, final OutputStream err) {
+			this.out = out;
+			this.err = err;
+		}
+	}
+
+	private static class RoutingStream extends OutputStream {
+
+		private final OutputStream fallback;
+		private final boolean error;
+
+		private RoutingStream(final OutputStream fallback, final boolean error) {
+			this.fallback = fallback;
+			this.error = error;
+		}
+
+		@Override
+		public void write(final int b) throws IOException {
+			target().write(b);
+		}
+
+		@Override
+		public void write(final byte[] b, final int off, final int len)
+			throws IOException
+		{
+			target().write(b, off, len);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			target().flush();
+		}
+
+		private OutputStream target() {
+			final Route r = route.get();
+			if (r == null) return fallback;
+			return error ? r.err : r.out;
+		}
+	}
+
+}
@@ -0,0 +1,214 @@
+/*
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2015 Fiji
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package sc.fiji.startup;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Checkpoints a warm Fiji, so that it can later be restored in a fraction of
+ * the startup time.
+ * <p>
+ * This needs a JVM implementing Coordinated Restore at Checkpoint (CRaC),
+ * started with {@code -XX:CRaCCheckpointTo=<dir>}; the snapshot is then
+ * restored with {@code java -XX:CRaCRestoreFrom=<dir>}. The CRaC API is
+ * looked up at runtime, either as {@code org.crac} (if its jar is on the
+ * class path) or as the JDK-internal {@code jdk.crac}, so Fiji still runs
+ * on JVMs without it.
+ * </p>
+ * <p>
+ * A checkpoint fails while files or sockets are open. Components holding on
+ * to such resources must {@link #register(Resource) register} a
+ * {@link Resource} which closes them before the checkpoint, and reopens them
+ * after the restore. This applies to checkpoints requested by
+ * {@link #checkpointRestore()} as well as to those requested from outside,
+ * e.g. via {@code jcmd <pid> JDK.checkpoint}.
+ * </p>
+ */
+public final class Checkpoint {
+
+	/** A component which needs to prepare for a checkpoint. */
+	public interface Resource {
+
+		/** Closes the files, sockets etc. which cannot be checkpointed. */
+		void beforeCheckpoint() throws Exception;
+
+		/** Reopens what {@link #beforeCheckpoint()} closed. */
+		void afterRestore() throws Exception;
+	}
+
+	private static final List<Resource> resources =
+		new CopyOnWriteArrayList<>();
+
+	/** The CRaC API, or null if this JVM does not implement it. */
+	private static final String API = findAPI();
+
+	/**
+	 * The resource registered with CRaC. NB: CRaC only holds a weak
+	 * reference to it.
+	 */
+	private static Object cracResource;
+
+	private Checkpoint() {
+		// Prevent instantiation of utility class.
+	}
+
+	/** Whether this JVM can checkpoint itself. */
+	public static boolean isSupported() {
+		return API != null;
+	}
+
+	/**
+	 * Registers a resource to prepare for checkpoints. Resources are closed
+	 * in the opposite order of their registration, and reopened in order.
+	 */
+	public static synchronized void register(final Resource resource) {
+		resources.add(resource);
+		if (cracResource == null && isSupported()) {
+			try {
+				cracResource = registerWithCRaC();
+			}
+			catch (final ReflectiveOperationException e) {
+				System.err.println("[WARNING] Cannot register with CRaC: " + e);
+			}
+		}
+	}
+
+	public static void unregister(final Resource resource) {
+		resources.remove(resource);
+	}
+
+	/**
+	 * Checkpoints this JVM. Unless configured otherwise, the JVM exits after
+	 * writing the snapshot; when the snapshot is restored, this method
+	 * returns.
+	 *
+	 * @throws UnsupportedOperationException if this JVM does not implement
+	 *           CRaC
+	 * @throws Exception if the checkpoint or the restore failed
+	 */
+	public static void checkpointRestore() throws Exception {
+		if (!isSupported()) {
+			throw new UnsupportedOperationException(
+				"This JVM cannot be checkpointed; please use a JDK with CRaC support");
+		}
+		try {
+			Class.forName(API + ".Core").getMethod("checkpointRestore").invoke(
+				null);
+		}
+		catch (final InvocationTargetException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof Exception) throw (Exception) cause;
+			throw (Error) cause;
+		}
+	}
+
+	// -- Helper methods --
+
+	private static String findAPI() {
+		for (final String api : new String[] { "org.crac", "jdk.crac" }) {
+			try {
+				Class.forName(api + ".Core");
+				return api;
+			}
+			catch (final ClassNotFoundException | LinkageError e) {
+				// NB: Try the next one.
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Registers a CRaC resource which notifies all of our resources.
+	 *
+	 * @return the registered resource
+	 */
+	private static Object registerWithCRaC()
+		throws ReflectiveOperationException
+	{
+		final Class<?> resourceClass = Class.forName(API + ".Resource");
+		final Class<?> contextClass = Class.forName(API + ".Context");
+		final Object resource = Proxy.newProxyInstance(resourceClass
+			.getClassLoader(), new Class<?>[] { resourceClass },
+			new InvocationHandler() {
+
+				@Override
+				public Object invoke(final Object proxy, final Method method,
+					final Object[] args) throws Throwable
+				{
+					switch (method.getName()) {
+						case "beforeCheckpoint":
+							beforeCheckpoint();
+							return null;
+						case "afterRestore":
+							afterRestore();
+							return null;
+						case "hashCode":
+							return System.identityHashCode(proxy);
+						case "equals":
+							return proxy == args[0];
+						case "toString":
+							return Checkpoint.class.getName();
+						default:
+							throw new UnsupportedOperationException(method.getName());
+					}
+				}
+			});
+		final Object context = Class.forName(API + ".Core").getMethod(
+			"getGlobalContext").invoke(null);
+		contextClass.getMethod("register", resourceClass).invoke(context,
+			resource);
+		return resource;
+	}
+
+	private static void beforeCheckpoint() throws Exception {
+		final List<Resource> list = new ArrayList<>(resources);
+		Collections.reverse(list);
+		for (final Resource resource : list) {
+			resource.beforeCheckpoint();
+		}
+	}
+
+	private static void afterRestore() throws Exception {
+		Exception failure = null;
+		for (final Resource resource : resources) {
+			try {
+				resource.afterRestore();
+			}
+			catch (final Exception e) {
+				// NB: Reopen as much as possible before reporting the failure.
+				if (failure == null) failure = e;
+				else failure.addSuppressed(e);
+			}
+		}
+		if (failure != null) throw failure;
+	}
+
+}
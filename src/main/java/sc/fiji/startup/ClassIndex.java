@@ -0,0 +1,256 @@
+/*
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2015 Fiji
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package sc.fiji.startup;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UnsupportedEncodingException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Maps each package (or rather, each resource directory) of the
+ * distribution's jars to the jars containing it.
+ * <p>
+ * Finding the jar of a class otherwise means probing every jar on the class
+ * path in turn. With this index, the {@link IndexedClassLoader} and tools
+ * such as {@code bin/find-jar-for-class.bsh} only open the jars which
+ * actually contain the package in question.
+ * </p>
+ * <p>
+ * The index is cached like the plugin index (see {@link StartupCache}): it
+ * is regenerated on the first launch after the updater changed any jar, or
+ * eagerly by running this class' {@link #main(String[])} method after an
+ * update.
+ * </p>
+ */
+public class ClassIndex {
+
+	private static final String PREFIX = "class-index";
+
+	private static final String HEADER = "# Fiji class index 1";
+
+	private static ClassIndex instance;
+
+	private final List<File> jars;
+	private final Map<String, int[]> directories;
+
+	private ClassIndex(final List<File> jars,
+		final Map<String, int[]> directories)
+	{
+		this.jars = Collections.unmodifiableList(jars);
+		this.directories = directories;
+	}
+
+	/**
+	 * Gets the index of the current distribution, reading it from the cache
+	 * or generating it as needed.
+	 */
+	public static synchronized ClassIndex get() throws IOException {
+		if (instance != null) return instance;
+		final List<File> jars = listJars();
+		if (!StartupCache.isEnabled()) return instance = create(jars);
+		final File cache = StartupCache.getFile(PREFIX, StartupCache.fingerprint(
+			jars), ".txt");
+		if (StartupCache.use(cache)) {
+			try {
+				return instance = read(cache);
+			}
+			catch (final IOException e) {
+				System.err.println("[WARNING] Ignoring invalid class index " + cache +
+					": " + e);
+			}
+		}
+		instance = create(jars);
+		StartupCache.write(cache, instance.toString().getBytes("UTF-8"), PREFIX);
+		return instance;
+	}
+
+	/** Indexes the given jars. */
+	public static ClassIndex create(final List<File> jars) throws IOException {
+		final Map<String, Set<Integer>> directories = new HashMap<>();
+		for (int i = 0; i < jars.size(); i++) {
+			try (final ZipFile zip = new ZipFile(jars.get(i))) {
+				final Enumeration<? extends ZipEntry> entries = zip.entries();
+				while (entries.hasMoreElements()) {
+					final String dir = getDirectory(entries.nextElement().getName());
+					Set<Integer> set = directories.get(dir);
+					if (set == null) directories.put(dir, set = new LinkedHashSet<>());
+					set.add(i);
+				}
+			}
+			catch (final IOException e) {
+				System.err.println("[WARNING] Cannot index " + jars.get(i) + ": " + e);
+			}
+		}
+		final Map<String, int[]> result = new HashMap<>();
+		for (final Map.Entry<String, Set<Integer>> entry : directories.entrySet()) {
+			final int[] indices = new int[entry.getValue().size()];
+			int i = 0;
+			for (final int index : entry.getValue()) {
+				indices[i++] = index;
+			}
+			result.put(entry.getKey(), indices);
+		}
+		return new ClassIndex(new ArrayList<>(jars), result);
+	}
+
+	/** Gets the indexed jars, in class path order. */
+	public List<File> getJars() {
+		return jars;
+	}
+
+	/**
+	 * Gets the jars which may contain the given resource, i.e. which contain
+	 * its directory, in class path order.
+	 *
+	 * @param path the resource path, e.g. {@code org/scijava/Context.class}
+	 */
+	public List<File> getCandidates(final String path) {
+		final int[] indices = directories.get(getDirectory(path));
+		if (indices == null) return Collections.emptyList();
+		final List<File> result = new ArrayList<>(indices.length);
+		for (final int index : indices) {
+			result.add(jars.get(index));
+		}
+		return result;
+	}
+
+	/**
+	 * Gets the jars which contain the given class, opening only the jars
+	 * containing its package.
+	 */
+	public List<File> findClass(final String className) throws IOException {
+		final String path = className.replace('.', '/') + ".class";
+		final List<File> result = new ArrayList<>();
+		for (final File jar : getCandidates(path)) {
+			try (final ZipFile zip = new ZipFile(jar)) {
+				if (zip.getEntry(path) != null) result.add(jar);
+			}
+		}
+		return result;
+	}
+
+	/** Serializes this index in the format {@link #read(File)} understands. */
+	@Override
+	public String toString() {
+		final StringBuilder builder = new StringBuilder(HEADER).append('\n');
+		for (final File jar : jars) {
+			builder.append("J\t").append(jar.getPath()).append('\n');
+		}
+		for (final Map.Entry<String, int[]> entry : directories.entrySet()) {
+			builder.append("D\t").append(entry.getKey());
+			for (final int index : entry.getValue()) {
+				builder.append('\t').append(index);
+			}
+			builder.append('\n');
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * (Re)generates the index of the distribution.
+	 * <p>
+	 * When class names are passed, the jars containing them are printed.
+	 * </p>
+	 */
+	public static void main(final String... args) throws IOException {
+		final ClassIndex index = get();
+		if (args.length == 0) {
+			System.out.println("Indexed " + index.jars.size() + " jars");
+		}
+		for (final String className : args) {
+			final List<File> found = index.findClass(className);
+			if (found.isEmpty()) {
+				System.out.println("Class " + className +
+					" was not found in the classpath");
+			}
+			for (final File jar : found) {
+				System.out.println("Class " + className + " is in " + jar);
+			}
+		}
+	}
+
+	// -- Helper methods --
+
+	/** Lists the jars of the distribution and the class path, without dupes. */
+	private static List<File> listJars() {
+		final Set<File> jars = new LinkedHashSet<>();
+		for (final File file : StartupCache.getDistributionFiles()) {
+			if (file.getName().endsWith(".jar") && file.isFile()) {
+				jars.add(file.getAbsoluteFile());
+			}
+		}
+		return new ArrayList<>(jars);
+	}
+
+	private static String getDirectory(final String path) {
+		final int slash = path.lastIndexOf('/', path.length() - 2);
+		return slash < 0 ? "" : path.substring(0, slash);
+	}
+
+	private static ClassIndex read(final File file) throws IOException {
+		final List<File> jars = new ArrayList<>();
+		final Map<String, int[]> directories = new HashMap<>();
+		try (final BufferedReader reader = new BufferedReader(
+			new InputStreamReader(Files.newInputStream(file.toPath()), "UTF-8")))
+		{
+			if (!HEADER.equals(reader.readLine())) {
+				throw new IOException("Unknown format");
+			}
+			for (;;) {
+				final String line = reader.readLine();
+				if (line == null) break;
+				final String[] fields = line.split("\t", -1);
+				if (fields[0].equals("J")) jars.add(new File(fields[1]));
+				else if (fields[0].equals("D")) {
+					final int[] indices = new int[fields.length - 2];
+					for (int i = 0; i < indices.length; i++) {
+						indices[i] = Integer.parseInt(fields[i + 2]);
+						if (indices[i] >= jars.size()) {
+							throw new IOException("Invalid jar index: " + line);
+						}
+					}
+					directories.put(fields[1], indices);
+				}
+			}
+		}
+		catch (final NumberFormatException | UnsupportedEncodingException e) {
+			throw new IOException(e);
+		}
+		return new ClassIndex(jars, directories);
+	}
+
+}
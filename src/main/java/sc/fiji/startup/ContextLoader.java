@@ -0,0 +1,179 @@
+/*
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2015 Fiji
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.startup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.scijava.Context;
+import org.scijava.plugin.DefaultPluginFinder;
+import org.scijava.plugin.PluginFinder;
+import org.scijava.plugin.PluginIndex;
+import org.scijava.plugin.PluginInfo;
+import org.scijava.service.Service;
+
+import sc.fiji.memory.MemoryBudgetService;
+
+/**
+ * Creates the SciJava application context for Fiji.
+ * <p>
+ * By default, the result is equivalent to {@code new Context()}, i.e. all
+ * available services are loaded, but the plugin discovery and the
+ * initialization of each service are reported to the
+ * {@link StartupProfiler} as separate phases. The services are loaded by the
+ * {@link ServiceScheduler}, which can initialize them in parallel, and can
+ * restrict them to the ones a headless run actually needs.
+ * </p>
+ * <p>
+ * Plugins are discovered from the {@link PluginIndexCache}, so that the jars
+ * of the distribution need not be opened when none of them changed.
+ * </p>
+ */
+public class ContextLoader {
+
+	/**
+	 * System property listing the (comma-separated) services to load; their
+	 * dependencies are loaded as well, but no other services (except for the
+	 * {@link MemoryBudgetService} and the {@link #LAUNCH_SERVICES}, which are
+	 * always loaded). By default, all services are loaded.
+	 */
+	public static final String SERVICES_PROPERTY = "fiji.services";
+
+	/**
+	 * System property setting the number of threads to initialize the
+	 * services on, or {@code auto} for one per processor. By default, the
+	 * services are initialized one after another.
+	 */
+	public static final String THREADS_PROPERTY = "fiji.services.threads";
+
+	/**
+	 * The services the gateway needs to {@link org.scijava.AbstractGateway#launch
+	 * launch}, including the ones handling console arguments such as
+	 * {@code --run}. Those which the SciJava version at hand does not have yet
+	 * are skipped.
+	 */
+	public static final List<String> LAUNCH_SERVICES = Collections
+		.unmodifiableList(Arrays.asList("org.scijava.console.ConsoleService",
+			"org.scijava.main.MainService", "org.scijava.ui.UIService",
+			"org.scijava.run.RunService", "org.scijava.startup.StartupService"));
+
+	private final StartupProfiler profiler;
+
+	public ContextLoader(final StartupProfiler profiler) {
+		this.profiler = profiler;
+	}
+
+	/** Creates a new context with the configured services. */
+	public Context load() {
+		final ClassLoader classLoader;
+		try (StartupProfiler.Phase phase = profiler.phase("plugin index cache")) {
+			classLoader = new PluginIndexCache(Context.getClassLoader())
+				.getClassLoader();
+		}
+		final PluginIndex pluginIndex = new PluginIndex(new ProfiledPluginFinder(
+			new DefaultPluginFinder(classLoader)));
+
+		final Context context;
+		try (StartupProfiler.Phase phase = profiler.phase("context")) {
+			// NB: The context discovers the plugins, but loads no services yet.
+			context = new Context(
+				Collections.<Class<? extends Service>> emptyList(), pluginIndex);
+		}
+
+		try (StartupProfiler.Phase phase = profiler.phase("services")) {
+			new ServiceScheduler(context, profiler).load(getServiceClasses(
+				classLoader), getServiceThreads());
+		}
+		return context;
+	}
+
+	// -- Helper methods --
+
+	/**
+	 * Gets the services to load, as configured by the
+	 * {@value #SERVICES_PROPERTY} system property, or null for all services.
+	 */
+	private static List<Class<? extends Service>> getServiceClasses(
+		final ClassLoader classLoader)
+	{
+		final String names = System.getProperty(SERVICES_PROPERTY);
+		if (names == null || names.trim().isEmpty()) return null;
+		final List<Class<? extends Service>> classes = new ArrayList<>();
+		for (final String name : names.split(",")) {
+			if (name.trim().isEmpty()) continue;
+			try {
+				classes.add(Class.forName(name.trim(), false, classLoader).asSubclass(
+					Service.class));
+			}
+			catch (final ClassNotFoundException | ClassCastException e) {
+				System.err.println("[WARNING] Not a service: " + name);
+			}
+		}
+		// NB: Keep the memory of headless batch runs within the budget, too.
+		classes.add(MemoryBudgetService.class);
+		for (final String name : LAUNCH_SERVICES) {
+			try {
+				classes.add(Class.forName(name, false, classLoader).asSubclass(
+					Service.class));
+			}
+			catch (final ClassNotFoundException e) {
+				// NB: Not needed by this SciJava version's gateway.
+			}
+		}
+		return classes;
+	}
+
+	private static int getServiceThreads() {
+		final String threads = System.getProperty(THREADS_PROPERTY);
+		if (threads == null) return 1;
+		if (threads.equals("auto")) {
+			return Runtime.getRuntime().availableProcessors();
+		}
+		return Integer.parseInt(threads);
+	}
+
+	// -- Helper classes --
+
+	/** Reports the plugin discovery as a separate startup phase. */
+	private class ProfiledPluginFinder implements PluginFinder {
+
+		private final PluginFinder finder;
+
+		private ProfiledPluginFinder(final PluginFinder finder) {
+			this.finder = finder;
+		}
+
+		@Override
+		public Map<String, Throwable> findPlugins(
+			final List<PluginInfo<?>> plugins)
+		{
+			try (StartupProfiler.Phase phase = profiler.phase("plugin discovery")) {
+				return finder.findPlugins(plugins);
+			}
+		}
+	}
+
+}
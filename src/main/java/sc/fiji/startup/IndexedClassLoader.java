@@ -0,0 +1,258 @@
+/*
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2015 Fiji
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package sc.fiji.startup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.security.CodeSource;
+import java.security.ProtectionDomain;
+import java.security.cert.Certificate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+/**
+ * Loads classes and resources from a set of jars, looking up the jars by
+ * package in a {@link ClassIndex} instead of probing them one by one.
+ * <p>
+ * Jars are only opened once a class or resource is requested from them.
+ * Jars the index does not know (e.g. added after it was generated) are
+ * probed in order, as by a {@link java.net.URLClassLoader}.
+ * </p>
+ */
+public class IndexedClassLoader extends ClassLoader implements Closeable,
+	Checkpoint.Resource
+{
+
+	static {
+		registerAsParallelCapable();
+	}
+
+	private final ClassIndex index;
+	private final Map<File, Jar> jars = new HashMap<>();
+	private final List<Jar> unindexed = new ArrayList<>();
+
+	/**
+	 * @param index the index to look up the jars in
+	 * @param jars the jars to load from; jars of the index which are not
+	 *          listed here are ignored
+	 * @param parent the class loader to delegate to first
+	 */
+	public IndexedClassLoader(final ClassIndex index,
+		final Collection<File> jars, final ClassLoader parent)
+	{
+		super(parent);
+		this.index = index;
+		final Set<File> indexed = new HashSet<>(index.getJars());
+		for (final File file : jars) {
+			final Jar jar = new Jar(file.getAbsoluteFile());
+			this.jars.put(jar.file, jar);
+			if (!indexed.contains(jar.file)) unindexed.add(jar);
+		}
+		Checkpoint.register(this);
+	}
+
+	// -- ClassLoader methods --
+
+	@Override
+	protected Class<?> findClass(final String name)
+		throws ClassNotFoundException
+	{
+		final String path = name.replace('.', '/') + ".class";
+		for (final Jar jar : getJars(path)) {
+			try {
+				final JarFile jarFile = jar.open();
+				final JarEntry entry = jarFile.getJarEntry(path);
+				if (entry == null) continue;
+				final byte[] bytes = read(jarFile, entry);
+				definePackage(name, jar);
+				return defineClass(name, bytes, 0, bytes.length, jar.domain);
+			}
+			catch (final IOException e) {
+				throw new ClassNotFoundException(name, e);
+			}
+		}
+		throw new ClassNotFoundException(name);
+	}
+
+	@Override
+	protected URL findResource(final String name) {
+		final Enumeration<URL> urls = findResources(name, true);
+		return urls.hasMoreElements() ? urls.nextElement() : null;
+	}
+
+	@Override
+	protected Enumeration<URL> findResources(final String name) {
+		return findResources(name, false);
+	}
+
+	// -- Closeable methods --
+
+	/** Closes all opened jars; they are reopened when needed again. */
+	@Override
+	public void close() throws IOException {
+		for (final Jar jar : jars.values()) {
+			jar.close();
+		}
+	}
+
+	// -- Checkpoint.Resource methods --
+
+	@Override
+	public void beforeCheckpoint() throws IOException {
+		close();
+	}
+
+	@Override
+	public void afterRestore() {
+		// NB: The jars are reopened lazily.
+	}
+
+	// -- Helper methods --
+
+	/** Gets the jars which may contain the given resource. */
+	private List<Jar> getJars(final String path) {
+		final List<File> candidates = index.getCandidates(path);
+		final List<Jar> result = new ArrayList<>(candidates.size() + unindexed
+			.size());
+		for (final File file : candidates) {
+			final Jar jar = jars.get(file);
+			if (jar != null) result.add(jar);
+		}
+		result.addAll(unindexed);
+		return result;
+	}
+
+	private Enumeration<URL> findResources(final String name,
+		final boolean firstOnly)
+	{
+		final String path = name.startsWith("/") ? name.substring(1) : name;
+		final List<URL> urls = new ArrayList<>();
+		for (final Jar jar : getJars(path)) {
+			try {
+				if (jar.open().getEntry(path) == null) continue;
+				urls.add(new URL("jar:" + jar.url + "!/" + path));
+				if (firstOnly) break;
+			}
+			catch (final IOException e) {
+				System.err.println("[WARNING] Cannot read " + jar.file + ": " + e);
+			}
+		}
+		return Collections.enumeration(urls);
+	}
+
+	private void definePackage(final String className, final Jar jar)
+		throws IOException
+	{
+		final int dot = className.lastIndexOf('.');
+		if (dot < 0) return;
+		final String name = className.substring(0, dot);
+		if (getPackage(name) != null) return;
+		final Manifest manifest = jar.open().getManifest();
+		try {
+			if (manifest == null) {
+				definePackage(name, null, null, null, null, null, null, null);
+			}
+			else {
+				final Attributes a = manifest.getMainAttributes();
+				definePackage(name, a.getValue(Attributes.Name.SPECIFICATION_TITLE), a
+					.getValue(Attributes.Name.SPECIFICATION_VERSION), a.getValue(
+						Attributes.Name.SPECIFICATION_VENDOR), a.getValue(
+							Attributes.Name.IMPLEMENTATION_TITLE), a.getValue(
+								Attributes.Name.IMPLEMENTATION_VERSION), a.getValue(
+									Attributes.Name.IMPLEMENTATION_VENDOR), null);
+			}
+		}
+		catch (final IllegalArgumentException e) {
+			// NB: Another thread defined the package in the meantime.
+		}
+	}
+
+	private static byte[] read(final JarFile jarFile, final JarEntry entry)
+		throws IOException
+	{
+		final long size = entry.getSize();
+		final ByteArrayOutputStream out = new ByteArrayOutputStream(size > 0
+			? (int) size : 16384);
+		final byte[] buffer = new byte[16384];
+		try (final InputStream in = jarFile.getInputStream(entry)) {
+			for (;;) {
+				final int count = in.read(buffer);
+				if (count < 0) break;
+				out.write(buffer, 0, count);
+			}
+		}
+		return out.toByteArray();
+	}
+
+	// -- Helper classes --
+
+	/** A jar, opened on first use. */
+	private class Jar {
+
+		private final File file;
+		private final URL url;
+		private final ProtectionDomain domain;
+		private JarFile jarFile;
+
+		private Jar(final File file) {
+			this.file = file;
+			try {
+				url = file.toURI().toURL();
+			}
+			catch (final MalformedURLException e) {
+				throw new IllegalArgumentException(e);
+			}
+			domain = new ProtectionDomain(new CodeSource(url,
+				(Certificate[]) null), null, IndexedClassLoader.this, null);
+		}
+
+		private synchronized JarFile open() throws IOException {
+			if (jarFile == null) jarFile = new JarFile(file);
+			return jarFile;
+		}
+
+		private synchronized void close() throws IOException {
+			if (jarFile == null) return;
+			jarFile.close();
+			jarFile = null;
+		}
+	}
+
+}
@@ -0,0 +1,152 @@
+/*
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2015 Fiji
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.startup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+
+import org.scijava.plugin.Plugin;
+
+/**
+ * Caches the merged SciJava plugin index of the Fiji distribution.
+ * <p>
+ * SciJava discovers {@link Plugin} annotations by reading the
+ * {@value #INDEX_RESOURCE} resource of every jar on the class path. This
+ * class concatenates all of them into a single file, keyed by the
+ * {@link StartupCache#fingerprint fingerprint} of the distribution's jars,
+ * and hands out a class loader which serves that file in place of the
+ * individual resources. When no jar changed, discovery therefore reads one
+ * file instead of opening every jar.
+ * </p>
+ */
+public class PluginIndexCache {
+
+	/** The resource holding the plugin annotations of a jar. */
+	public static final String INDEX_RESOURCE = "META-INF/json/" +
+		Plugin.class.getName();
+
+	private static final String PREFIX = "plugin-index";
+
+	private final ClassLoader classLoader;
+
+	public PluginIndexCache(final ClassLoader classLoader) {
+		this.classLoader = classLoader;
+	}
+
+	/**
+	 * Gets a class loader which discovers plugins from the cached index.
+	 * <p>
+	 * If the cache is outdated, it is regenerated first. If the cache cannot
+	 * be used at all, the original class loader is returned.
+	 * </p>
+	 */
+	public ClassLoader getClassLoader() {
+		if (!StartupCache.isEnabled()) return classLoader;
+		try {
+			return new IndexClassLoader(classLoader, getIndex());
+		}
+		catch (final IOException e) {
+			System.err.println("[WARNING] Could not cache the plugin index: " + e);
+			return classLoader;
+		}
+	}
+
+	/** Gets the URL of the up-to-date cached index, writing it if needed. */
+	public URL getIndex() throws IOException {
+		final List<File> files = StartupCache.getDistributionFiles();
+		// NB: Class directories do not change their modification time when
+		// their contents change; look at their plugin index instead.
+		for (int i = files.size() - 1; i >= 0; i--) {
+			final File file = files.get(i);
+			if (file.isDirectory()) files.add(new File(file, INDEX_RESOURCE));
+		}
+		final File cache = StartupCache.getFile(PREFIX, StartupCache.fingerprint(
+			files), ".json");
+		if (!StartupCache.use(cache)) StartupCache.write(cache, merge(), PREFIX);
+		return toURL(cache);
+	}
+
+	// -- Helper methods --
+
+	/** Concatenates the plugin indexes of all class path elements. */
+	private byte[] merge() throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final byte[] buffer = new byte[65536];
+		final Enumeration<URL> urls = classLoader.getResources(INDEX_RESOURCE);
+		while (urls.hasMoreElements()) {
+			try (final InputStream in = urls.nextElement().openStream()) {
+				for (;;) {
+					final int count = in.read(buffer);
+					if (count < 0) break;
+					out.write(buffer, 0, count);
+				}
+			}
+			// NB: The index is a sequence of JSON objects; separate them.
+			out.write('\n');
+		}
+		return out.toByteArray();
+	}
+
+	private static URL toURL(final File file) throws IOException {
+		try {
+			return file.toURI().toURL();
+		}
+		catch (final MalformedURLException e) {
+			throw new IOException(e);
+		}
+	}
+
+	// -- Helper classes --
+
+	/**
+	 * Delegates everything to its parent, except for the lookup of the plugin
+	 * index.
+	 */
+	private static class IndexClassLoader extends ClassLoader {
+
+		private final URL index;
+
+		private IndexClassLoader(final ClassLoader parent, final URL index) {
+			super(parent);
+			this.index = index;
+		}
+
+		@Override
+		public Enumeration<URL> getResources(final String name)
+			throws IOException
+		{
+			if (INDEX_RESOURCE.equals(name)) {
+				return Collections.enumeration(Collections.singleton(index));
+			}
+			return super.getResources(name);
+		}
+	}
+
+}
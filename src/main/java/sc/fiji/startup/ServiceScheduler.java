@@ -0,0 +1,353 @@
+/*
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2015 Fiji
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package sc.fiji.startup;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+import org.scijava.Context;
+import org.scijava.InstantiableException;
+import org.scijava.event.EventService;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.PluginInfo;
+import org.scijava.service.Service;
+import org.scijava.service.event.ServicesLoadedEvent;
+import org.scijava.util.ClassUtils;
+
+/**
+ * Loads the services of a context, initializing independent services in
+ * parallel.
+ * <p>
+ * A service depends on the services it declares as {@link Parameter}
+ * fields. All services are instantiated, wired up and added to the context
+ * first; then each service is initialized as soon as all of its
+ * dependencies are, on a fork-join pool. Since the context already knows all
+ * services at that point, a service may look up other services during its
+ * initialization, but only those it declared as dependencies are guaranteed
+ * to be initialized already.
+ * </p>
+ * <p>
+ * Optionally, only a given set of services (and, transitively, their
+ * dependencies) is loaded, so that services a headless run never uses are
+ * never initialized.
+ * </p>
+ */
+public class ServiceScheduler {
+
+	private final Context context;
+	private final StartupProfiler profiler;
+
+	/** The enabled service plugins, by descending priority. */
+	private final List<PluginInfo<Service>> candidates = new ArrayList<>();
+
+	private final Map<Class<?>, Node> nodes = new LinkedHashMap<>();
+
+	public ServiceScheduler(final Context context,
+		final StartupProfiler profiler)
+	{
+		this.context = context;
+		this.profiler = profiler;
+		for (final PluginInfo<Service> info : context.getPluginIndex().getPlugins(
+			Service.class))
+		{
+			if (info.isEnabled()) candidates.add(info);
+		}
+	}
+
+	/**
+	 * Loads the given services and their dependencies.
+	 *
+	 * @param roots the services to load, or null to load all services
+	 * @param parallelism the number of threads to initialize the services on;
+	 *          1 initializes them one by one on the current thread
+	 */
+	public void load(final Collection<Class<? extends Service>> roots,
+		final int parallelism)
+	{
+		try (StartupProfiler.Phase phase = profiler.phase("service graph")) {
+			if (roots == null) {
+				for (final PluginInfo<Service> info : candidates) {
+					final Class<? extends Service> c = loadClass(info);
+					// NB: Like Context#getService, a compatible service will do.
+					if (c == null || context.getServiceIndex().getService(c) != null) {
+						continue;
+					}
+					node(c);
+				}
+			}
+			else {
+				for (final Class<? extends Service> root : roots) {
+					final Class<? extends Service> c = resolve(root);
+					if (c != null) node(c);
+					else fail("No service available for " + root.getName(), null);
+				}
+			}
+		}
+
+		final List<Node> order = sort();
+		for (final Node node : order) {
+			context.getServiceIndex().add(node.service);
+		}
+
+		if (parallelism > 1) initializeInParallel(order, parallelism);
+		else {
+			for (final Node node : order) {
+				node.initialize();
+			}
+		}
+
+		// NB: Drop the services which failed to initialize.
+		for (final Node node : order) {
+			if (node.failure != null) context.getServiceIndex().remove(node.service);
+		}
+		for (final Node node : order) {
+			if (node.failure == null) node.service.registerEventHandlers();
+		}
+
+		final EventService eventService = context.getService(EventService.class);
+		if (eventService != null) {
+			eventService.publishLater(new ServicesLoadedEvent());
+		}
+	}
+
+	// -- Helper methods --
+
+	/** Finds the highest-priority service class compatible with the given one. */
+	private Class<? extends Service> resolve(final Class<?> type) {
+		for (final Node node : nodes.values()) {
+			if (type.isAssignableFrom(node.type)) return node.type;
+		}
+		for (final PluginInfo<Service> info : candidates) {
+			final Class<? extends Service> c = loadClass(info);
+			if (c != null && type.isAssignableFrom(c)) return c;
+		}
+		return null;
+	}
+
+	/**
+	 * Instantiates the given service, along with its dependencies, unless a
+	 * compatible service (e.g. of a higher-priority subclass) is scheduled
+	 * already.
+	 */
+	private Node node(final Class<? extends Service> c) {
+		for (final Node existing : nodes.values()) {
+			if (c.isAssignableFrom(existing.type)) return existing;
+		}
+
+		final Service service;
+		try {
+			service = c.newInstance();
+		}
+		catch (final InstantiationException | IllegalAccessException e) {
+			fail("Invalid service: " + c.getName(), e);
+			return null;
+		}
+		// NB: Service contexts do not inject anything; we wire it up here.
+		service.setContext(context);
+		final PluginInfo<Service> info = info(c);
+		if (info != null) {
+			service.setInfo(info);
+			service.setPriority(info.getPriority());
+		}
+
+		final Node node = new Node(c, service);
+		nodes.put(c, node);
+
+		for (final Field field : ClassUtils.getAnnotatedFields(c,
+			Parameter.class))
+		{
+			final Class<?> type = field.getType();
+			if (type.isAssignableFrom(Context.class)) {
+				ClassUtils.setValue(field, service, context);
+				continue;
+			}
+			if (!Service.class.isAssignableFrom(type)) continue;
+			final Service loaded = context.getServiceIndex().getService(type
+				.asSubclass(Service.class));
+			if (loaded != null) {
+				ClassUtils.setValue(field, service, loaded);
+				continue;
+			}
+			final Class<? extends Service> dependency = resolve(type);
+			final Node dependencyNode = dependency == null ? null : node(
+				dependency);
+			if (dependencyNode == null) {
+				if (field.getAnnotation(Parameter.class).required()) {
+					fail("Service " + c.getName() + " requires " + type.getName(),
+						null);
+				}
+				continue;
+			}
+			node.dependencies.add(dependencyNode);
+			ClassUtils.setValue(field, service, dependencyNode.service);
+		}
+		return node;
+	}
+
+	/**
+	 * Sorts the services such that every service comes after its
+	 * dependencies. Dependency cycles are broken arbitrarily.
+	 */
+	private List<Node> sort() {
+		final List<Node> order = new ArrayList<>();
+		final Set<Node> visited = new HashSet<>();
+		for (final Node node : nodes.values()) {
+			visit(node, visited, order);
+		}
+		return order;
+	}
+
+	private void visit(final Node node, final Set<Node> visited,
+		final List<Node> order)
+	{
+		if (!visited.add(node)) return;
+		for (final Node dependency : node.dependencies) {
+			visit(dependency, visited, order);
+		}
+		order.add(node);
+	}
+
+	private void initializeInParallel(final List<Node> order,
+		final int parallelism)
+	{
+		// NB: Services expect the same context class loader as the main thread.
+		final ClassLoader classLoader =
+			Thread.currentThread().getContextClassLoader();
+		final ForkJoinPool pool = new ForkJoinPool(parallelism,
+			new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+
+				@Override
+				public ForkJoinWorkerThread newThread(final ForkJoinPool p) {
+					final ForkJoinWorkerThread thread = new ForkJoinWorkerThread(p) {
+						// NB: The constructor is protected.
+					};
+					thread.setName("service-init-" + thread.getPoolIndex());
+					thread.setContextClassLoader(classLoader);
+					return thread;
+				}
+			}, null, false);
+
+		final Map<Node, CompletableFuture<Void>> futures = new IdentityHashMap<>();
+		try {
+			for (final Node node : order) {
+				final List<CompletableFuture<Void>> dependencies = new ArrayList<>();
+				for (final Node dependency : node.dependencies) {
+					// NB: Dependencies on a cycle have no future yet; skip them.
+					final CompletableFuture<Void> future = futures.get(dependency);
+					if (future != null) dependencies.add(future);
+				}
+				futures.put(node, CompletableFuture.allOf(dependencies.toArray(
+					new CompletableFuture<?>[dependencies.size()])).thenRunAsync(
+						new Runnable() {
+
+							@Override
+							public void run() {
+								node.initialize();
+							}
+						}, pool));
+			}
+			CompletableFuture.allOf(futures.values().toArray(
+				new CompletableFuture<?>[futures.size()])).join();
+		}
+		catch (final CompletionException e) {
+			// NB: Only strict contexts let failures escape Node#initialize.
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw e;
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+
+	private PluginInfo<Service> info(final Class<?> c) {
+		for (final PluginInfo<Service> info : candidates) {
+			if (info.getClassName().equals(c.getName())) return info;
+		}
+		return null;
+	}
+
+	private Class<? extends Service> loadClass(final PluginInfo<Service> info) {
+		try {
+			return info.loadClass();
+		}
+		catch (final InstantiableException e) {
+			fail("Invalid service: " + info.getClassName(), e);
+			return null;
+		}
+	}
+
+	private void fail(final String message, final Throwable cause) {
+		if (context.isStrict()) throw new IllegalArgumentException(message, cause);
+		System.err.println("[WARNING] " + message);
+		if (cause != null) cause.printStackTrace();
+	}
+
+	// -- Helper classes --
+
+	private class Node {
+
+		private final Class<? extends Service> type;
+		private final Service service;
+		private final List<Node> dependencies = new ArrayList<>();
+		private Throwable failure;
+
+		private Node(final Class<? extends Service> type, final Service service) {
+			this.type = type;
+			this.service = service;
+		}
+
+		private void initialize() {
+			for (final Node dependency : dependencies) {
+				if (dependency.failure == null) continue;
+				failure = dependency.failure;
+				fail("Service " + type.getName() + " requires failed service " +
+					dependency.type.getName(), null);
+				return;
+			}
+			try (StartupProfiler.Phase phase = profiler.phase("service: " + type
+				.getName()))
+			{
+				service.initialize();
+			}
+			catch (final Throwable t) {
+				failure = t;
+				fail("Could not initialize service " + type.getName(), t);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,276 @@
+/*
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2015 Fiji
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.startup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Utility methods for the files Fiji caches between launches.
+ * <p>
+ * Every cache entry is keyed by a fingerprint of the files it was computed
+ * from (see {@link #fingerprint(Collection)}), so an entry is simply never
+ * used again once the distribution changes, e.g. after the updater replaced
+ * a jar.
+ * </p>
+ * <p>
+ * As the cache directory is shared by all installations of a user, several
+ * entries of each cache are kept: the modification time of an entry records
+ * when it was last {@link #use(File) used}, and entries are only deleted
+ * once they went unused for {@value #MAX_UNUSED_DAYS} days, or for an hour
+ * if there are more than {@value #MAX_ENTRIES} entries of the same cache.
+ * </p>
+ */
+public final class StartupCache {
+
+	/** System property overriding the directory the caches are stored in. */
+	public static final String CACHE_DIR_PROPERTY = "fiji.cache.dir";
+
+	/** System property which disables all startup caches when set to false. */
+	public static final String ENABLED_PROPERTY = "fiji.cache";
+
+	/** The number of entries kept per cache, even when unused. */
+	public static final int MAX_ENTRIES = 8;
+
+	/** The days after which unused entries are deleted. */
+	public static final int MAX_UNUSED_DAYS = 30;
+
+	private static final long HOUR_MILLIS = 60 * 60 * 1000L;
+
+	private StartupCache() {
+		// Prevent instantiation of utility class.
+	}
+
+	/** Whether the startup caches should be used. */
+	public static boolean isEnabled() {
+		return !"false".equalsIgnoreCase(System.getProperty(ENABLED_PROPERTY));
+	}
+
+	/** Gets the directory the caches are stored in. */
+	public static File getDirectory() {
+		final String path = System.getProperty(CACHE_DIR_PROPERTY);
+		if (path != null && !path.isEmpty()) return new File(path);
+		return new File(System.getProperty("user.home"), ".cache" +
+			File.separator + "fiji");
+	}
+
+	/**
+	 * Gets the root of the Fiji installation, or null if it is unknown.
+	 */
+	public static File getBaseDirectory() {
+		for (final String property : Arrays.asList("fiji.dir", "ij.dir",
+			"imagej.dir", "plugins.dir"))
+		{
+			final String path = System.getProperty(property);
+			if (path == null || path.isEmpty()) continue;
+			final File dir = new File(path);
+			if (dir.isDirectory()) return dir;
+		}
+		return null;
+	}
+
+	/**
+	 * Lists the files making up the distribution: all {@code .jar} files in
+	 * {@code jars/} and {@code plugins/} (including subdirectories), and all
+	 * elements of the class path.
+	 */
+	public static List<File> getDistributionFiles() {
+		final List<File> files = new ArrayList<>();
+		final File base = getBaseDirectory();
+		if (base != null) {
+			listJars(new File(base, "jars"), files);
+			listJars(new File(base, "plugins"), files);
+		}
+		final String classPath = System.getProperty("java.class.path");
+		if (classPath != null) {
+			for (final String path : classPath.split(File.pathSeparator)) {
+				if (!path.isEmpty()) files.add(new File(path));
+			}
+		}
+		return files;
+	}
+
+	/**
+	 * Computes a fingerprint of the given files.
+	 * <p>
+	 * The fingerprint covers the path, size and modification time of each
+	 * file, but not its contents: reading every jar of the distribution would
+	 * take longer than what the caches save.
+	 * </p>
+	 */
+	public static String fingerprint(final Collection<File> files) {
+		final MessageDigest digest = sha1();
+		for (final File file : files) {
+			final String line = file.getAbsolutePath() + "\t" + file.length() +
+				"\t" + file.lastModified() + "\n";
+			digest.update(utf8(line));
+		}
+		return hex(digest.digest());
+	}
+
+	/** Computes the SHA-1 hash of the given string, as hexadecimal digits. */
+	public static String hash(final String string) {
+		return hex(sha1().digest(utf8(string)));
+	}
+
+	/**
+	 * Gets the cache file with the given prefix and fingerprint.
+	 * <p>
+	 * Cache files are named {@code <prefix>-<fingerprint><suffix>}.
+	 * </p>
+	 */
+	public static File getFile(final String prefix, final String fingerprint,
+		final String suffix)
+	{
+		return new File(getDirectory(), prefix + "-" + fingerprint + suffix);
+	}
+
+	/**
+	 * Tells whether the given cache file exists, and marks it as used if so,
+	 * so that it is not deleted while it is still in use.
+	 */
+	public static boolean use(final File file) {
+		if (!file.exists()) return false;
+		// NB: If the time cannot be set, the entry is merely evicted earlier.
+		file.setLastModified(System.currentTimeMillis());
+		return true;
+	}
+
+	/**
+	 * Atomically replaces the given cache file with the given contents, and
+	 * deletes the files of the same cache which went unused for too long.
+	 *
+	 * @param prefix the prefix of the cache's files, or null to keep all
+	 *          other files
+	 */
+	public static void write(final File file, final byte[] contents,
+		final String prefix) throws IOException
+	{
+		final File dir = file.getParentFile();
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Could not make directory " + dir);
+		}
+		final File tmp = File.createTempFile(prefix == null ? "cache" : prefix,
+			".tmp", dir);
+		try {
+			Files.write(tmp.toPath(), contents);
+			Files.move(tmp.toPath(), file.toPath(),
+				StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		}
+		finally {
+			tmp.delete();
+		}
+		if (prefix != null) evict(dir, prefix, file);
+	}
+
+	// -- Helper methods --
+
+	/** Deletes the unused files of the cache with the given prefix. */
+	private static void evict(final File dir, final String prefix,
+		final File written)
+	{
+		final File[] list = dir.listFiles();
+		if (list == null) return;
+		final Map<File, Long> lastUsed = new HashMap<>();
+		for (final File other : list) {
+			final String name = other.getName();
+			// NB: Leave the temporary files of concurrent writes alone.
+			if (name.startsWith(prefix + "-") && !name.endsWith(".tmp") && !other
+				.equals(written))
+			{
+				lastUsed.put(other, other.lastModified());
+			}
+		}
+		final List<File> entries = new ArrayList<>(lastUsed.keySet());
+		Collections.sort(entries, new Comparator<File>() {
+
+			@Override
+			public int compare(final File a, final File b) {
+				return Long.compare(lastUsed.get(b), lastUsed.get(a));
+			}
+		});
+		final long now = System.currentTimeMillis();
+		for (int i = 0; i < entries.size(); i++) {
+			final long unused = now - lastUsed.get(entries.get(i));
+			final boolean stale = unused > MAX_UNUSED_DAYS * 24 * HOUR_MILLIS;
+			// NB: The written file counts towards the limit, too.
+			final boolean surplus = i + 1 >= MAX_ENTRIES && unused > HOUR_MILLIS;
+			if (stale || surplus) entries.get(i).delete();
+		}
+	}
+
+	private static void listJars(final File dir, final List<File> result) {
+		final File[] list = dir.listFiles();
+		if (list == null) return;
+		Arrays.sort(list);
+		final List<File> dirs = new ArrayList<>();
+		for (final File file : list) {
+			if (file.isDirectory()) dirs.add(file);
+			else if (file.getName().endsWith(".jar")) result.add(file);
+		}
+		for (final File subdir : dirs) {
+			listJars(subdir, result);
+		}
+	}
+
+	private static MessageDigest sha1() {
+		try {
+			return MessageDigest.getInstance("SHA-1");
+		}
+		catch (final NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static byte[] utf8(final String string) {
+		try {
+			return string.getBytes("UTF-8");
+		}
+		catch (final UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String hex(final byte[] bytes) {
+		final StringBuilder builder = new StringBuilder();
+		for (final byte b : bytes) {
+			builder.append(String.format("%02x", b & 0xff));
+		}
+		return builder.toString();
+	}
+
+}
@@ -0,0 +1,250 @@
+/*
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2015 Fiji
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.startup;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Records how long each phase of a Fiji startup takes.
+ * <p>
+ * Profiling is opt-in: it is only enabled when the
+ * {@value #PROFILE_PROPERTY} system property names the file the report
+ * should be written to, e.g.
+ * {@code -Dfiji.startup.profile=/tmp/startup.json}. When disabled, all
+ * methods are cheap no-ops, so startup code can open phases
+ * unconditionally.
+ * </p>
+ * <p>
+ * The report is a JSON document listing every phase with its start offset
+ * (relative to the JVM start) and its duration, in milliseconds. Phases may
+ * nest; nested phases are reported with their depth, and the duration of a
+ * phase always includes its nested phases. Phases may also run concurrently
+ * on different threads; every phase is reported with the name of the thread
+ * it ran on.
+ * </p>
+ */
+public class StartupProfiler {
+
+	/** System property naming the file to write the startup report to. */
+	public static final String PROFILE_PROPERTY = "fiji.startup.profile";
+
+	/** Version of the report format, bumped whenever it changes. */
+	public static final int REPORT_VERSION = 1;
+
+	private static StartupProfiler instance;
+
+	private final File reportFile;
+
+	/** Milliseconds between JVM start and the creation of this profiler. */
+	private final long originOffset;
+
+	/** {@link System#nanoTime()} at the creation of this profiler. */
+	private final long originNanos;
+
+	private final List<Phase> phases = new ArrayList<>();
+
+	private final AtomicBoolean written = new AtomicBoolean();
+
+	private final ThreadLocal<int[]> depth = new ThreadLocal<int[]>() {
+
+		@Override
+		protected int[] initialValue() {
+			return new int[1];
+		}
+	};
+
+	StartupProfiler(final File reportFile) {
+		this.reportFile = reportFile;
+		originNanos = System.nanoTime();
+		originOffset = System.currentTimeMillis() -
+			ManagementFactory.getRuntimeMXBean().getStartTime();
+	}
+
+	/**
+	 * Gets the profiler of this JVM, configured from the
+	 * {@value #PROFILE_PROPERTY} system property.
+	 */
+	public static synchronized StartupProfiler get() {
+		if (instance == null) {
+			final String path = System.getProperty(PROFILE_PROPERTY);
+			instance = new StartupProfiler(path == null || path.isEmpty() ? null
+				: new File(path));
+		}
+		return instance;
+	}
+
+	/** Whether this profiler records anything at all. */
+	public boolean isEnabled() {
+		return reportFile != null;
+	}
+
+	/**
+	 * Opens a new phase on the current thread; the phase ends when the
+	 * returned object is closed.
+	 * <p>
+	 * Typical usage:
+	 * </p>
+	 * <pre>
+	 * try (StartupProfiler.Phase phase = profiler.phase("menus")) {
+	 * 	buildMenus();
+	 * }
+	 * </pre>
+	 */
+	public synchronized Phase phase(final String name) {
+		if (!isEnabled()) return Phase.NONE;
+		final Phase phase = new Phase(this, name, depth.get()[0]++, System
+			.nanoTime());
+		phases.add(phase);
+		return phase;
+	}
+
+	/**
+	 * Writes the report, unless it has already been written. Subsequent calls
+	 * are ignored, so this can be called both at the end of the startup and
+	 * from a shutdown hook.
+	 */
+	public void writeReport() {
+		if (!isEnabled() || !written.compareAndSet(false, true)) return;
+		final File parent = reportFile.getAbsoluteFile().getParentFile();
+		if (parent != null && !parent.isDirectory()) parent.mkdirs();
+		try (final PrintWriter out = new PrintWriter(new OutputStreamWriter(
+			new FileOutputStream(reportFile), "UTF-8")))
+		{
+			writeReport(out);
+		}
+		catch (final IOException e) {
+			System.err.println("Could not write startup profile to " +
+				reportFile + ": " + e);
+		}
+	}
+
+	/**
+	 * Makes sure the report is written even if the application exits before
+	 * the startup finished (e.g. a headless batch run calling
+	 * {@link System#exit(int)}).
+	 */
+	public void writeReportOnExit() {
+		if (!isEnabled()) return;
+		Runtime.getRuntime().addShutdownHook(new Thread("startup-profiler") {
+
+			@Override
+			public void run() {
+				writeReport();
+			}
+		});
+	}
+
+	// -- Helper methods --
+
+	private synchronized void end(final Phase phase, final long nanos) {
+		phase.end = nanos;
+		depth.get()[0] = phase.depth;
+	}
+
+	private synchronized void writeReport(final PrintWriter out) {
+		final long now = System.nanoTime();
+		out.println("{");
+		out.println("  \"version\": " + REPORT_VERSION + ",");
+		out.println("  \"java\": " + quote(System.getProperty("java.version")) +
+			",");
+		out.println("  \"vm\": " + quote(System.getProperty("java.vm.name")) +
+			",");
+		out.println("  \"os\": " + quote(System.getProperty("os.name") + " " +
+			System.getProperty("os.arch")) + ",");
+		out.println("  \"processors\": " +
+			Runtime.getRuntime().availableProcessors() + ",");
+		out.println("  \"main\": " + originOffset + ",");
+		out.println("  \"total\": " + offset(now) + ",");
+		out.println("  \"phases\": [");
+		for (int i = 0; i < phases.size(); i++) {
+			final Phase phase = phases.get(i);
+			final long end = phase.end < 0 ? now : phase.end;
+			out.print("    {\"name\": " + quote(phase.name) + ", \"thread\": " +
+				quote(phase.thread) + ", \"depth\": " + phase.depth +
+				", \"start\": " + offset(phase.start) +
+				", \"duration\": " + millis(end - phase.start));
+			if (phase.end < 0) out.print(", \"unfinished\": true");
+			out.println(i < phases.size() - 1 ? "}," : "}");
+		}
+		out.println("  ]");
+		out.println("}");
+	}
+
+	/** Converts a {@link System#nanoTime()} to ms since the JVM start. */
+	private long offset(final long nanos) {
+		return originOffset + millis(nanos - originNanos);
+	}
+
+	private static long millis(final long nanos) {
+		return Math.round(nanos / 1e6);
+	}
+
+	private static String quote(final String string) {
+		if (string == null) return "null";
+		final StringBuilder builder = new StringBuilder("\"");
+		for (final char c : string.toCharArray()) {
+			if (c == '"' || c == '\\') builder.append('\\').append(c);
+			else if (c < 0x20) builder.append(String.format("\\u%04x", (int) c));
+			else builder.append(c);
+		}
+		return builder.append('"').toString();
+	}
+
+	// -- Helper classes --
+
+	/** A startup phase; closing it marks its end. */
+	public static class Phase implements AutoCloseable {
+
+		private static final Phase NONE = new Phase(null, null, 0, 0);
+
+		private final StartupProfiler profiler;
+		private final String name;
+		private final String thread = Thread.currentThread().getName();
+		private final int depth;
+		private final long start;
+		private long end = -1;
+
+		private Phase(final StartupProfiler profiler, final String name,
+			final int depth, final long start)
+		{
+			this.profiler = profiler;
+			this.name = name;
+			this.depth = depth;
+			this.start = start;
+		}
+
+		@Override
+		public void close() {
+			if (profiler != null && end < 0) profiler.end(this, System.nanoTime());
+		}
+	}
+
+}
@@ -0,0 +1,400 @@
+/*
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2015 Fiji
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package sc.fiji.table;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Saves and opens {@link ColumnarTable}s in a compact binary format.
+ * <p>
+ * The values of each column are stored as they are held in memory, so that
+ * they can be copied in bulk instead of being formatted and parsed. All
+ * numbers are little-endian:
+ * </p>
+ * <ul>
+ * <li>the magic {@code FJCT}, the format version (int), the number of columns
+ * (int) and of rows (int);</li>
+ * <li>for each column: its name (length-prefixed UTF-8) and its type
+ * (byte);</li>
+ * <li>for each column: its values, i.e. one long or double per row, or for
+ * text columns the number of distinct values (int), each value
+ * (length-prefixed UTF-8) and one code (int) per row.</li>
+ * </ul>
+ */
+public final class BinaryTableFormat {
+
+	private static final byte[] MAGIC = { 'F', 'J', 'C', 'T' };
+
+	/** Version of the format, bumped whenever it changes. */
+	public static final int VERSION = 1;
+
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	private BinaryTableFormat() {
+		// NB: Prevent instantiation of utility class.
+	}
+
+	/** Writes the given table to the given file. */
+	public static void write(final ColumnarTable table, final File file)
+		throws IOException
+	{
+		try (final FileChannel channel = FileChannel.open(file.toPath(),
+			StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+			StandardOpenOption.TRUNCATE_EXISTING))
+		{
+			final Output out = new Output(channel);
+			out.putBytes(MAGIC);
+			out.putInt(VERSION);
+			out.putInt(table.getColumnCount());
+			out.putInt(table.getRowCount());
+			for (final Column column : table.getColumns()) {
+				out.putString(column.getName());
+				out.require(1);
+				out.buffer.put((byte) column.getType().ordinal());
+			}
+			for (final Column column : table.getColumns()) {
+				writeValues(column, out);
+			}
+			out.flush();
+		}
+	}
+
+	/**
+	 * Reads a table from the given file, optionally holding its values
+	 * outside of the Java heap.
+	 */
+	public static ColumnarTable read(final File file, final boolean offHeap)
+		throws IOException
+	{
+		try (final FileChannel channel = FileChannel.open(file.toPath(),
+			StandardOpenOption.READ))
+		{
+			final Input in = new Input(channel);
+			final byte[] magic = new byte[MAGIC.length];
+			in.getBytes(magic);
+			for (int i = 0; i < MAGIC.length; i++) {
+				if (magic[i] != MAGIC[i]) {
+					throw new IOException("Not a table file: " + file);
+				}
+			}
+			final int version = in.getInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported table file version " + version +
+					": " + file);
+			}
+			final int columnCount = in.getInt();
+			final int rows = in.getInt();
+			final Column[] columns = new Column[columnCount];
+			final Column.Type[] types = Column.Type.values();
+			for (int i = 0; i < columnCount; i++) {
+				final String name = in.getString();
+				in.require(1);
+				final int type = in.buffer.get();
+				if (type < 0 || type >= types.length) {
+					throw new IOException("Invalid column type " + type + ": " + file);
+				}
+				columns[i] = Column.create(name, types[type], offHeap);
+			}
+			final ColumnarTable table = new ColumnarTable(offHeap);
+			for (final Column column : columns) {
+				readValues(column, rows, in);
+				table.addColumn(column);
+			}
+			return table;
+		}
+	}
+
+	// -- Helper methods --
+
+	private static void writeValues(final Column column, final Output out)
+		throws IOException
+	{
+		final int rows = column.size();
+		if (column instanceof LongColumn) {
+			final long[] chunk = new long[Column.CHUNK_SIZE];
+			for (int row = 0; row < rows; row += chunk.length) {
+				final int count = Math.min(chunk.length, rows - row);
+				((LongColumn) column).get(row, chunk, 0, count);
+				out.putLongs(chunk, count);
+			}
+		}
+		else if (column instanceof DoubleColumn) {
+			final double[] chunk = new double[Column.CHUNK_SIZE];
+			for (int row = 0; row < rows; row += chunk.length) {
+				final int count = Math.min(chunk.length, rows - row);
+				((DoubleColumn) column).get(row, chunk, 0, count);
+				out.putDoubles(chunk, count);
+			}
+		}
+		else {
+			final StringColumn strings = (StringColumn) column;
+			out.putInt(strings.getDictionarySize());
+			for (int code = 0; code < strings.getDictionarySize(); code++) {
+				out.putString(strings.decode(code));
+			}
+			final int[] chunk = new int[Column.CHUNK_SIZE];
+			for (int row = 0; row < rows; row += chunk.length) {
+				final int count = Math.min(chunk.length, rows - row);
+				strings.getCodes(row, chunk, 0, count);
+				out.putInts(chunk, count);
+			}
+		}
+	}
+
+	private static void readValues(final Column column, final int rows,
+		final Input in) throws IOException
+	{
+		if (column instanceof LongColumn) {
+			final long[] chunk = new long[Column.CHUNK_SIZE];
+			for (int row = 0; row < rows; row += chunk.length) {
+				final int count = Math.min(chunk.length, rows - row);
+				in.getLongs(chunk, count);
+				((LongColumn) column).add(chunk, count);
+			}
+		}
+		else if (column instanceof DoubleColumn) {
+			final double[] chunk = new double[Column.CHUNK_SIZE];
+			for (int row = 0; row < rows; row += chunk.length) {
+				final int count = Math.min(chunk.length, rows - row);
+				in.getDoubles(chunk, count);
+				((DoubleColumn) column).add(chunk, count);
+			}
+		}
+		else {
+			final StringColumn strings = (StringColumn) column;
+			final int dictionarySize = in.getInt();
+			for (int code = 0; code < dictionarySize; code++) {
+				strings.encode(in.getString());
+			}
+			if (strings.getDictionarySize() != dictionarySize) {
+				throw new IOException("Duplicate values in column " + column
+					.getName());
+			}
+			final int[] chunk = new int[Column.CHUNK_SIZE];
+			for (int row = 0; row < rows; row += chunk.length) {
+				final int count = Math.min(chunk.length, rows - row);
+				in.getInts(chunk, count);
+				try {
+					strings.addCodes(chunk, 0, count);
+				}
+				catch (final IllegalArgumentException e) {
+					throw new IOException(e.getMessage() + " in column " + column
+						.getName());
+				}
+			}
+		}
+	}
+
+	// -- Helper classes --
+
+	/** Writes through a buffer. */
+	private static class Output {
+
+		private final FileChannel channel;
+		private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE)
+			.order(ByteOrder.LITTLE_ENDIAN);
+
+		private Output(final FileChannel channel) {
+			this.channel = channel;
+		}
+
+		/** Makes room for the given number of bytes. */
+		private void require(final int bytes) throws IOException {
+			if (buffer.remaining() < bytes) flush();
+		}
+
+		private void flush() throws IOException {
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			buffer.clear();
+		}
+
+		private void putInt(final int value) throws IOException {
+			require(4);
+			buffer.putInt(value);
+		}
+
+		private void putString(final String value) throws IOException {
+			final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			putInt(bytes.length);
+			putBytes(bytes);
+		}
+
+		private void putBytes(final byte[] bytes) throws IOException {
+			for (int done = 0; done < bytes.length;) {
+				if (!buffer.hasRemaining()) flush();
+				final int n = Math.min(bytes.length - done, buffer.remaining());
+				buffer.put(bytes, done, n);
+				done += n;
+			}
+		}
+
+		private void putLongs(final long[] values, final int count)
+			throws IOException
+		{
+			for (int done = 0; done < count;) {
+				final int n = Math.min(count - done, buffer.remaining() / 8);
+				if (n == 0) {
+					flush();
+					continue;
+				}
+				buffer.asLongBuffer().put(values, done, n);
+				buffer.position(buffer.position() + 8 * n);
+				done += n;
+			}
+		}
+
+		private void putDoubles(final double[] values, final int count)
+			throws IOException
+		{
+			for (int done = 0; done < count;) {
+				final int n = Math.min(count - done, buffer.remaining() / 8);
+				if (n == 0) {
+					flush();
+					continue;
+				}
+				buffer.asDoubleBuffer().put(values, done, n);
+				buffer.position(buffer.position() + 8 * n);
+				done += n;
+			}
+		}
+
+		private void putInts(final int[] values, final int count)
+			throws IOException
+		{
+			for (int done = 0; done < count;) {
+				final int n = Math.min(count - done, buffer.remaining() / 4);
+				if (n == 0) {
+					flush();
+					continue;
+				}
+				buffer.asIntBuffer().put(values, done, n);
+				buffer.position(buffer.position() + 4 * n);
+				done += n;
+			}
+		}
+	}
+
+	/** Reads through a buffer. */
+	private static class Input {
+
+		private final FileChannel channel;
+		private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE)
+			.order(ByteOrder.LITTLE_ENDIAN);
+
+		private Input(final FileChannel channel) {
+			this.channel = channel;
+			buffer.flip();
+		}
+
+		/** Makes sure the given number of bytes are buffered. */
+		private void require(final int bytes) throws IOException {
+			if (buffer.remaining() >= bytes) return;
+			buffer.compact();
+			while (buffer.position() < bytes) {
+				if (channel.read(buffer) < 0) {
+					throw new EOFException("Truncated table file");
+				}
+			}
+			buffer.flip();
+		}
+
+		private int getInt() throws IOException {
+			require(4);
+			return buffer.getInt();
+		}
+
+		private String getString() throws IOException {
+			final int length = getInt();
+			if (length < 0) throw new IOException("Invalid string length");
+			final byte[] bytes = new byte[length];
+			getBytes(bytes);
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+
+		private void getBytes(final byte[] bytes) throws IOException {
+			for (int done = 0; done < bytes.length;) {
+				if (!buffer.hasRemaining()) require(1);
+				final int n = Math.min(bytes.length - done, buffer.remaining());
+				buffer.get(bytes, done, n);
+				done += n;
+			}
+		}
+
+		private void getLongs(final long[] values, final int count)
+			throws IOException
+		{
+			for (int done = 0; done < count;) {
+				final int n = Math.min(count - done, buffer.remaining() / 8);
+				if (n == 0) {
+					require(8);
+					continue;
+				}
+				buffer.asLongBuffer().get(values, done, n);
+				buffer.position(buffer.position() + 8 * n);
+				done += n;
+			}
+		}
+
+		private void getDoubles(final double[] values, final int count)
+			throws IOException
+		{
+			for (int done = 0; done < count;) {
+				final int n = Math.min(count - done, buffer.remaining() / 8);
+				if (n == 0) {
+					require(8);
+					continue;
+				}
+				buffer.asDoubleBuffer().get(values, done, n);
+				buffer.position(buffer.position() + 8 * n);
+				done += n;
+			}
+		}
+
+		private void getInts(final int[] values, final int count)
+			throws IOException
+		{
+			for (int done = 0; done < count;) {
+				final int n = Math.min(count - done, buffer.remaining() / 4);
+				if (n == 0) {
+					require(4);
+					continue;
+				}
+				buffer.asIntBuffer().get(values, done, n);
+				buffer.position(buffer.position() + 4 * n);
+				done += n;
+			}
+		}
+	}
+
+}
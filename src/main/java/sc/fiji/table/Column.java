@@ -0,0 +1,107 @@
+/*
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2015 Fiji
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package sc.fiji.table;
+
+/**
+ * A column of a {@link ColumnarTable}, holding its values in a primitive
+ * array, or outside of the Java heap.
+ */
+public abstract class Column {
+
+	/** The types of values a column can hold. */
+	public enum Type {
+		/** Whole numbers. */
+		LONG,
+		/** Floating-point numbers; NaN marks missing values. */
+		DOUBLE,
+		/** Text. */
+		STRING
+	}
+
+	private final String name;
+
+	protected int size;
+
+	protected Column(final String name) {
+		this.name = name;
+	}
+
+	/** Creates an empty column of the given type. */
+	public static Column create(final String name, final Type type) {
+		return create(name, type, false);
+	}
+
+	/**
+	 * Creates an empty column of the given type, optionally holding its
+	 * values outside of the Java heap.
+	 */
+	public static Column create(final String name, final Type type,
+		final boolean offHeap)
+	{
+		switch (type) {
+			case LONG:
+				return new LongColumn(name, offHeap);
+			case DOUBLE:
+				return new DoubleColumn(name, offHeap);
+			default:
+				return new StringColumn(name, offHeap);
+		}
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/** Gets the number of values in this column. */
+	public int size() {
+		return size;
+	}
+
+	public abstract Type getType();
+
+	/** Whether the values are held outside of the Java heap. */
+	public abstract boolean isOffHeap();
+
+	/** Gets the given value as a number (NaN if it is not one). */
+	public abstract double getDouble(int row);
+
+	/** Gets the given value as text. */
+	public abstract String getString(int row);
+
+	/** Appends the values of the given column, converting them if needed. */
+	public abstract void append(Column column);
+
+	// -- Internal methods --
+
+	/** The number of values copied at a time by bulk operations. */
+	protected static final int CHUNK_SIZE = 8192;
+
+	/** Computes the capacity to grow an array to, for the given size. */
+	protected static int grow(final int capacity, final int required) {
+		if (required < 0) throw new IllegalStateException("Column too large");
+		return Math.max(required, capacity < 1 << 30 ? Math.max(16, 2 *
+			capacity) : Integer.MAX_VALUE - 8);
+	}
+
+}
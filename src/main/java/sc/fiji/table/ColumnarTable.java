@@ -0,0 +1,242 @@
+/*
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2015 Fiji
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package sc.fiji.table;
+
+import ij.measure.ResultsTable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A table whose columns hold their values in primitive arrays, typed per
+ * column.
+ * <p>
+ * Unlike an {@link ResultsTable}, which holds every value as a double (and
+ * text on the side), whole numbers, floating-point numbers and text are each
+ * stored in the column type fitting them. Such a table can be converted to
+ * a {@link ResultsTable} for display and analysis in ImageJ.
+ * </p>
+ * <p>
+ * Tables with tens of millions of rows can hold their values outside of the
+ * Java heap, and can be {@link #save saved} in, and {@link #open opened}
+ * from, a compact {@link BinaryTableFormat binary format}.
+ * </p>
+ */
+public class ColumnarTable {
+
+	/** The name of the column holding the row labels of a ResultsTable. */
+	public static final String LABEL_COLUMN = "Label";
+
+	private final List<Column> columns = new ArrayList<>();
+
+	private final boolean offHeap;
+
+	public ColumnarTable() {
+		this(false);
+	}
+
+	/**
+	 * Creates an empty table whose {@link #addColumn(String, Column.Type)
+	 * new columns} hold their values outside of the Java heap, if requested.
+	 */
+	public ColumnarTable(final boolean offHeap) {
+		this.offHeap = offHeap;
+	}
+
+	/** Opens a table saved in the {@link BinaryTableFormat}. */
+	public static ColumnarTable open(final File file, final boolean offHeap)
+		throws IOException
+	{
+		return BinaryTableFormat.read(file, offHeap);
+	}
+
+	/** Saves this table in the {@link BinaryTableFormat}. */
+	public void save(final File file) throws IOException {
+		BinaryTableFormat.write(this, file);
+	}
+
+	public boolean isOffHeap() {
+		return offHeap;
+	}
+
+	/** Adds a new, empty column; the table must not have any rows yet. */
+	public Column addColumn(final String name, final Column.Type type) {
+		final Column column = Column.create(name, type, offHeap);
+		addColumn(column);
+		return column;
+	}
+
+	/**
+	 * Adds the given column; it must have as many values as the other
+	 * columns.
+	 */
+	public void addColumn(final Column column) {
+		if (!columns.isEmpty() && column.size() != getRowCount()) {
+			throw new IllegalArgumentException("Column " + column.getName() +
+				" has " + column.size() + " rows, not " + getRowCount());
+		}
+		columns.add(column);
+	}
+
+	/**
+	 * Appends a row holding the given values, one per column: numbers for
+	 * numeric columns (null is a missing floating-point number), anything for
+	 * text columns.
+	 */
+	public void addRow(final Object... values) {
+		if (values.length != columns.size()) {
+			throw new IllegalArgumentException("Expected " + columns.size() +
+				" values, not " + values.length);
+		}
+		for (int i = 0; i < values.length; i++) {
+			final Column column = columns.get(i);
+			final Object value = values[i];
+			if (column instanceof LongColumn) {
+				((LongColumn) column).add(((Number) value).longValue());
+			}
+			else if (column instanceof DoubleColumn) {
+				((DoubleColumn) column).add(value == null ? Double.NaN
+					: ((Number) value).doubleValue());
+			}
+			else {
+				((StringColumn) column).add(value == null ? null : value.toString());
+			}
+		}
+	}
+
+	/**
+	 * Appends all rows of the given table, whose columns must have the same
+	 * names as the ones of this table, in the same order, and types that
+	 * convert to theirs (whole numbers to floating-point numbers, and anything
+	 * to text).
+	 */
+	public void append(final ColumnarTable table) {
+		if (table.getColumnCount() != columns.size()) {
+			throw new IllegalArgumentException("Expected " + columns.size() +
+				" columns, not " + table.getColumnCount());
+		}
+		for (int i = 0; i < columns.size(); i++) {
+			final Column column = columns.get(i), other = table.getColumn(i);
+			if (!column.getName().equals(other.getName())) {
+				throw new IllegalArgumentException("Column " + i + " is " + column
+					.getName() + ", not " + other.getName());
+			}
+			if (column.getType().compareTo(other.getType()) < 0) {
+				throw new IllegalArgumentException("Cannot append " + other
+					.getType() + " values to the " + column.getType() + " column " +
+					column.getName());
+			}
+		}
+		for (int i = 0; i < columns.size(); i++) {
+			columns.get(i).append(table.getColumn(i));
+		}
+	}
+
+	public int getColumnCount() {
+		return columns.size();
+	}
+
+	public int getRowCount() {
+		return columns.isEmpty() ? 0 : columns.get(0).size();
+	}
+
+	public Column getColumn(final int index) {
+		return columns.get(index);
+	}
+
+	/** Gets the (first) column with the given name, or null. */
+	public Column getColumn(final String name) {
+		for (final Column column : columns) {
+			if (column.getName().equals(name)) return column;
+		}
+		return null;
+	}
+
+	public List<Column> getColumns() {
+		return Collections.unmodifiableList(columns);
+	}
+
+	/**
+	 * Copies this table into a new {@link ResultsTable}. A text column named
+	 * {@value #LABEL_COLUMN} becomes the row labels.
+	 */
+	public ResultsTable toResultsTable() {
+		return toResultsTable(false);
+	}
+
+	/**
+	 * Moves the values of this table into a new {@link ResultsTable}, like
+	 * {@link #toResultsTable()}, but removes each column from this table as
+	 * soon as it has been copied. That way, at most one column is held twice
+	 * at any time, rather than the whole table; this table is left empty.
+	 */
+	public ResultsTable moveToResultsTable() {
+		return toResultsTable(true);
+	}
+
+	// -- Helper methods --
+
+	private ResultsTable toResultsTable(final boolean remove) {
+		final ResultsTable table = new ResultsTable();
+		final int rows = getRowCount();
+		for (int row = 0; row < rows; row++) {
+			table.incrementCounter();
+		}
+		// NB: Copy column by column, so that each can be let go when done.
+		for (final Iterator<Column> iter = columns.iterator(); iter.hasNext();) {
+			final Column column = iter.next();
+			if (remove) iter.remove();
+			if (column.getType() != Column.Type.STRING) {
+				final int index = getColumnIndex(table, column.getName());
+				for (int row = 0; row < rows; row++) {
+					table.setValue(index, row, column.getDouble(row));
+				}
+			}
+			else if (LABEL_COLUMN.equals(column.getName())) {
+				for (int row = 0; row < rows; row++) {
+					table.setLabel(column.getString(row), row);
+				}
+			}
+			else {
+				final int index = getColumnIndex(table, column.getName());
+				for (int row = 0; row < rows; row++) {
+					table.setValue(index, row, column.getString(row));
+				}
+			}
+		}
+		return table;
+	}
+
+	private static int getColumnIndex(final ResultsTable table,
+		final String name)
+	{
+		final int index = table.getFreeColumn(name);
+		return index >= 0 ? index : table.getColumnIndex(name);
+	}
+
+}
@@ -0,0 +1,370 @@
+/*
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2015 Fiji
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package sc.fiji.table;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads comma- or tab-separated text files into a {@link ColumnarTable}.
+ * <p>
+ * The file is read in chunks of rows, which are parsed on a pool of threads
+ * and appended to the table in order, so that neither the whole file nor all
+ * of its cells as strings are ever held in memory.
+ * </p>
+ * <p>
+ * The type of each column is inferred from its values: whole numbers,
+ * floating-point numbers (empty cells and {@code NaN} are missing values),
+ * or text. The first column is skipped if its heading is blank, as in the
+ * files ImageJ saves its results tables to (it holds the row numbers).
+ * Values may be quoted with double quotes, but may not span lines.
+ * </p>
+ * <p>
+ * If a column turns out to hold text only after numbers were parsed from it,
+ * the file is read again, with that column as text from the start, so that
+ * its values keep their spelling (e.g. {@code 007} stays {@code 007}).
+ * </p>
+ */
+public class DelimitedTableReader {
+
+	/** The number of rows parsed at a time. */
+	private static final int CHUNK_ROWS = 16384;
+
+	private int threads = Runtime.getRuntime().availableProcessors();
+
+	private boolean offHeap;
+
+	private boolean resultsTable;
+
+	/** Sets the number of threads parsing rows. */
+	public DelimitedTableReader threads(final int threads) {
+		this.threads = Math.max(1, threads);
+		return this;
+	}
+
+	/** Sets whether the table holds its values outside of the Java heap. */
+	public DelimitedTableReader offHeap(final boolean offHeap) {
+		this.offHeap = offHeap;
+		return this;
+	}
+
+	/**
+	 * Whether the table read last had the row number column of an ImageJ
+	 * results table.
+	 */
+	public boolean isResultsTable() {
+		return resultsTable;
+	}
+
+	/** Reads the given file, which must be encoded in UTF-8. */
+	public ColumnarTable read(final File file) throws IOException {
+		final BitSet text = new BitSet();
+		for (;;) {
+			try (final BufferedReader reader = new BufferedReader(
+				new InputStreamReader(new FileInputStream(file),
+					StandardCharsets.UTF_8), 1 << 16))
+			{
+				final ColumnarTable table = read(reader, text);
+				if (table != null) return table;
+			}
+		}
+	}
+
+	// -- Helper methods --
+
+	/**
+	 * Reads a table from the given reader.
+	 *
+	 * @param text the columns to read as text; a column found to hold text
+	 *          after numbers were parsed from it is added
+	 * @return the table, or null if a column was added to the text columns
+	 */
+	private ColumnarTable read(final BufferedReader reader, final BitSet text)
+		throws IOException
+	{
+		final ColumnarTable table = new ColumnarTable(offHeap);
+		final String header = reader.readLine();
+		if (header == null) return table;
+		final char separator = header.indexOf('\t') >= 0 ? '\t' : ',';
+		final String[] headings = split(header, separator, 0);
+		if (headings.length < 2) {
+			throw new IOException("Not a tab or comma-separated file");
+		}
+		resultsTable = headings[0].trim().isEmpty();
+		final int first = resultsTable ? 1 : 0;
+		final String[] names = new String[headings.length - first];
+		for (int i = 0; i < names.length; i++) {
+			names[i] = headings[i + first].trim();
+		}
+
+		final ExecutorService pool = Executors.newFixedThreadPool(threads,
+			new ThreadFactory() {
+
+				private final AtomicInteger count = new AtomicInteger();
+
+				@Override
+				public Thread newThread(final Runnable r) {
+					final Thread thread = new Thread(r, "fiji-table-parser-" + count
+						.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		final Column[] columns = new Column[names.length];
+		final BitSet asText = (BitSet) text.clone();
+		try {
+			final Deque<Future<Column[]>> pending = new ArrayDeque<>();
+			for (;;) {
+				final String[] lines = readLines(reader);
+				if (lines != null) {
+					pending.add(pool.submit(new Callable<Column[]>() {
+
+						@Override
+						public Column[] call() {
+							return parse(lines, separator, first, names, asText);
+						}
+					}));
+				}
+				// NB: Keep only a few chunks in memory.
+				while (!pending.isEmpty() && (lines == null || pending
+					.size() > 2 * threads))
+				{
+					final int widened = append(columns, get(pending.poll()));
+					if (widened >= 0) {
+						text.set(widened);
+						return null;
+					}
+				}
+				if (lines == null) break;
+			}
+		}
+		finally {
+			pool.shutdownNow();
+		}
+		for (int i = 0; i < columns.length; i++) {
+			table.addColumn(columns[i] != null ? columns[i] : Column.create(
+				names[i], Column.Type.DOUBLE, offHeap));
+		}
+		return table;
+	}
+
+	/** Reads the next chunk of (non-empty) lines, or returns null. */
+	private static String[] readLines(final BufferedReader reader)
+		throws IOException
+	{
+		final List<String> lines = new ArrayList<>();
+		while (lines.size() < CHUNK_ROWS) {
+			final String line = reader.readLine();
+			if (line == null) break;
+			if (!line.isEmpty()) lines.add(line);
+		}
+		return lines.isEmpty() ? null : lines.toArray(new String[lines.size()]);
+	}
+
+	private static Column[] get(final Future<Column[]> future)
+		throws IOException
+	{
+		try {
+			return future.get();
+		}
+		catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted", e);
+		}
+		catch (final ExecutionException e) {
+			throw new IOException(e.getCause());
+		}
+	}
+
+	/**
+	 * Appends the columns of a chunk to the table's columns, widening the
+	 * type of either if they differ.
+	 *
+	 * @return the index of a column which would have to be widened from
+	 *         numbers to text, in which case nothing is appended, or -1
+	 */
+	private int append(final Column[] columns, final Column[] chunk) {
+		for (int i = 0; i < columns.length; i++) {
+			// NB: Numbers cannot be turned back into the text they were read from.
+			if (columns[i] != null && columns[i].getType() != Column.Type.STRING &&
+				chunk[i].getType() == Column.Type.STRING)
+			{
+				return i;
+			}
+		}
+		for (int i = 0; i < columns.length; i++) {
+			if (columns[i] == null && !offHeap) columns[i] = chunk[i];
+			else {
+				if (columns[i] == null || chunk[i].getType().compareTo(columns[i]
+					.getType()) > 0)
+				{
+					final Column wider = Column.create(chunk[i].getName(), chunk[i]
+						.getType(), offHeap);
+					if (columns[i] != null) wider.append(columns[i]);
+					columns[i] = wider;
+				}
+				columns[i].append(chunk[i]);
+			}
+		}
+		return -1;
+	}
+
+	/** Parses a chunk of lines into one column per name. */
+	private static Column[] parse(final String[] lines, final char separator,
+		final int first, final String[] names, final BitSet text)
+	{
+		final String[][] cells = new String[lines.length][];
+		for (int row = 0; row < lines.length; row++) {
+			cells[row] = split(lines[row], separator, first + names.length);
+		}
+		final Column[] columns = new Column[names.length];
+		for (int i = 0; i < names.length; i++) {
+			columns[i] = parseColumn(names[i], cells, first + i, text.get(i));
+		}
+		return columns;
+	}
+
+	/**
+	 * Parses a column as the narrowest type fitting all its values, or as
+	 * text if requested.
+	 */
+	private static Column parseColumn(final String name, final String[][] cells,
+		final int index, final boolean text)
+	{
+		final int rows = cells.length;
+		final long[] longs = new long[text ? 0 : rows];
+		final double[] doubles = new double[text ? 0 : rows];
+		Column.Type type = text ? Column.Type.STRING : Column.Type.LONG;
+		for (int row = 0; row < rows && !text; row++) {
+			final String cell = index < cells[row].length ? cells[row][index] : "";
+			if (cell.isEmpty() || cell.equals("NaN")) {
+				type = Column.Type.DOUBLE;
+				doubles[row] = Double.NaN;
+				continue;
+			}
+			if (type == Column.Type.LONG && isLong(cell)) {
+				longs[row] = Long.parseLong(cell);
+				doubles[row] = longs[row];
+				continue;
+			}
+			try {
+				doubles[row] = Double.parseDouble(cell);
+				type = Column.Type.DOUBLE;
+			}
+			catch (final NumberFormatException e) {
+				type = Column.Type.STRING;
+				break;
+			}
+		}
+		switch (type) {
+			case LONG: {
+				final LongColumn column = new LongColumn(name);
+				column.add(longs, rows);
+				return column;
+			}
+			case DOUBLE: {
+				final DoubleColumn column = new DoubleColumn(name);
+				column.add(doubles, rows);
+				return column;
+			}
+			default: {
+				final StringColumn column = new StringColumn(name);
+				for (int row = 0; row < rows; row++) {
+					column.add(index < cells[row].length ? cells[row][index] : "");
+				}
+				return column;
+			}
+		}
+	}
+
+	private static boolean isLong(final String cell) {
+		final int length = cell.length();
+		if (length > 18) return false;
+		final int start = cell.charAt(0) == '-' || cell.charAt(0) == '+' ? 1 : 0;
+		if (start == length) return false;
+		for (int i = start; i < length; i++) {
+			final char c = cell.charAt(i);
+			if (c < '0' || c > '9') return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Splits a line into its cells, removing the double quotes around quoted
+	 * values.
+	 */
+	private static String[] split(final String line, final char separator,
+		final int expected)
+	{
+		final List<String> cells = new ArrayList<>(Math.max(expected, 4));
+		final int length = line.length();
+		int i = 0;
+		for (;;) {
+			if (i < length && line.charAt(i) == '"') {
+				final StringBuilder cell = new StringBuilder();
+				for (i++; i < length; i++) {
+					final char c = line.charAt(i);
+					if (c != '"') cell.append(c);
+					else if (i + 1 < length && line.charAt(i + 1) == '"') {
+						cell.append('"');
+						i++;
+					}
+					else {
+						i++;
+						break;
+					}
+				}
+				cells.add(cell.toString());
+				while (i < length && line.charAt(i) != separator) {
+					i++;
+				}
+			}
+			else {
+				final int end = line.indexOf(separator, i);
+				cells.add(line.substring(i, end < 0 ? length : end).trim());
+				i = end < 0 ? length : end;
+			}
+			if (i >= length) break;
+			i++; // skip the separator
+		}
+		return cells.toArray(new String[cells.size()]);
+	}
+
+}
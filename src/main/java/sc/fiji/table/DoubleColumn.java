@@ -0,0 +1,155 @@
+/*
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2015 Fiji
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package sc.fiji.table;
+
+import java.util.Arrays;
+
+/** A {@link Column} of floating-point numbers. */
+public class DoubleColumn extends Column {
+
+	/** The values, unless they are held off-heap. */
+	private double[] values;
+
+	/** The values, if they are held off-heap. */
+	private final OffHeapBuffer buffer;
+
+	public DoubleColumn(final String name) {
+		this(name, false);
+	}
+
+	public DoubleColumn(final String name, final boolean offHeap) {
+		super(name);
+		buffer = offHeap ? new OffHeapBuffer(8) : null;
+		if (!offHeap) values = new double[16];
+	}
+
+	public double get(final int row) {
+		return values != null ? values[row] : buffer.getDouble(row);
+	}
+
+	/** Copies {@code count} values, starting at the given row. */
+	public void get(final int row, final double[] array, final int offset,
+		final int count)
+	{
+		if (values != null) System.arraycopy(values, row, array, offset, count);
+		else buffer.getDoubles(row, array, offset, count);
+	}
+
+	public void set(final int row, final double value) {
+		if (values != null) values[row] = value;
+		else buffer.putDouble(row, value);
+	}
+
+	public void add(final double value) {
+		ensureCapacity(size + 1);
+		set(size++, value);
+	}
+
+	/** Appends the first {@code count} of the given values. */
+	public void add(final double[] array, final int count) {
+		add(array, 0, count);
+	}
+
+	/** Appends {@code count} of the given values, starting at the offset. */
+	public void add(final double[] array, final int offset, final int count) {
+		ensureCapacity(size + count);
+		if (values != null) System.arraycopy(array, offset, values, size, count);
+		else buffer.putDoubles(size, array, offset, count);
+		size += count;
+	}
+
+	/** Gets (a copy of) all values. */
+	public double[] toArray() {
+		if (values != null) return Arrays.copyOf(values, size);
+		final double[] array = new double[size];
+		buffer.getDoubles(0, array, 0, size);
+		return array;
+	}
+
+	// -- Column methods --
+
+	@Override
+	public Type getType() {
+		return Type.DOUBLE;
+	}
+
+	@Override
+	public boolean isOffHeap() {
+		return buffer != null;
+	}
+
+	@Override
+	public double getDouble(final int row) {
+		return get(row);
+	}
+
+	/**
+	 * Formats the value as text; missing values ({@code NaN}) are empty, and
+	 * whole numbers have no fraction digits.
+	 */
+	@Override
+	public String getString(final int row) {
+		final double value = get(row);
+		if (Double.isNaN(value)) return "";
+		if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+			return Long.toString((long) value);
+		}
+		return Double.toString(value);
+	}
+
+	@Override
+	public void append(final Column column) {
+		if (column.getType() == Type.STRING) {
+			throw new IllegalArgumentException("Cannot append " + column
+				.getType() + " values to a " + getType() + " column");
+		}
+		final DoubleColumn other = column instanceof DoubleColumn
+			? (DoubleColumn) column : null;
+		if (other != null && other.values != null) {
+			add(other.values, other.size);
+			return;
+		}
+		final double[] chunk = new double[Math.min(CHUNK_SIZE, column.size())];
+		for (int row = 0; row < column.size(); row += chunk.length) {
+			final int count = Math.min(chunk.length, column.size() - row);
+			if (other != null) other.get(row, chunk, 0, count);
+			else {
+				for (int i = 0; i < count; i++) {
+					chunk[i] = column.getDouble(row + i);
+				}
+			}
+			add(chunk, count);
+		}
+	}
+
+	// -- Helper methods --
+
+	private void ensureCapacity(final int required) {
+		if (values == null) buffer.ensureCapacity(required);
+		else if (required > values.length) {
+			values = Arrays.copyOf(values, grow(values.length, required));
+		}
+	}
+
+}
@@ -0,0 +1,77 @@
+/*
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2015 Fiji
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package sc.fiji.table;
+
+import ij.measure.ResultsTable;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.scijava.command.Command;
+import org.scijava.log.LogService;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+
+/**
+ * Imports a saved ImageJ results table, or any tab or comma-separated data
+ * file, using a {@link DelimitedTableReader}.
+ * <p>
+ * A results table is shown as the {@code Results}; any other table in a
+ * window named after the file. The columns are moved into the shown table
+ * one by one, so that the file's values are not held twice.
+ * </p>
+ */
+@Plugin(type = Command.class, menuPath = "File>Import>Table (Streaming)...")
+public class ImportTable implements Command {
+
+	@Parameter
+	private File file;
+
+	@Parameter(min = "1")
+	private int threads = Runtime.getRuntime().availableProcessors();
+
+	@Parameter
+	private LogService log;
+
+	private ResultsTable table;
+
+	@Override
+	public void run() {
+		final DelimitedTableReader reader = new DelimitedTableReader().threads(
+			threads);
+		try {
+			table = reader.read(file).moveToResultsTable();
+		}
+		catch (final IOException e) {
+			log.error("Could not import " + file, e);
+			return;
+		}
+		table.show(reader.isResultsTable() ? "Results" : file.getName());
+	}
+
+	public ResultsTable getTable() {
+		return table;
+	}
+
+}
@@ -0,0 +1,140 @@
+/*
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2015 Fiji
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package sc.fiji.table;
+
+import java.util.Arrays;
+
+/** A {@link Column} of whole numbers. */
+public class LongColumn extends Column {
+
+	/** The values, unless they are held off-heap. */
+	private long[] values;
+
+	/** The values, if they are held off-heap. */
+	private final OffHeapBuffer buffer;
+
+	public LongColumn(final String name) {
+		this(name, false);
+	}
+
+	public LongColumn(final String name, final boolean offHeap) {
+		super(name);
+		buffer = offHeap ? new OffHeapBuffer(8) : null;
+		if (!offHeap) values = new long[16];
+	}
+
+	public long get(final int row) {
+		return values != null ? values[row] : buffer.getLong(row);
+	}
+
+	/** Copies {@code count} values, starting at the given row. */
+	public void get(final int row, final long[] array, final int offset,
+		final int count)
+	{
+		if (values != null) System.arraycopy(values, row, array, offset, count);
+		else buffer.getLongs(row, array, offset, count);
+	}
+
+	public void set(final int row, final long value) {
+		if (values != null) values[row] = value;
+		else buffer.putLong(row, value);
+	}
+
+	public void add(final long value) {
+		ensureCapacity(size + 1);
+		set(size++, value);
+	}
+
+	/** Appends the first {@code count} of the given values. */
+	public void add(final long[] array, final int count) {
+		add(array, 0, count);
+	}
+
+	/** Appends {@code count} of the given values, starting at the offset. */
+	public void add(final long[] array, final int offset, final int count) {
+		ensureCapacity(size + count);
+		if (values != null) System.arraycopy(array, offset, values, size, count);
+		else buffer.putLongs(size, array, offset, count);
+		size += count;
+	}
+
+	/** Gets (a copy of) all values. */
+	public long[] toArray() {
+		if (values != null) return Arrays.copyOf(values, size);
+		final long[] array = new long[size];
+		buffer.getLongs(0, array, 0, size);
+		return array;
+	}
+
+	// -- Column methods --
+
+	@Override
+	public Type getType() {
+		return Type.LONG;
+	}
+
+	@Override
+	public boolean isOffHeap() {
+		return buffer != null;
+	}
+
+	@Override
+	public double getDouble(final int row) {
+		return get(row);
+	}
+
+	@Override
+	public String getString(final int row) {
+		return Long.toString(get(row));
+	}
+
+	@Override
+	public void append(final Column column) {
+		if (!(column instanceof LongColumn)) {
+			throw new IllegalArgumentException("Cannot append " + column
+				.getType() + " values to a " + getType() + " column");
+		}
+		final LongColumn other = (LongColumn) column;
+		if (other.values != null) {
+			add(other.values, other.size);
+			return;
+		}
+		final long[] chunk = new long[Math.min(CHUNK_SIZE, other.size)];
+		for (int row = 0; row < other.size; row += chunk.length) {
+			final int count = Math.min(chunk.length, other.size - row);
+			other.get(row, chunk, 0, count);
+			add(chunk, count);
+		}
+	}
+
+	// -- Helper methods --
+
+	private void ensureCapacity(final int required) {
+		if (values == null) buffer.ensureCapacity(required);
+		else if (required > values.length) {
+			values = Arrays.copyOf(values, grow(values.length, required));
+		}
+	}
+
+}
@@ -0,0 +1,177 @@
+/*
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2015 Fiji
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package sc.fiji.table;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Fixed-size values held outside of the Java heap, in direct buffers.
+ * <p>
+ * The values are stored in segments of {@value #SEGMENT_SIZE} values each,
+ * so that growing the buffer never copies the values written so far. The
+ * memory is released when the buffer is garbage collected; its total size
+ * is limited by the {@code -XX:MaxDirectMemorySize} option of the JVM.
+ * </p>
+ */
+class OffHeapBuffer {
+
+	private static final int SEGMENT_SHIFT = 20;
+	private static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+	private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+	private final int bytesPerValue;
+	private ByteBuffer[] segments = new ByteBuffer[0];
+
+	OffHeapBuffer(final int bytesPerValue) {
+		this.bytesPerValue = bytesPerValue;
+	}
+
+	/** Makes room for the given number of values. */
+	void ensureCapacity(final int values) {
+		final int count = (int) (((long) values + SEGMENT_MASK) >>> SEGMENT_SHIFT);
+		if (count <= segments.length) return;
+		final int first = segments.length;
+		segments = Arrays.copyOf(segments, count);
+		for (int i = first; i < count; i++) {
+			segments[i] = ByteBuffer.allocateDirect(SEGMENT_SIZE * bytesPerValue)
+				.order(ByteOrder.nativeOrder());
+		}
+	}
+
+	/** Gets the number of bytes allocated. */
+	long getCapacityBytes() {
+		return (long) segments.length * SEGMENT_SIZE * bytesPerValue;
+	}
+
+	long getLong(final int index) {
+		return segment(index).getLong(offset(index));
+	}
+
+	void putLong(final int index, final long value) {
+		segment(index).putLong(offset(index), value);
+	}
+
+	double getDouble(final int index) {
+		return segment(index).getDouble(offset(index));
+	}
+
+	void putDouble(final int index, final double value) {
+		segment(index).putDouble(offset(index), value);
+	}
+
+	int getInt(final int index) {
+		return segment(index).getInt(offset(index));
+	}
+
+	void putInt(final int index, final int value) {
+		segment(index).putInt(offset(index), value);
+	}
+
+	// -- Bulk methods --
+
+	void getLongs(final int index, final long[] array, final int offset,
+		final int count)
+	{
+		for (int done = 0; done < count;) {
+			final int n = run(index + done, count - done);
+			view(index + done).asLongBuffer().get(array, offset + done, n);
+			done += n;
+		}
+	}
+
+	void putLongs(final int index, final long[] array, final int offset,
+		final int count)
+	{
+		for (int done = 0; done < count;) {
+			final int n = run(index + done, count - done);
+			view(index + done).asLongBuffer().put(array, offset + done, n);
+			done += n;
+		}
+	}
+
+	void getDoubles(final int index, final double[] array, final int offset,
+		final int count)
+	{
+		for (int done = 0; done < count;) {
+			final int n = run(index + done, count - done);
+			view(index + done).asDoubleBuffer().get(array, offset + done, n);
+			done += n;
+		}
+	}
+
+	void putDoubles(final int index, final double[] array, final int offset,
+		final int count)
+	{
+		for (int done = 0; done < count;) {
+			final int n = run(index + done, count - done);
+			view(index + done).asDoubleBuffer().put(array, offset + done, n);
+			done += n;
+		}
+	}
+
+	void getInts(final int index, final int[] array, final int offset,
+		final int count)
+	{
+		for (int done = 0; done < count;) {
+			final int n = run(index + done, count - done);
+			view(index + done).asIntBuffer().get(array, offset + done, n);
+			done += n;
+		}
+	}
+
+	void putInts(final int index, final int[] array, final int offset,
+		final int count)
+	{
+		for (int done = 0; done < count;) {
+			final int n = run(index + done, count - done);
+			view(index + done).asIntBuffer().put(array, offset + done, n);
+			done += n;
+		}
+	}
+
+	// -- Helper methods --
+
+	private ByteBuffer segment(final int index) {
+		return segments[index >>> SEGMENT_SHIFT];
+	}
+
+	private int offset(final int index) {
+		return (index & SEGMENT_MASK) * bytesPerValue;
+	}
+
+	/** Gets how many of the given values lie in the segment of the first. */
+	private static int run(final int index, final int count) {
+		return Math.min(count, SEGMENT_SIZE - (index & SEGMENT_MASK));
+	}
+
+	/** Gets a view of the segment starting at the given value. */
+	private ByteBuffer view(final int index) {
+		final ByteBuffer view = segment(index).duplicate();
+		view.position(offset(index));
+		return view.order(ByteOrder.nativeOrder());
+	}
+
+}
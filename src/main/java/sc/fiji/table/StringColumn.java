@@ -0,0 +1,195 @@
+/*
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2015 Fiji
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package sc.fiji.table;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link Column} of text.
+ * <p>
+ * The values are dictionary-encoded: every distinct value is stored once, and
+ * each row holds the code of its value (or -1 for null). Labels repeated over
+ * many rows, such as the name of the measured object, thus take four bytes
+ * per row.
+ * </p>
+ */
+public class StringColumn extends Column {
+
+	private final List<String> dictionary = new ArrayList<>();
+	private final Map<String, Integer> codes = new HashMap<>();
+
+	/** The codes, unless they are held off-heap. */
+	private int[] values;
+
+	/** The codes, if they are held off-heap. */
+	private final OffHeapBuffer buffer;
+
+	public StringColumn(final String name) {
+		this(name, false);
+	}
+
+	public StringColumn(final String name, final boolean offHeap) {
+		super(name);
+		buffer = offHeap ? new OffHeapBuffer(4) : null;
+		if (!offHeap) values = new int[16];
+	}
+
+	public String get(final int row) {
+		return decode(getCode(row));
+	}
+
+	public void set(final int row, final String value) {
+		setCode(row, encode(value));
+	}
+
+	public void add(final String value) {
+		ensureCapacity(size + 1);
+		setCode(size++, encode(value));
+	}
+
+	// -- Dictionary methods --
+
+	/** Gets the code of the given row's value. */
+	public int getCode(final int row) {
+		return values != null ? values[row] : buffer.getInt(row);
+	}
+
+	/** Copies {@code count} codes, starting at the given row. */
+	public void getCodes(final int row, final int[] array, final int offset,
+		final int count)
+	{
+		if (values != null) System.arraycopy(values, row, array, offset, count);
+		else buffer.getInts(row, array, offset, count);
+	}
+
+	/**
+	 * Appends {@code count} of the given codes, starting at the offset; the
+	 * codes must be in the dictionary already.
+	 */
+	public void addCodes(final int[] array, final int offset, final int count) {
+		for (int i = offset; i < offset + count; i++) {
+			if (array[i] < -1 || array[i] >= dictionary.size()) {
+				throw new IllegalArgumentException("Invalid code: " + array[i]);
+			}
+		}
+		ensureCapacity(size + count);
+		if (values != null) System.arraycopy(array, offset, values, size, count);
+		else buffer.putInts(size, array, offset, count);
+		size += count;
+	}
+
+	/** Gets the code of the given value, adding it to the dictionary. */
+	public int encode(final String value) {
+		if (value == null) return -1;
+		final Integer code = codes.get(value);
+		if (code != null) return code;
+		dictionary.add(value);
+		codes.put(value, dictionary.size() - 1);
+		return dictionary.size() - 1;
+	}
+
+	/** Gets the value of the given code. */
+	public String decode(final int code) {
+		return code < 0 ? null : dictionary.get(code);
+	}
+
+	/** Gets the number of distinct values. */
+	public int getDictionarySize() {
+		return dictionary.size();
+	}
+
+	// -- Column methods --
+
+	@Override
+	public Type getType() {
+		return Type.STRING;
+	}
+
+	@Override
+	public boolean isOffHeap() {
+		return buffer != null;
+	}
+
+	@Override
+	public double getDouble(final int row) {
+		final String value = get(row);
+		if (value == null) return Double.NaN;
+		try {
+			return Double.parseDouble(value);
+		}
+		catch (final NumberFormatException e) {
+			return Double.NaN;
+		}
+	}
+
+	@Override
+	public String getString(final int row) {
+		return get(row);
+	}
+
+	@Override
+	public void append(final Column column) {
+		if (!(column instanceof StringColumn)) {
+			ensureCapacity(size + column.size());
+			for (int i = 0; i < column.size(); i++) {
+				setCode(size++, encode(column.getString(i)));
+			}
+			return;
+		}
+		// NB: Translate the codes of the other dictionary into this one's.
+		final StringColumn other = (StringColumn) column;
+		final int[] translation = new int[other.dictionary.size()];
+		for (int code = 0; code < translation.length; code++) {
+			translation[code] = encode(other.dictionary.get(code));
+		}
+		final int[] chunk = new int[Math.min(CHUNK_SIZE, other.size)];
+		for (int row = 0; row < other.size; row += chunk.length) {
+			final int count = Math.min(chunk.length, other.size - row);
+			other.getCodes(row, chunk, 0, count);
+			for (int i = 0; i < count; i++) {
+				if (chunk[i] >= 0) chunk[i] = translation[chunk[i]];
+			}
+			addCodes(chunk, 0, count);
+		}
+	}
+
+	// -- Helper methods --
+
+	private void setCode(final int row, final int code) {
+		if (values != null) values[row] = code;
+		else buffer.putInt(row, code);
+	}
+
+	private void ensureCapacity(final int required) {
+		if (values == null) buffer.ensureCapacity(required);
+		else if (required > values.length) {
+			values = Arrays.copyOf(values, grow(values.length, required));
+		}
+	}
+
+}
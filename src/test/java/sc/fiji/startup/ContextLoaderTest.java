@@ -0,0 +1,83 @@
+/*
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2015 Fiji
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package sc.fiji.startup;
+
+import static org.junit.Assert.assertNotNull;
+
+import net.imagej.ImageJ;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.scijava.Context;
+import org.scijava.console.ConsoleService;
+import org.scijava.ui.UIService;
+
+import sc.fiji.app.FijiApp;
+import sc.fiji.app.LaunchProfile;
+
+/** Tests {@link ContextLoader}. */
+public class ContextLoaderTest {
+
+	private String headless, services;
+
+	@Before
+	public void setUp() {
+		headless = System.setProperty("java.awt.headless", "true");
+		services = System.getProperty(ContextLoader.SERVICES_PROPERTY);
+	}
+
+	@After
+	public void tearDown() {
+		restore("java.awt.headless", headless);
+		restore(ContextLoader.SERVICES_PROPERTY, services);
+	}
+
+	/** Launches a context restricted to the headless batch profile. */
+	@Test
+	public void testHeadlessBatchLaunch() {
+		final LaunchProfile profile = FijiApp.getProfile(FijiApp.HEADLESS_BATCH);
+		final StringBuilder names = new StringBuilder();
+		for (final String name : profile.getServices()) {
+			if (names.length() > 0) names.append(",");
+			names.append(name);
+		}
+		System.setProperty(ContextLoader.SERVICES_PROPERTY, names.toString());
+
+		final Context context = new ContextLoader(StartupProfiler.get()).load();
+		assertNotNull(context.getService(ConsoleService.class));
+		assertNotNull(context.getService(UIService.class));
+		// NB: Throws if the gateway needs a service which was not loaded; when
+		// headless, the launch disposes the context afterwards.
+		new ImageJ(context).launch();
+	}
+
+	// -- Helper methods --
+
+	private static void restore(final String key, final String value) {
+		if (value == null) System.clearProperty(key);
+		else System.setProperty(key, value);
+	}
+
+}
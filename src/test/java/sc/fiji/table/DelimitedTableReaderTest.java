@@ -0,0 +1,82 @@
+/*
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2015 Fiji
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package sc.fiji.table;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Tests {@link DelimitedTableReader}. */
+public class DelimitedTableReaderTest {
+
+	/** More rows than are parsed at a time. */
+	private static final int ROWS = 50000;
+
+	private File file;
+
+	@Before
+	public void setUp() throws IOException {
+		file = File.createTempFile("table-", ".csv");
+	}
+
+	@After
+	public void tearDown() {
+		file.delete();
+	}
+
+	/**
+	 * Reads a column whose first rows look like numbers with leading zeros,
+	 * but whose last row is text.
+	 */
+	@Test
+	public void testTextAfterNumbers() throws IOException {
+		try (final PrintWriter out = new PrintWriter(file, "UTF-8")) {
+			out.println("Id,Area");
+			for (int row = 0; row < ROWS - 1; row++) {
+				out.println("007," + row);
+			}
+			out.println("n/a," + (ROWS - 1));
+		}
+		for (final int threads : new int[] { 1, 4 }) {
+			final ColumnarTable table = new DelimitedTableReader().threads(threads)
+				.read(file);
+			assertEquals(ROWS, table.getRowCount());
+			final Column id = table.getColumn("Id");
+			assertEquals(Column.Type.STRING, id.getType());
+			assertEquals("007", id.getString(0));
+			assertEquals("007", id.getString(ROWS - 2));
+			assertEquals("n/a", id.getString(ROWS - 1));
+			final Column area = table.getColumn("Area");
+			assertEquals(Column.Type.LONG, area.getType());
+			assertEquals(ROWS - 1, (long) area.getDouble(ROWS - 1));
+		}
+	}
+
+}